@@ -0,0 +1,250 @@
+package captionsprocessor;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Allocation regression check: runs each processing stage, the full pipeline, parsing and writing over generated captions, measures the
+ * bytes each allocates per caption with com.sun.management.ThreadMXBean, and compares them with the budgets checked in to
+ * bench/allocation-budgets.properties. Prints a per-operation report and exits with status 1 if any operation is over its budget
+ * or has none, so a build step that runs it fails on an allocation regression.
+ * <p>
+ * Each operation is warmed up until the JIT has compiled it, since escape analysis removes some allocations only then, and the
+ * median of several measured rounds is taken. Fresh captions are copied before every round, outside the measurement.
+ * <p>
+ * Usage: AllocationBudgets [--budgets FILE] [--captions N] [--seed N] [--only name,...] [--update]
+ * <br>The number of captions defaults to the one the budgets were measured with, recorded in FILE. With --update, the budgets file is
+ * rewritten from this run's measurements plus headroom, after a deliberate change.
+ */
+public class AllocationBudgets {
+
+	static final Path DEFAULT_BUDGETS = Path.of("bench", "allocation-budgets.properties");
+	private static final int WARMUP_ROUNDS = 200;
+	private static final int MEASURED_ROUNDS = 9;
+	private static final double UPDATE_HEADROOM = 1.2;  //budgets written by --update allow 20% over the measurement
+	private static final int MIN_BUDGET = 16;  //bytes per caption, so an operation that allocates next to nothing doesn't fail on noise
+	private static final String CAPTIONS_KEY = "captions";  //per-file buffers count for more in shorter files, so budgets hold for one size
+	private static final int DEFAULT_CAPTIONS = 2_000;
+
+	private static final com.sun.management.ThreadMXBean THREADS = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+	private static volatile Object sink;  //keeps results reachable so the JIT can't discard the work
+
+	/**
+	 * A measured operation over one round's input.
+	 */
+	private interface Operation {
+		void run(Input input) throws IOException;
+	}
+
+	/**
+	 * The input of one round: fresh Captions, and a CaptionStore holding the same, for operations that edit them in place.
+	 */
+	private record Input(List<Caption> captions, CaptionStore store, ByteBuffer bytes, List<String> lines, ReplacementMatcher matcher) {
+	}
+
+	/**
+	 * One operation's measurement against its budget, in bytes per caption; a budget of -1 means none was found.
+	 */
+	private record Measurement(String name, double bytesPerCaption, long budget) {
+
+		boolean withinBudget() {
+			return budget >= 0 && bytesPerCaption <= budget;
+		}
+	}
+
+	@SuppressWarnings("deprecation")  //caption.toWords and caption.toChars measure the deprecated Caption methods on purpose
+	private static Map<String, Operation> operations() {
+		Map<String, Operation> operations = new LinkedHashMap<>();
+		operations.put("parse.list", input -> {
+			List<Caption> captions = new ArrayList<>();
+			MappedCaptionReader.read(input.bytes(), captions::add);
+			sink = captions;
+		});
+		operations.put("parse.store", input -> {
+			CaptionStore store = new CaptionStore();
+			MappedCaptionReader.read(input.bytes(), store::add);
+			sink = store;
+		});
+		operations.put("parse.listToCaptions", input -> sink = CaptionsProcessor.listToCaptions(input.lines()));
+		operations.put("caption.toWords", input -> {
+			for (Caption caption : input.captions()) {
+				sink = caption.toWords();
+			}
+		});
+		operations.put("caption.toChars", input -> {
+			for (Caption caption : input.captions()) {
+				sink = caption.toChars();
+			}
+		});
+		operations.put("searchAndReplace", input -> CaptionsProcessor.searchAndReplace(input.captions(), "you know", ""));
+		List<Stage> stages = Pipeline.standard(new ReplacementMatcher(CaptionsProcessor.DEFAULT_REPLACEMENTS)).getStages();
+		for (int i = 0; i < stages.size(); i++) {
+			int index = i;
+			operations.put("stage." + stages.get(i).getName(), input -> new Pipeline(Pipeline.standard(input.matcher()).getStages().get(index)).run(input.captions()));
+		}
+		operations.put("pipeline.list", input -> Pipeline.standard(input.matcher()).run(input.captions()));
+		operations.put("pipeline.store", input -> input.store().run(Pipeline.standard(input.matcher())));
+		operations.put("write.list", input -> sink = CaptionWriter.encode(input.captions(), CaptionEncoding.UTF_8));
+		operations.put("write.store", input -> sink = CaptionWriter.encode(input.store(), CaptionEncoding.UTF_8));
+		return operations;
+	}
+
+	private static Input newInput(List<Caption> captions, ByteBuffer bytes, List<String> lines, ReplacementMatcher matcher) {
+		List<Caption> copies = new ArrayList<>(captions.size());
+		CaptionStore store = new CaptionStore();
+		for (Caption caption : captions) {
+			copies.add(new Caption(caption.getNumber(), caption.getTiming(), caption.getContent()));
+			store.add(caption);
+		}
+		return new Input(copies, store, bytes.duplicate(), lines, matcher);
+	}
+
+	/**
+	 * Runs an operation for WARMUP_ROUNDS, then returns the median bytes per caption of MEASURED_ROUNDS.
+	 */
+	private static double measure(Operation operation, List<Caption> captions, ByteBuffer bytes, List<String> lines, ReplacementMatcher matcher) throws IOException {
+		for (int i = 0; i < WARMUP_ROUNDS; i++) {
+			operation.run(newInput(captions, bytes, lines, matcher));
+		}
+		long[] allocated = new long[MEASURED_ROUNDS];
+		for (int i = 0; i < MEASURED_ROUNDS; i++) {
+			Input input = newInput(captions, bytes, lines, matcher);
+			long before = THREADS.getCurrentThreadAllocatedBytes();
+			operation.run(input);
+			allocated[i] = THREADS.getCurrentThreadAllocatedBytes() - before;
+		}
+		Arrays.sort(allocated);
+		return (double) allocated[MEASURED_ROUNDS / 2] / captions.size();
+	}
+
+	private static Properties readBudgets(Path file) throws IOException {
+		Properties budgets = new Properties();
+		if (Files.exists(file)) {
+			try (Reader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+				budgets.load(in);
+			}
+		}
+		return budgets;
+	}
+
+	/**
+	 * Rewrites the budgets file with a budget for each measured operation, keeping the budgets of operations that weren't measured.
+	 */
+	private static void writeBudgets(Path file, Properties budgets, List<Measurement> measurements, int captions) throws IOException {
+		Map<String, Long> updated = new LinkedHashMap<>();
+		for (String name : operations().keySet()) {
+			if (budgets.getProperty(name) != null) {
+				updated.put(name, Long.parseLong(budgets.getProperty(name).trim()));
+			}
+		}
+		for (Measurement measurement : measurements) {
+			updated.put(measurement.name(), Math.max(MIN_BUDGET, (long) Math.ceil(measurement.bytesPerCaption() * UPDATE_HEADROOM)));
+		}
+		try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+			out.write("# Allocation budgets, in bytes per caption, checked by bench/captionsprocessor/AllocationBudgets.java.\n");
+			out.write("# Measured after JIT warm-up with the default JVM flags, with " + Math.round((UPDATE_HEADROOM - 1) * 100)
+					+ "% headroom. Lower a budget when an operation improves; raise one only for a deliberate change.\n");
+			out.write(CAPTIONS_KEY + "=" + captions + "\n");
+			for (Map.Entry<String, Long> budget : updated.entrySet()) {
+				out.write(budget.getKey() + "=" + budget.getValue() + "\n");
+			}
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		Path budgetsFile = DEFAULT_BUDGETS;
+		Integer count = null;
+		long seed = SrtGenerator.DEFAULT_SEED;
+		List<String> only = null;
+		boolean update = false;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("--budgets") && i + 1 < args.length) {
+				budgetsFile = Path.of(args[++i]);
+			}
+			else if (args[i].equals("--captions") && i + 1 < args.length) {
+				count = Integer.parseInt(args[++i]);
+			}
+			else if (args[i].equals("--seed") && i + 1 < args.length) {
+				seed = Long.parseLong(args[++i]);
+			}
+			else if (args[i].equals("--only") && i + 1 < args.length) {
+				only = List.of(args[++i].split(","));
+			}
+			else if (args[i].equals("--update")) {
+				update = true;
+			}
+			else {
+				System.err.println("Usage: AllocationBudgets [--budgets FILE] [--captions N] [--seed N] [--only name,...] [--update]");
+				System.exit(2);
+			}
+		}
+		if (!THREADS.isThreadAllocatedMemorySupported()) {
+			System.err.println("Thread allocation counters are not supported by this JVM; allocation budgets can't be checked");
+			System.exit(2);
+		}
+		THREADS.setThreadAllocatedMemoryEnabled(true);
+		Properties budgets = readBudgets(budgetsFile);
+		if (count == null) {
+			count = Integer.parseInt(budgets.getProperty(CAPTIONS_KEY, String.valueOf(DEFAULT_CAPTIONS)).trim());
+		}
+
+		String text = SrtGenerator.text(count, seed);
+		ByteBuffer bytes = ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+		List<String> lines = text.lines().toList();
+		List<Caption> captions = SrtGenerator.captions(count, seed);
+		ReplacementMatcher matcher = new ReplacementMatcher(CaptionsProcessor.DEFAULT_REPLACEMENTS);
+
+		PrintStream console = System.out;
+		console.println(count + " captions, budgets from " + budgetsFile);
+		List<Measurement> measurements = new ArrayList<>();
+		console.format("%-44s %14s %10s %9s  %s%n", "operation", "bytes/caption", "budget", "used", "");
+		for (Map.Entry<String, Operation> entry : operations().entrySet()) {
+			if (only != null && !only.contains(entry.getKey())) {
+				continue;
+			}
+			double bytesPerCaption;
+			System.setOut(new PrintStream(OutputStream.nullOutputStream()));  //the legacy methods print progress
+			try {
+				bytesPerCaption = measure(entry.getValue(), captions, bytes, lines, matcher);
+			} finally {
+				System.setOut(console);
+			}
+			String budget = budgets.getProperty(entry.getKey());
+			Measurement measurement = new Measurement(entry.getKey(), bytesPerCaption, (budget == null) ? -1 : Long.parseLong(budget.trim()));
+			measurements.add(measurement);
+			console.format(Locale.ROOT, "%-44s %14.1f %10s %9s  %s%n", measurement.name(), bytesPerCaption,
+					(budget == null) ? "-" : measurement.budget(),
+					(budget == null) ? "-" : String.format(Locale.ROOT, "%.0f%%", 100 * bytesPerCaption / Math.max(1, measurement.budget())),
+					measurement.withinBudget() ? "ok" : (budget == null) ? "NO BUDGET" : "OVER BUDGET");
+		}
+
+		if (update) {
+			writeBudgets(budgetsFile, budgets, measurements, count);
+			console.println("Budgets written to " + budgetsFile);
+			return;
+		}
+		long failed = measurements.stream().filter(measurement -> !measurement.withinBudget()).count();
+		if (failed > 0) {
+			console.println(failed + " of " + measurements.size() + " operations over budget or without one; see " + budgetsFile);
+			System.exit(1);
+		}
+		console.println("All " + measurements.size() + " operations within their allocation budgets");
+	}
+
+}
@@ -0,0 +1,212 @@
+package captionsprocessor;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Throughput and allocation benchmarks for the parsing, editing and writing steps, run over files from SrtGenerator.
+ * Each operation processes a whole generated file; captions edited in place are copied fresh before every operation, outside the measurement.
+ * Reports operations per second, nanoseconds per caption and bytes allocated per caption (measured with com.sun.management.ThreadMXBean).
+ * <p>
+ * Usage: Benchmarks [--sizes 10,1000,100000] [--only name,...] [--warmup MS] [--time MS] [--seed N] [--csv FILE]
+ */
+public class Benchmarks {
+
+	private static final int MIN_ITERATIONS = 3;
+	private static final int VOCABULARY_SIZE = 100_000;
+
+	private static Vocabulary vocabulary;  //built on first use, since indexing it takes a moment
+
+	private static volatile Object sink;  //keeps results reachable so the JIT can't discard the work
+
+	private static final com.sun.management.ThreadMXBean THREADS = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+	/**
+	 * A benchmarked operation over one generated file.
+	 */
+	private interface Operation {
+		void run(Fixture fixture, List<Caption> captions) throws IOException;
+	}
+
+	/**
+	 * The generated input for one file size.
+	 */
+	private static class Fixture {
+		private final int size;
+		private final List<String> lines;
+		private final List<Caption> captions;
+		private final Path input;
+		private final Path output;
+		private final ReplacementMatcher matcher = new ReplacementMatcher(CaptionsProcessor.DEFAULT_REPLACEMENTS);
+
+		private Fixture(int size, long seed) throws IOException {
+			this.size = size;
+			String text = SrtGenerator.text(size, seed);
+			this.input = Files.createTempFile("captions-bench-" + size + "-", ".srt");
+			this.output = Files.createTempFile("captions-bench-" + size + "-", ".out.srt");
+			Files.writeString(input, text);
+			this.lines = Files.readAllLines(input);
+			this.captions = CaptionsProcessor.listToCaptions(lines);
+		}
+
+		/**
+		 * Returns fresh copies of the captions, for operations that edit them in place.
+		 */
+		private List<Caption> copyCaptions() {
+			List<Caption> copies = new ArrayList<>(captions.size());
+			for (Caption caption : captions) {
+				copies.add(new Caption(caption.getNumber(), caption.getTiming(), caption.getContent()));
+			}
+			return copies;
+		}
+
+		private void delete() throws IOException {
+			Files.deleteIfExists(input);
+			Files.deleteIfExists(output);
+		}
+	}
+
+	/**
+	 * The measured results of one operation over one file size.
+	 */
+	private record Result(String name, int captions, int iterations, long nanos, long bytes) {
+
+		double opsPerSecond() {
+			return iterations / (nanos / 1e9);
+		}
+
+		double nanosPerCaption() {
+			return (double) nanos / iterations / Math.max(1, captions);
+		}
+
+		double bytesPerCaption() {
+			return (double) bytes / iterations / Math.max(1, captions);
+		}
+	}
+
+	private static Map<String, Operation> operations() {
+		Map<String, Operation> operations = new LinkedHashMap<>();
+		operations.put("listToCaptions", (fixture, captions) -> sink = CaptionsProcessor.listToCaptions(fixture.lines));
+		operations.put("readCaptions", (fixture, captions) -> sink = CaptionsProcessor.readCaptions(fixture.input));
+		operations.put("multipleReplace", (fixture, captions) -> new Pipeline(new Stages.Replace(fixture.matcher)).run(captions));
+		operations.put("removeDuplicateWords", (fixture, captions) -> new Pipeline(new Stages.RemoveDuplicateWords()).run(captions));
+		operations.put("removeMultipleSpaces", (fixture, captions) -> new Pipeline(new Stages.RemoveMultipleSpaces()).run(captions));
+		operations.put("decapitalize", (fixture, captions) -> new Pipeline(new Stages.Decapitalize()).run(captions));
+		operations.put("correctTerms", (fixture, captions) -> new Pipeline(new Stages.CorrectTerms(vocabulary())).run(captions));
+		operations.put("capitalizeFirstLetters", (fixture, captions) -> new Pipeline(new Stages.CapitalizeFirstLetters()).run(captions));
+		operations.put("scanFeatures", (fixture, captions) -> sink = scanFeatures(captions, fixture.matcher));
+		operations.put("standardPipeline", (fixture, captions) -> sink = CaptionsProcessor.process(captions, Pipeline.standard(fixture.matcher)));
+		operations.put("writeCaptionFile", (fixture, captions) -> CaptionWriter.write(captions, fixture.output));  //what InputHandler.writeCaptionFile() runs, without the dialog-chosen path
+		return operations;
+	}
+
+	/**
+	 * Scans every caption for all CaptionFeatures, as a Pipeline does before the first stage that consults them.
+	 */
+	private static int scanFeatures(List<Caption> captions, ReplacementMatcher matcher) {
+		char[] chars = new char[64];
+		int found = 0;
+		for (Caption caption : captions) {
+			String content = caption.getContent();
+			if (content.length() > chars.length) {
+				chars = new char[content.length() * 2];
+			}
+			content.getChars(0, content.length(), chars, 0);
+			found |= CaptionFeatures.scan(chars, 0, content.length(), CaptionFeatures.ALL, matcher);
+		}
+		return found;
+	}
+
+	private static Vocabulary vocabulary() {
+		if (vocabulary == null) {
+			vocabulary = Vocabulary.of(SrtGenerator.vocabulary(VOCABULARY_SIZE, SrtGenerator.DEFAULT_SEED), Vocabulary.DEFAULT_MAX_DISTANCE);
+		}
+		return vocabulary;
+	}
+
+	/**
+	 * Runs an operation repeatedly for at least a specified time, returning the totals.
+	 */
+	private static Result measure(String name, Operation operation, Fixture fixture, long minNanos) throws IOException {
+		int iterations = 0;
+		long nanos = 0;
+		long bytes = 0;
+		while (iterations < MIN_ITERATIONS || nanos < minNanos) {
+			List<Caption> captions = fixture.copyCaptions();
+			long allocatedBefore = THREADS.getCurrentThreadAllocatedBytes();
+			long start = System.nanoTime();
+			operation.run(fixture, captions);
+			nanos += System.nanoTime() - start;
+			bytes += THREADS.getCurrentThreadAllocatedBytes() - allocatedBefore;
+			iterations++;
+		}
+		return new Result(name, fixture.size, iterations, nanos, bytes);
+	}
+
+	public static void main(String[] args) throws IOException {
+		int[] sizes = {10, 1_000, 100_000};
+		List<String> only = null;
+		long warmupMillis = 1000;
+		long timeMillis = 2000;
+		long seed = SrtGenerator.DEFAULT_SEED;
+		Path csv = null;
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			switch (args[i]) {
+			case "--sizes" -> sizes = Arrays.stream(args[i + 1].split(",")).mapToInt(Integer::parseInt).toArray();
+			case "--only" -> only = List.of(args[i + 1].split(","));
+			case "--warmup" -> warmupMillis = Long.parseLong(args[i + 1]);
+			case "--time" -> timeMillis = Long.parseLong(args[i + 1]);
+			case "--seed" -> seed = Long.parseLong(args[i + 1]);
+			case "--csv" -> csv = Path.of(args[i + 1]);
+			default -> {
+				System.err.println("Usage: Benchmarks [--sizes 10,1000,100000] [--only name,...] [--warmup MS] [--time MS] [--seed N] [--csv FILE]");
+				System.exit(2);
+			}
+			}
+		}
+		if (!THREADS.isThreadAllocatedMemorySupported()) {
+			System.err.println("Thread allocation counters are not supported by this JVM; bytes per caption will read 0");
+		}
+		THREADS.setThreadAllocatedMemoryEnabled(true);
+
+		List<Result> results = new ArrayList<>();
+		System.out.println("Character kernels: " + CharKernels.get().getName());
+		System.out.format("%-24s %10s %12s %14s %14s%n", "benchmark", "captions", "ops/s", "ns/caption", "bytes/caption");
+		for (int size : sizes) {
+			Fixture fixture = new Fixture(size, seed);
+			try {
+				for (Map.Entry<String, Operation> entry : operations().entrySet()) {
+					if (only != null && !only.contains(entry.getKey())) {
+						continue;
+					}
+					measure(entry.getKey(), entry.getValue(), fixture, warmupMillis * 1_000_000);  //warm-up, discarded
+					Result result = measure(entry.getKey(), entry.getValue(), fixture, timeMillis * 1_000_000);
+					results.add(result);
+					System.out.format("%-24s %10d %12.2f %14.1f %14.1f%n", result.name(), result.captions(),
+							result.opsPerSecond(), result.nanosPerCaption(), result.bytesPerCaption());
+				}
+			} finally {
+				fixture.delete();
+			}
+		}
+		if (csv != null) {
+			try (PrintStream out = new PrintStream(Files.newOutputStream(csv))) {
+				out.println("benchmark,captions,iterations,ops_per_s,ns_per_caption,bytes_per_caption");
+				for (Result result : results) {
+					out.format(Locale.ROOT, "%s,%d,%d,%.3f,%.3f,%.3f%n", result.name(), result.captions(), result.iterations(),
+							result.opsPerSecond(), result.nanosPerCaption(), result.bytesPerCaption());
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,85 @@
+package captionsprocessor;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Format regression check: reads small captions files with unusual timing lines, writes each as SubRip and as WebVTT, through both a
+ * List of Captions and a CaptionStore, and compares the timing lines written with the ones expected. Prints each mismatch and exits
+ * with status 1 if there are any, so a build step that runs it fails when a format change mangles a timing line.
+ * <p>
+ * Usage: FormatChecks
+ */
+public class FormatChecks {
+
+	/**
+	 * A timing line as read, and the timing lines expected when it's written as SubRip and as WebVTT.
+	 */
+	private record Check(String name, String timing, String srt, String vtt) {
+	}
+
+	private static List<Check> checks() {
+		List<Check> checks = new ArrayList<>();
+		checks.add(new Check("canonical", "00:00:01,000 --> 00:00:02,500",
+				"00:00:01,000 --> 00:00:02,500", "00:00:01.000 --> 00:00:02.500"));
+		checks.add(new Check("cue settings", "00:00:01,000 --> 00:00:04,500 align:start position:10%",
+				"00:00:01,000 --> 00:00:04,500", "00:00:01.000 --> 00:00:04.500 align:start position:10%"));
+		checks.add(new Check("spaces around the arrow", "00:00:01,000  -->  00:00:02,500",
+				"00:00:01,000  -->  00:00:02,500", "00:00:01.000  -->  00:00:02.500"));
+		checks.add(new Check("tab after the arrow", "00:00:01,000 -->\t00:00:02,500",
+				"00:00:01,000 -->\t00:00:02,500", "00:00:01.000 -->\t00:00:02.500"));
+		checks.add(new Check("spaces after the arrow and cue settings", "00:00:01,000 -->  00:00:02,500 align:end",
+				"00:00:01,000 -->  00:00:02,500 align:end", "00:00:01.000 -->  00:00:02.500 align:end"));
+		checks.add(new Check("one-digit hours", "0:00:01,000 --> 0:00:02,500",
+				"0:00:01,000 --> 0:00:02,500", "0:00:01.000 --> 0:00:02.500"));
+		checks.add(new Check("no end time", "00:00:01,000 -->",
+				"00:00:01,000 -->", "00:00:01.000 -->"));
+		return checks;
+	}
+
+	public static void main(String[] args) {
+		if (args.length > 0) {
+			System.err.println("Usage: FormatChecks");
+			System.exit(2);
+		}
+		int failures = 0;
+		List<Check> checks = checks();
+		for (Check check : checks) {
+			String input = "1\n" + check.timing() + "\nSome text.\n\n";
+			for (CaptionFormat format : List.of(CaptionFormat.SRT, CaptionFormat.WEBVTT)) {
+				String expected = (format == CaptionFormat.SRT) ? check.srt() : check.vtt();
+				List<Caption> captions = new ArrayList<>();
+				CaptionStore store = new CaptionStore();
+				MappedCaptionReader.read(bytes(input), CaptionEncoding.UTF_8, CaptionFormat.SRT, captions::add);
+				MappedCaptionReader.read(bytes(input), CaptionEncoding.UTF_8, CaptionFormat.SRT, store::add);
+				failures += compare(check.name() + ", " + format + " from a List", expected,
+						CaptionWriter.encode(captions, CaptionEncoding.UTF_8, format));
+				failures += compare(check.name() + ", " + format + " from a CaptionStore", expected,
+						CaptionWriter.encode(store, CaptionEncoding.UTF_8, format));
+			}
+		}
+		System.out.println((checks.size() * 4 - failures) + " of " + (checks.size() * 4) + " timing lines written as expected");
+		System.exit(failures == 0 ? 0 : 1);
+	}
+
+	private static ByteBuffer bytes(String text) {
+		return ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Compares the timing line of the only caption in an encoded file with the one expected, printing it if they differ.
+	 * @return 1 if they differ, otherwise 0
+	 */
+	private static int compare(String name, String expected, ByteBuffer output) {
+		String text = StandardCharsets.UTF_8.decode(output).toString();
+		String timing = text.lines().filter(line -> line.contains("-->")).findFirst().orElse("(none)");
+		if (timing.equals(expected)) {
+			return 0;
+		}
+		System.out.println("MISMATCH " + name + ":\n  expected " + expected + "\n  written  " + timing);
+		return 1;
+	}
+
+}
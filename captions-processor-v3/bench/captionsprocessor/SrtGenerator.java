@@ -0,0 +1,173 @@
+package captionsprocessor;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Generates synthetic .srt captions that look like speech-to-text output: filler words, stutters, double spaces, mixed case,
+ * acronyms, multi-line captions and the occasional "[no speech detected]" placeholder.
+ * Output depends only on the caption count and the seed, so runs are reproducible across machines.
+ * <p>
+ * Usage: SrtGenerator CAPTIONS OUTPUT_FILE [SEED]
+ */
+public class SrtGenerator {
+
+	public static final long DEFAULT_SEED = 20221L;
+
+	private static final String[] WORDS = {
+			"the", "a", "of", "to", "and", "in", "is", "that", "we", "this", "it", "for", "on", "with", "as", "so", "can", "be",
+			"data", "packet", "network", "server", "client", "router", "protocol", "layer", "address", "request", "response",
+			"lecture", "assignment", "exam", "question", "example", "slide", "model", "function", "memory", "thread", "process",
+			"send", "receive", "look", "think", "see", "know", "want", "going", "right", "here", "there", "now", "next", "first"
+	};
+	private static final String[] FILLERS = {"you know", "basically", "actually", "really", "I mean", "so so", "and and", "um"};
+	private static final String[] PROPER = {"I", "I'll", "TCP", "IP", "HTTP", "DNS", "Zoom", "WashU", "Professor", "Monday"};
+	private static final String[] ENDINGS = {".", ".", ".", "?", ","};
+
+	private final SplittableRandom random;
+	private int time = 0;  //end of the previous caption, in milliseconds
+
+	public SrtGenerator(long seed) {
+		this.random = new SplittableRandom(seed);
+	}
+
+	/**
+	 * Returns the content of the next caption.
+	 */
+	private String nextContent() {
+		if (random.nextInt(50) == 0) {
+			return CaptionsProcessor.EMPTY_PLACEHOLDER;
+		}
+		StringBuilder content = new StringBuilder();
+		int words = 4 + random.nextInt(12);
+		int breakAt = random.nextInt(4) == 0 ? words / 2 : -1;  //a quarter of captions span two lines
+		for (int i = 0; i < words; i++) {
+			if (i > 0) {
+				content.append(i == breakAt ? "\n" : " ");
+				if (random.nextInt(15) == 0) content.append(' ');  //double space
+			}
+			int kind = random.nextInt(20);
+			String word;
+			if (kind == 0) word = FILLERS[random.nextInt(FILLERS.length)];
+			else if (kind == 1) word = PROPER[random.nextInt(PROPER.length)];
+			else word = WORDS[random.nextInt(WORDS.length)];
+			if (kind == 2) {  //stutter
+				content.append(word).append(' ');
+			}
+			if (kind == 3) {  //stray capitals
+				word = Character.toUpperCase(word.charAt(0)) + word.substring(1);
+			}
+			content.append(word);
+			if (random.nextInt(8) == 0) content.append(ENDINGS[random.nextInt(ENDINGS.length)]);
+		}
+		if (random.nextInt(10) == 0) content.append(' ');  //trailing space
+		return content.toString();
+	}
+
+	/**
+	 * Returns the next caption.
+	 * @param number The caption number
+	 */
+	public Caption next(int number) {
+		int start = time + random.nextInt(400);
+		int end = start + 800 + random.nextInt(4200);
+		time = end;
+		return new Caption(number, Timing.format(start, end), nextContent());
+	}
+
+	/**
+	 * Generates a List of Captions.
+	 * @param count The number of captions
+	 * @param seed The random seed
+	 * @return The Captions, numbered from 1
+	 */
+	public static List<Caption> captions(int count, long seed) {
+		SrtGenerator generator = new SrtGenerator(seed);
+		List<Caption> captions = new ArrayList<>(count);
+		for (int i = 1; i <= count; i++) {
+			captions.add(generator.next(i));
+		}
+		return captions;
+	}
+
+	/**
+	 * Writes generated captions in .srt form, with the same layout as CaptionWriter.
+	 * @param count The number of captions
+	 * @param seed The random seed
+	 * @param out The Writer to be written to
+	 */
+	public static void write(int count, long seed, Writer out) throws IOException {
+		SrtGenerator generator = new SrtGenerator(seed);
+		for (int i = 1; i <= count; i++) {
+			Caption caption = generator.next(i);
+			out.write(caption.getNumber() + "\n" + caption.getTiming() + "\n" + caption.getContent() + "\n\n");
+		}
+	}
+
+	/**
+	 * Returns generated captions as the text of a .srt file.
+	 * @param count The number of captions
+	 * @param seed The random seed
+	 * @return The file text
+	 */
+	public static String text(int count, long seed) {
+		StringWriter out = new StringWriter();
+		try {
+			write(count, seed, out);
+		} catch (IOException ioe) {
+			throw new IllegalStateException(ioe);  //StringWriter doesn't throw
+		}
+		return out.toString();
+	}
+
+	/**
+	 * Generates a domain vocabulary for Stages.CorrectTerms: the proper nouns and acronyms the captions use, which decapitalization
+	 * lowercases and the vocabulary restores, the ordinary words they use as known words, and made-up words of 4 to 12 letters
+	 * up to the given size.
+	 * @param size The number of lines
+	 * @param seed The random seed
+	 * @return The lines of a vocabulary file
+	 */
+	public static List<String> vocabulary(int size, long seed) {
+		SplittableRandom random = new SplittableRandom(seed);
+		List<String> terms = new ArrayList<>(size);
+		for (String proper : PROPER) {
+			if (proper.length() >= Vocabulary.MIN_WORD_LENGTH && terms.size() < size) {
+				terms.add(proper);
+			}
+		}
+		for (String word : WORDS) {
+			if (word.length() >= Vocabulary.MIN_WORD_LENGTH && terms.size() < size) {
+				terms.add("!" + word);
+			}
+		}
+		while (terms.size() < size) {
+			char[] word = new char[4 + random.nextInt(9)];
+			for (int i = 0; i < word.length; i++) {
+				word[i] = (char) ('a' + random.nextInt(26));
+			}
+			terms.add(new String(word));
+		}
+		return terms;
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.err.println("Usage: SrtGenerator CAPTIONS OUTPUT_FILE [SEED]");
+			System.exit(2);
+		}
+		int count = Integer.parseInt(args[0]);
+		long seed = args.length > 2 ? Long.parseLong(args[2]) : DEFAULT_SEED;
+		try (BufferedWriter out = Files.newBufferedWriter(Path.of(args[1]))) {
+			write(count, seed, out);
+		}
+	}
+
+}
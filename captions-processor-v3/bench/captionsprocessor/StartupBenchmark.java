@@ -0,0 +1,161 @@
+package captionsprocessor;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * End-to-end startup benchmark for HeadlessProcessor: launches a fresh JVM per run to process a short generated file, as a shell script
+ * processing one file at a time does, and reports the wall-clock time of each launch under several JVM configurations.
+ * With --archive, the configurations include an AppCDS archive, which is created by a training run first if FILE doesn't exist.
+ * One extra run per configuration logs class loading, to count the classes loaded, how many came from a shared archive, and
+ * confirm that no Swing or AWT classes were loaded.
+ * <p>
+ * Usage: StartupBenchmark [--runs N] [--captions N] [--seed N] [--classpath CP] [--archive FILE]
+ * <br>CP defaults to this JVM's class path. An AppCDS archive only accepts a class path of JAR files, such as one made with
+ * jar cf captions.jar -C bin .
+ */
+public class StartupBenchmark {
+
+	private static final int WARMUP_RUNS = 2;
+	private static final String TIERED_C1 = "-XX:TieredStopAtLevel=1";
+
+	/**
+	 * The wall-clock times of a configuration's runs, and what its class loading log showed.
+	 */
+	private record Result(String name, long[] nanos, int classes, int sharedClasses, int desktopClasses) {
+
+		long percentile(double fraction) {
+			long[] sorted = nanos.clone();
+			Arrays.sort(sorted);
+			return sorted[Math.min(sorted.length - 1, (int) (fraction * sorted.length))];
+		}
+
+		double meanMillis() {
+			return Arrays.stream(nanos).average().orElse(0) / 1e6;
+		}
+	}
+
+	private static List<String> command(String classpath, List<String> options, String... arguments) {
+		List<String> command = new ArrayList<>();
+		command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+		command.addAll(options);
+		command.add("-cp");
+		command.add(classpath);
+		command.add(HeadlessProcessor.class.getName());
+		command.addAll(Arrays.asList(arguments));
+		return command;
+	}
+
+	/**
+	 * Runs a command to completion, discarding its output, and returns its wall-clock time.
+	 */
+	private static long launch(List<String> command) throws IOException, InterruptedException {
+		long start = System.nanoTime();
+		Process process = new ProcessBuilder(command).redirectOutput(ProcessBuilder.Redirect.DISCARD)
+				.redirectError(ProcessBuilder.Redirect.INHERIT).start();
+		int exit = process.waitFor();
+		long nanos = System.nanoTime() - start;
+		if (exit != 0) {
+			throw new IOException("Exit code " + exit + " from " + String.join(" ", command));
+		}
+		return nanos;
+	}
+
+	private static Result measure(String name, List<String> options, String classpath, Path input, Path output, int runs) throws IOException, InterruptedException {
+		List<String> command = command(classpath, options, input.toString(), output.toString());
+		for (int i = 0; i < WARMUP_RUNS; i++) {  //fills the OS file cache; discarded
+			launch(command);
+		}
+		long[] nanos = new long[runs];
+		for (int i = 0; i < runs; i++) {
+			nanos[i] = launch(command);
+		}
+		List<String> logged = new ArrayList<>(options);
+		logged.add("-Xlog:class+load=info");
+		Process process = new ProcessBuilder(command(classpath, logged, input.toString(), output.toString())).redirectErrorStream(true).start();
+		int classes = 0;
+		int sharedClasses = 0;
+		int desktopClasses = 0;
+		try (BufferedReader log = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+			for (String line = log.readLine(); line != null; line = log.readLine()) {
+				if (!line.contains("source:")) {
+					continue;
+				}
+				classes++;
+				if (line.contains("shared objects file")) {
+					sharedClasses++;
+				}
+				if (line.contains(" javax.swing.") || line.contains(" java.awt.") || line.contains(" sun.awt.")) {
+					desktopClasses++;
+				}
+			}
+		}
+		process.waitFor();
+		return new Result(name, nanos, classes, sharedClasses, desktopClasses);
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		int runs = 20;
+		int captions = 300;
+		long seed = SrtGenerator.DEFAULT_SEED;
+		String classpath = System.getProperty("java.class.path");
+		Path archive = null;
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			switch (args[i]) {
+			case "--runs" -> runs = Integer.parseInt(args[i + 1]);
+			case "--captions" -> captions = Integer.parseInt(args[i + 1]);
+			case "--seed" -> seed = Long.parseLong(args[i + 1]);
+			case "--classpath" -> classpath = args[i + 1];
+			case "--archive" -> archive = Path.of(args[i + 1]).toAbsolutePath();
+			default -> {
+				System.err.println("Usage: StartupBenchmark [--runs N] [--captions N] [--seed N] [--classpath CP] [--archive FILE]");
+				System.exit(2);
+			}
+			}
+		}
+		if (archive != null && !Files.exists(archive)) {
+			System.out.println("Creating " + archive + " with a training run...");
+			launch(command(classpath, List.of("-XX:ArchiveClassesAtExit=" + archive), "--train"));
+		}
+		Map<String, List<String>> configurations = new LinkedHashMap<>();
+		configurations.put("default", List.of());
+		configurations.put("c1-only", List.of(TIERED_C1));
+		if (archive != null) {
+			configurations.put("appcds", List.of("-XX:SharedArchiveFile=" + archive));
+			configurations.put("appcds+c1-only", List.of("-XX:SharedArchiveFile=" + archive, TIERED_C1));
+		}
+
+		Path directory = Files.createTempDirectory("startup-bench");
+		Path input = directory.resolve("short.srt");
+		Path output = directory.resolve("short-processed.srt");
+		try {
+			try (Writer out = Files.newBufferedWriter(input, StandardCharsets.UTF_8)) {
+				SrtGenerator.write(captions, seed, out);
+			}
+			System.out.format("%d runs per configuration, %d captions (%d bytes) per file%n", runs, captions, Files.size(input));
+			System.out.format("%-16s %10s %10s %10s %10s %9s %9s %11s%n", "configuration", "min ms", "median ms", "p90 ms", "mean ms",
+					"classes", "shared", "swing/awt");
+			for (Map.Entry<String, List<String>> configuration : configurations.entrySet()) {
+				Result result = measure(configuration.getKey(), configuration.getValue(), classpath, input, output, runs);
+				System.out.format("%-16s %10.1f %10.1f %10.1f %10.1f %9d %9d %11d%n", result.name(), result.percentile(0) / 1e6,
+						result.percentile(0.5) / 1e6, result.percentile(0.9) / 1e6, result.meanMillis(), result.classes(),
+						result.sharedClasses(), result.desktopClasses());
+			}
+		} finally {
+			Files.deleteIfExists(output);
+			Files.deleteIfExists(input);
+			Files.deleteIfExists(directory);
+		}
+	}
+
+}
@@ -0,0 +1,37 @@
+package captionsprocessor;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Reads the number of bytes the current thread has allocated, where the JVM supports it (HotSpot does, through com.sun.management).
+ */
+final class AllocationCounter {
+
+	private static final com.sun.management.ThreadMXBean THREADS = threads();
+
+	private AllocationCounter() {
+	}
+
+	private static com.sun.management.ThreadMXBean threads() {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (!(threads instanceof com.sun.management.ThreadMXBean hotspot) || !hotspot.isThreadAllocatedMemorySupported()) {
+			return null;
+		}
+		hotspot.setThreadAllocatedMemoryEnabled(true);
+		return hotspot;
+	}
+
+	static boolean isSupported() {
+		return THREADS != null;
+	}
+
+	/**
+	 * Returns the total number of bytes the current thread has allocated so far.
+	 * @return The byte count, or -1 if it isn't supported
+	 */
+	static long currentThread() {
+		return THREADS == null ? -1 : THREADS.getCurrentThreadAllocatedBytes();
+	}
+
+}
@@ -0,0 +1,83 @@
+package captionsprocessor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Replaces files by writing a temporary file in the same directory and renaming it over the target, so that anyone reading the target,
+ * such as another process watching the folder, sees either the old contents or the new, never part of a write.
+ */
+final class AtomicFiles {
+
+	private static final String TEMP_SUFFIX = ".tmp";
+
+	private AtomicFiles() {
+	}
+
+	/**
+	 * Creates an empty temporary file beside a target file, named after it and ending in .tmp. Unlike Files.createTempFile(),
+	 * which makes the file private to its owner, the file gets the same permissions as any new file, since it becomes the target.
+	 * @param target The file to be replaced
+	 * @return The temporary file
+	 * @throws IOException If the file can't be created
+	 */
+	static Path createTempSibling(Path target) throws IOException {
+		Path directory = target.toAbsolutePath().getParent();
+		while (true) {
+			String suffix = Long.toUnsignedString(ThreadLocalRandom.current().nextLong(), Character.MAX_RADIX);
+			try {
+				//not +, whose first use in a JVM spins up StringConcatFactory: tens of milliseconds of a one-file run's startup
+				String name = new StringBuilder().append(target.getFileName()).append('.').append(suffix).append(TEMP_SUFFIX).toString();
+				return Files.createFile(directory.resolve(name));
+			} catch (FileAlreadyExistsException faee) {  //try another name
+			}
+		}
+	}
+
+	/**
+	 * Renames a temporary file over a target, atomically where the file system allows it.
+	 * @param temp The temporary file, in the same directory as the target
+	 * @param target The file to be replaced
+	 * @throws IOException If the file can't be moved
+	 */
+	static void moveIntoPlace(Path temp, Path target) throws IOException {
+		try {
+			Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException amnse) {
+			Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Replaces a file with the contents of a buffer.
+	 * @param target The file to be replaced or created
+	 * @param bytes The new contents, from position to limit
+	 * @param force Whether to flush the new contents to the device before the rename, so they survive a crash as well
+	 * @throws IOException If the file can't be written; the target is then left as it was
+	 */
+	static void write(Path target, ByteBuffer bytes, boolean force) throws IOException {
+		Path temp = createTempSibling(target);
+		try {
+			try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+				while (bytes.hasRemaining()) {
+					channel.write(bytes);
+				}
+				if (force) {
+					channel.force(true);
+				}
+			}
+			moveIntoPlace(temp, target);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+}
@@ -0,0 +1,671 @@
+package captionsprocessor;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Headless batch mode: processes every matching captions file under a set of inputs on a pool of worker threads,
+ * running the same edits as CaptionsProcessor.main() and writing each result under an output directory.
+ * <p>
+ * Usage: BatchProcessor [--threads N] [--glob PATTERN] [--chunk-size N] [--format srt|vtt] [--compress] [--rules FILE] [--stop-words WORD,...] [--vocabulary FILE [--max-distance N]] [--cache FILE [--cache-size N]] [--string-pool N] [--metrics FILE] OUTPUT_DIR INPUT...
+ * <br>Each INPUT is a captions file, a directory searched recursively for files matching PATTERN (default *.{srt,vtt,srt.gz,vtt.gz,zip}),
+ * or a glob such as lectures/**.srt. Results keep their path relative to the directory they were found in.
+ * <br>Each file is written in the format it was read in (see CaptionFormat), or with --format in the given format, with its extension changed to match.
+ * <br>Gzip-compressed files (.srt.gz, .vtt.gz) and the captions files in zip archives are read straight from the compressed data, without
+ * being extracted to disk; see processArchive(). Results are written uncompressed, each archive's into a directory named after it, or with
+ * --compress, compressed: gzipped, or as entries of a zip archive for an archive.
+ * <br>With --chunk-size, each file is also split into chunks of N captions (0 for automatic) that are processed in parallel; see ParallelPipeline.
+ * <br>With --rules, the replacements come from a rules file instead of CaptionsProcessor.DEFAULT_REPLACEMENTS; see RuleSet.
+ * <br>With --stop-words, the given words replace Stages.DEFAULT_STOP_WORDS as the words never removed as duplicates; an empty list allows any.
+ * <br>With --vocabulary, words within N edits (2 by default) of a single term in FILE are corrected to it; see Vocabulary.
+ * <br>With --cache, processed captions are kept in FILE between runs, holding up to N captions, so a rerun only recomputes captions
+ * whose text or matching rules have changed; see CaptionCache.
+ * <br>With --string-pool, equal timing and content Strings are shared between captions and files, up to N at a time; see StringPool.
+ * <br>With --metrics, per-file and per-stage metrics are written to FILE as JSON; see MetricsSummary. They are also committed as
+ * Flight Recorder events whenever a recording is running; see JfrMetricsListener.
+ */
+public class BatchProcessor {
+
+	static final String DEFAULT_GLOB = "*.{srt,vtt,srt.gz,vtt.gz,zip}";
+	static final int NO_SPLIT = -1;
+
+	private final Path outputDirectory;
+	private final int threads;
+	private final Supplier<ReplacementMatcher> matchers;  //asked once per file, so a ReloadableMatcher can be swapped between files
+	private final int chunkSize;  //captions per chunk when files are split, or NO_SPLIT
+	private final MetricsListener metrics;
+	private CaptionCache cache = null;
+	private Set<String> stopWords = Stages.DEFAULT_STOP_WORDS;
+	private Vocabulary vocabulary = null;
+	private StringPool strings = null;
+	private CaptionFormat outputFormat = null;  //null to write each file in the format it was read in
+	private boolean compressOutput = false;
+	private final AtomicInteger filesDone = new AtomicInteger();
+	private ForkJoinPool pool;
+
+	/**
+	 * The outcome of processing a single file.
+	 */
+	public record FileResult(Path input, Path output, int captionsRead, int captionsWritten, int edits, long nanos, String error) {
+
+		public boolean succeeded() {
+			return error == null;
+		}
+	}
+
+	/**
+	 * A captions file or archive to be processed, with the path its result is written to relative to the output directory.
+	 */
+	private record Job(Path input, Path relativeOutput) {
+	}
+
+	/**
+	 * The processed contents of one captions file, encoded and ready to be written.
+	 */
+	private record Processed(CaptionEncoding encoding, ByteBuffer output, int captionsRead, int captionsWritten, int edits, List<StageMetrics> stageMetrics) {
+	}
+
+	/**
+	 * An entry of an archive being processed: its name in the output, its new contents (or null if it wasn't written), and, for captions files, its FileResult.
+	 */
+	private record ArchiveEntry(String name, ByteBuffer contents, FileResult result) {
+	}
+
+	public BatchProcessor(Path outputDirectory, int threads, ReplacementMatcher matcher) {
+		this(outputDirectory, threads, matcher, NO_SPLIT);
+	}
+
+	/**
+	 * @param chunkSize Captions per chunk when splitting each file for parallel processing, 0 to choose automatically, or negative not to split files
+	 */
+	public BatchProcessor(Path outputDirectory, int threads, ReplacementMatcher matcher, int chunkSize) {
+		this(outputDirectory, threads, matcher, chunkSize, MetricsListener.NONE);
+	}
+
+	/**
+	 * @param chunkSize Captions per chunk when splitting each file for parallel processing, 0 to choose automatically, or negative not to split files
+	 * @param metrics Receives the metrics of each file that is processed successfully
+	 */
+	public BatchProcessor(Path outputDirectory, int threads, ReplacementMatcher matcher, int chunkSize, MetricsListener metrics) {
+		this(outputDirectory, threads, () -> matcher, chunkSize, metrics);
+	}
+
+	/**
+	 * @param matchers Supplies the replacement rules for each file as it starts, such as a ReloadableMatcher
+	 * @param chunkSize Captions per chunk when splitting each file for parallel processing, 0 to choose automatically, or negative not to split files
+	 * @param metrics Receives the metrics of each file that is processed successfully
+	 */
+	public BatchProcessor(Path outputDirectory, int threads, Supplier<ReplacementMatcher> matchers, int chunkSize, MetricsListener metrics) {
+		this.outputDirectory = outputDirectory;
+		this.threads = threads;
+		this.matchers = matchers;
+		this.chunkSize = chunkSize;
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Sets a cache shared by the Pipelines of every file, or null for none. See Pipeline.setCache().
+	 * @param cache The CaptionCache
+	 * @return This BatchProcessor
+	 */
+	public BatchProcessor setCache(CaptionCache cache) {
+		this.cache = cache;
+		return this;
+	}
+
+	/**
+	 * Sets the words that are never removed as duplicates. See Stages.DEFAULT_STOP_WORDS.
+	 * @param stopWords The stop words
+	 * @return This BatchProcessor
+	 */
+	public BatchProcessor setStopWords(Set<String> stopWords) {
+		this.stopWords = Set.copyOf(stopWords);
+		return this;
+	}
+
+	/**
+	 * Sets the vocabulary that words are corrected to, or null to leave words alone. See Stages.CorrectTerms.
+	 * @param vocabulary The Vocabulary, which is shared by every worker
+	 * @return This BatchProcessor
+	 */
+	public BatchProcessor setVocabulary(Vocabulary vocabulary) {
+		this.vocabulary = vocabulary;
+		return this;
+	}
+
+	/**
+	 * Sets a pool that files are parsed with, so captions held at the same time share equal Strings, or null to parse each on its own.
+	 * @param strings The StringPool, which is shared by every worker
+	 * @return This BatchProcessor
+	 */
+	public BatchProcessor setStringPool(StringPool strings) {
+		this.strings = strings;
+		return this;
+	}
+
+	/**
+	 * Sets the format every file is written in, or null to write each in the format it was read in.
+	 * Outputs of run() are then named with the format's extension; processFile() writes to the path it's given.
+	 * @param outputFormat The CaptionFormat
+	 * @return This BatchProcessor
+	 */
+	public BatchProcessor setOutputFormat(CaptionFormat outputFormat) {
+		this.outputFormat = outputFormat;
+		return this;
+	}
+
+	/**
+	 * Sets whether run() writes its results compressed: gzipped, or for a zip archive, as another zip archive. Otherwise results are written
+	 * uncompressed, and the captions files of each archive are written into a directory named after it.
+	 * processFile() and processArchive() go by the extension of the output they're given instead.
+	 * @param compressOutput Whether to compress results
+	 * @return This BatchProcessor
+	 */
+	public BatchProcessor setCompressOutput(boolean compressOutput) {
+		this.compressOutput = compressOutput;
+		return this;
+	}
+
+	/**
+	 * Expands a list of inputs into the captions files they name.
+	 * @param inputs Files, directories or glob patterns
+	 * @param glob The file name pattern used inside directories
+	 * @return The files to be processed, in a stable order
+	 * @throws IOException If a directory can't be searched
+	 */
+	private static List<Job> findJobs(List<String> inputs, String glob) throws IOException {
+		Map<Path, Job> jobs = new LinkedHashMap<>();  //a file named by more than one input is only processed once
+		PathMatcher nameMatcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+		for (String input : inputs) {
+			Path path = Path.of(input);
+			if (Files.isRegularFile(path)) {
+				jobs.putIfAbsent(path.toAbsolutePath().normalize(), new Job(path, path.getFileName()));
+				continue;
+			}
+			Path root;
+			PathMatcher matcher;
+			if (Files.isDirectory(path)) {
+				root = path;
+				matcher = file -> nameMatcher.matches(file.getFileName());
+			}
+			else {  //a glob: search from the longest leading part that has no wildcards
+				root = globRoot(input);
+				PathMatcher pathMatcher = FileSystems.getDefault().getPathMatcher("glob:" + input);
+				matcher = pathMatcher::matches;
+			}
+			if (!Files.isDirectory(root)) {
+				System.err.println("No such file or directory: " + input);
+				continue;
+			}
+			try (Stream<Path> files = Files.walk(root)) {
+				List<Path> found = files.filter(Files::isRegularFile).filter(matcher::matches).sorted().collect(Collectors.toList());
+				for (Path file : found) {
+					jobs.putIfAbsent(file.toAbsolutePath().normalize(), new Job(file, root.relativize(file)));
+				}
+			}
+		}
+		return new ArrayList<>(jobs.values());
+	}
+
+	/**
+	 * Returns the directory a glob pattern should be searched from: its path elements up to the first one with a wildcard.
+	 */
+	private static Path globRoot(String glob) {
+		Path root = null;
+		for (String element : glob.split("[/\\\\]")) {
+			if (element.matches(".*[*?\\[{].*")) {
+				break;
+			}
+			root = (root == null) ? Path.of(element.isEmpty() ? "/" : element) : root.resolve(element);
+		}
+		return (root == null) ? Path.of("") : root;
+	}
+
+	/**
+	 * Processes every job on the worker pool, printing progress as files finish.
+	 * @param jobs The files to be processed
+	 * @return One FileResult per captions file, in job order
+	 * @throws IllegalArgumentException If two jobs would write to the same output, before any is processed
+	 */
+	private List<FileResult> run(List<Job> jobs) throws InterruptedException {
+		checkOutputs(jobs);
+		pool = new ForkJoinPool(threads);
+		try {
+			List<Future<List<FileResult>>> futures = new ArrayList<>();
+			for (Job job : jobs) {
+				futures.add(pool.submit(() -> process(job, jobs.size())));
+			}
+			List<FileResult> results = new ArrayList<>();
+			for (Future<List<FileResult>> future : futures) {
+				try {
+					results.addAll(future.get());
+				} catch (ExecutionException ee) {  //process() reports its own failures, so this is unexpected
+					throw new IllegalStateException(ee.getCause());
+				}
+			}
+			return results;
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Checks that no two jobs would write to the same output, as inputs with the same name in different directories would, so that
+	 * no result silently replaces another.
+	 * @throws IllegalArgumentException Naming the first two inputs that would
+	 */
+	private void checkOutputs(List<Job> jobs) {
+		Map<Path, Job> writers = new HashMap<>();
+		for (Job job : jobs) {
+			Path output = outputOf(job).toAbsolutePath().normalize();
+			Job other = writers.putIfAbsent(output, job);
+			if (other != null) {
+				throw new IllegalArgumentException("Both " + other.input() + " and " + job.input() + " would be written to " + output
+						+ "; give their directories as inputs, or process them separately");
+			}
+		}
+	}
+
+	/**
+	 * Returns the path a job's result is written to: a captions file, or for an archive, a zip archive or a directory.
+	 */
+	private Path outputOf(Job job) {
+		Path output = outputDirectory.resolve(job.relativeOutput());
+		if (CompressedFiles.isZip(job.input())) {
+			String name = job.relativeOutput().getFileName().toString();
+			return compressOutput ? output : output.resolveSibling(CompressedFiles.stripExtension(name, CompressedFiles.ZIP_EXTENSION));
+		}
+		String name = outputName(output.getFileName().toString());
+		return output.resolveSibling(compressOutput ? name + CompressedFiles.GZIP_EXTENSION : name);
+	}
+
+	/**
+	 * Processes a single job and prints its progress line.
+	 */
+	private List<FileResult> process(Job job, int totalFiles) {
+		Path output = outputOf(job);
+		List<FileResult> results = CompressedFiles.isZip(job.input()) ? processArchive(job.input(), output) : List.of(processFile(job.input(), output));
+		int done = filesDone.incrementAndGet();
+		boolean succeeded = results.stream().allMatch(FileResult::succeeded);
+		System.out.println("[" + done + "/" + totalFiles + "] " + job.input() + (succeeded ? "" : " FAILED"));
+		return results;
+	}
+
+	/**
+	 * Returns the uncompressed name a captions file is written under: without any .gz, and with the output format's extension if one is set.
+	 */
+	private String outputName(String name) {
+		name = CompressedFiles.stripExtension(name, CompressedFiles.GZIP_EXTENSION);
+		return (outputFormat != null) ? withExtension(name, outputFormat.getExtension()) : name;
+	}
+
+	/**
+	 * Replaces the extension of a file name, or adds one if it has none.
+	 */
+	private static String withExtension(String name, String extension) {
+		int period = name.lastIndexOf('.');
+		return (period > 0 ? name.substring(0, period) : name) + extension;
+	}
+
+	/**
+	 * Returns whether an archive entry is a captions file, going by its extension, which may be followed by .gz.
+	 */
+	private static boolean isCaptionsEntry(String name) {
+		name = CompressedFiles.stripExtension(name, CompressedFiles.GZIP_EXTENSION);
+		return CompressedFiles.hasExtension(name, CaptionFormat.SRT.getExtension()) || CompressedFiles.hasExtension(name, CaptionFormat.WEBVTT.getExtension());
+	}
+
+	/**
+	 * Reads, processes and writes a single file on the current thread, creating the output's directory if needed.
+	 * A .gz input is decompressed into memory as it's read, and a .gz output is compressed as it's written.
+	 * The output is replaced atomically, so a reader never sees it partly written. Failures are reported in the result rather than thrown.
+	 * @param input The captions file to be read
+	 * @param output The captions file to be written
+	 * @return The FileResult
+	 */
+	public FileResult processFile(Path input, Path output) {
+		long start = System.nanoTime();
+		long allocatedBefore = AllocationCounter.currentThread();
+		ReplacementMatcher matcher = matchers.get();
+		try {
+			if (output.getParent() != null) {
+				Files.createDirectories(output.getParent());
+			}
+			ByteBuffer bytes = CompressedFiles.read(input);
+			long bytesIn = bytes.remaining();
+			Processed processed = process(bytes, matcher);
+			long bytesOut = processed.output().remaining();
+			CompressedFiles.write(output, processed.output());
+			return finish(input, output, processed, bytesIn, bytesOut, start, allocatedBefore);
+		} catch (IOException | RuntimeException e) {
+			return new FileResult(input, output, 0, 0, 0, System.nanoTime() - start, e.toString());
+		}
+	}
+
+	/**
+	 * Processes every captions file in a zip archive, reading the archive as a stream: each entry is decompressed into memory, never
+	 * onto disk, and handed to the worker pool while later entries are read, with at most two entries per worker thread held at once.
+	 * Entries named like captions files (.srt or .vtt, optionally followed by .gz) are processed; directories and other entries are skipped.
+	 * <p>
+	 * If output ends in .zip, the results are written as the entries of a new archive, in the order of the input's, with the other entries
+	 * copied across unchanged; the archive is replaced atomically once complete. Otherwise output is a directory, and each result is written
+	 * under it at its entry's path. Failures are reported in the results rather than thrown, and an entry that fails isn't written.
+	 * @param archive The zip archive to be read
+	 * @param output The zip archive or directory to be written
+	 * @return One FileResult per captions file in the archive, in archive order, or a single failed FileResult if the archive itself
+	 * can't be read or written
+	 */
+	public List<FileResult> processArchive(Path archive, Path output) {
+		long start = System.nanoTime();
+		boolean toArchive = CompressedFiles.isZip(output);
+		ForkJoinPool entryPool = (pool != null) ? pool : ForkJoinPool.commonPool();  //outside run(), such as from a CaptionWatcher
+		int maxInFlight = 2 * entryPool.getParallelism();
+		ArrayDeque<Future<ArchiveEntry>> inFlight = new ArrayDeque<>();
+		List<FileResult> results = new ArrayList<>();
+		Path temp = null;
+		try {
+			Files.createDirectories(toArchive ? output.toAbsolutePath().getParent() : output);
+			temp = toArchive ? AtomicFiles.createTempSibling(output) : null;
+			try (ZipInputStream in = CompressedFiles.openZip(archive);
+					ZipOutputStream out = toArchive ? new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(temp))) : null) {
+				for (ZipEntry entry = in.getNextEntry(); entry != null; entry = in.getNextEntry()) {
+					String name = entry.getName();
+					if (entry.isDirectory() || (!isCaptionsEntry(name) && !toArchive)) {
+						continue;
+					}
+					byte[] contents = in.readAllBytes();
+					if (isCaptionsEntry(name)) {
+						inFlight.add(entryPool.submit(() -> processEntry(archive, name, contents, output, toArchive)));
+					}
+					else {  //copied as it is, in its place
+						inFlight.add(CompletableFuture.completedFuture(new ArchiveEntry(name, ByteBuffer.wrap(contents), null)));
+					}
+					while (inFlight.size() > maxInFlight) {
+						finishEntry(inFlight.remove(), out, results);
+					}
+				}
+				while (!inFlight.isEmpty()) {
+					finishEntry(inFlight.remove(), out, results);
+				}
+			}
+			if (toArchive) {
+				AtomicFiles.moveIntoPlace(temp, output);
+			}
+			return results;
+		} catch (IOException | RuntimeException e) {
+			return List.of(new FileResult(archive, output, 0, 0, 0, System.nanoTime() - start, e.toString()));
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			return List.of(new FileResult(archive, output, 0, 0, 0, System.nanoTime() - start, ie.toString()));
+		} finally {
+			if (temp != null) {
+				try {
+					Files.deleteIfExists(temp);
+				} catch (IOException ioe) {  //only a leftover .tmp file
+				}
+			}
+		}
+	}
+
+	/**
+	 * Waits for an archive entry to be processed, then adds its result and, if out isn't null, writes it to the output archive.
+	 */
+	private static void finishEntry(Future<ArchiveEntry> future, ZipOutputStream out, List<FileResult> results) throws IOException, InterruptedException {
+		ArchiveEntry entry;
+		try {
+			entry = future.get();
+		} catch (ExecutionException ee) {  //processEntry() reports its own failures, so this is unexpected
+			throw new IllegalStateException(ee.getCause());
+		}
+		if (entry.result() != null) {
+			results.add(entry.result());
+		}
+		if (out != null && entry.contents() != null) {
+			out.putNextEntry(new ZipEntry(entry.name()));
+			CompressedFiles.write(entry.contents(), out);
+			out.closeEntry();
+		}
+	}
+
+	/**
+	 * Processes one captions file from an archive, writing it under the output directory unless the results go into an archive.
+	 * @param contents The entry's bytes, gzip-compressed if its name ends in .gz
+	 */
+	private ArchiveEntry processEntry(Path archive, String name, byte[] contents, Path output, boolean toArchive) {
+		long start = System.nanoTime();
+		long allocatedBefore = AllocationCounter.currentThread();
+		ReplacementMatcher matcher = matchers.get();
+		String outputName = outputName(name);
+		Path input = Path.of(archive.toString(), name);
+		Path result = Path.of(output.toString(), outputName);
+		try {
+			if (CompressedFiles.hasExtension(name, CompressedFiles.GZIP_EXTENSION)) {
+				try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(contents))) {
+					contents = in.readAllBytes();
+				}
+			}
+			Processed processed = process(ByteBuffer.wrap(contents), matcher);
+			long bytesOut = processed.output().remaining();
+			if (!toArchive) {
+				Path target = output.resolve(outputName).normalize();
+				if (!target.startsWith(output.normalize())) {  //such as ../../name, which mustn't be written outside the output directory
+					throw new IOException("Entry would be written outside the output directory: " + name);
+				}
+				if (target.getParent() != null) {
+					Files.createDirectories(target.getParent());
+				}
+				CompressedFiles.write(target, processed.output());
+			}
+			return new ArchiveEntry(outputName, processed.output(), finish(input, result, processed, contents.length, bytesOut, start, allocatedBefore));
+		} catch (IOException | RuntimeException e) {
+			return new ArchiveEntry(outputName, null, new FileResult(input, result, 0, 0, 0, System.nanoTime() - start, e.toString()));
+		}
+	}
+
+	/**
+	 * Runs the standard Pipeline over the contents of a captions file, and encodes the results in the same encoding.
+	 * @param bytes The contents, from position to limit
+	 * @param matcher The replacement rules
+	 * @return The Processed contents
+	 */
+	private Processed process(ByteBuffer bytes, ReplacementMatcher matcher) {
+		CaptionEncoding encoding = CaptionEncoding.detect(bytes);
+		CaptionFormat inputFormat = CaptionFormat.detect(bytes, encoding);
+		CaptionFormat format = (outputFormat != null) ? outputFormat : inputFormat;
+		int[] counts;
+		List<StageMetrics> stageMetrics;
+		if (chunkSize == NO_SPLIT) {  //compact storage, since many files are held at once
+			CaptionStore store = new CaptionStore().setStringPool(strings);  //the parser's Strings are only kept until the store copies them
+			MappedCaptionReader.read(bytes, encoding, inputFormat, store::add);
+			int captionsRead = store.size();
+			store.removeEmptyCaptions();
+			Pipeline pipeline = Pipeline.standard(matcher, stopWords, vocabulary).setInstrumented(true).setCache(cache);
+			store.run(pipeline);
+			counts = pipeline.getCounts();
+			stageMetrics = pipeline.getMetrics();
+			return new Processed(encoding, CaptionWriter.encode(store, encoding, format), captionsRead, store.size(), sum(counts), stageMetrics);
+		}
+		List<Caption> captions = new ArrayList<>();
+		MappedCaptionReader.read(bytes, encoding, inputFormat, strings, captions::add);
+		ForkJoinPool chunkPool = (pool != null) ? pool : ForkJoinPool.commonPool();  //outside run(), such as from a CaptionWatcher
+		ParallelPipeline pipeline = new ParallelPipeline(() -> Pipeline.standard(matcher, stopWords, vocabulary).setCache(cache), chunkPool, chunkSize).setInstrumented(true);
+		List<Caption> processed = CaptionsProcessor.process(captions, pipeline);
+		counts = pipeline.getCounts();
+		stageMetrics = pipeline.getMetrics();
+		return new Processed(encoding, CaptionWriter.encode(processed, encoding, format), captions.size(), processed.size(), sum(counts), stageMetrics);
+	}
+
+	private static int sum(int[] counts) {
+		int sum = 0;
+		for (int count : counts) {
+			sum += count;
+		}
+		return sum;
+	}
+
+	/**
+	 * Reports the metrics of a file that was processed successfully, and returns its FileResult.
+	 */
+	private FileResult finish(Path input, Path output, Processed processed, long bytesIn, long bytesOut, long start, long allocatedBefore) {
+		long nanos = System.nanoTime() - start;
+		long allocated = AllocationCounter.isSupported() ? AllocationCounter.currentThread() - allocatedBefore : -1;
+		metrics.fileProcessed(new FileMetrics(input, output, processed.encoding().toString(), bytesIn, bytesOut,
+				processed.captionsRead(), processed.captionsWritten(), nanos, allocated, processed.stageMetrics()));
+		return new FileResult(input, output, processed.captionsRead(), processed.captionsWritten(), processed.edits(), nanos, null);
+	}
+
+	/**
+	 * Prints one line per file and the totals.
+	 */
+	private static void printSummary(List<FileResult> results, long nanos) {
+		System.out.println("\nSummary:");
+		int failed = 0;
+		long captionsWritten = 0;
+		long edits = 0;
+		for (FileResult result : results) {
+			if (result.succeeded()) {
+				System.out.format("  %s -> %s: %d captions read, %d written, %d edits, %.1f ms%n", result.input(), result.output(),
+						result.captionsRead(), result.captionsWritten(), result.edits(), result.nanos() / 1e6);
+				captionsWritten += result.captionsWritten();
+				edits += result.edits();
+			}
+			else {
+				System.out.format("  %s: FAILED (%s)%n", result.input(), result.error());
+				failed++;
+			}
+		}
+		System.out.format("%d files processed, %d failed, %d captions written, %d edits, %.1f s%n",
+				results.size() - failed, failed, captionsWritten, edits, nanos / 1e9);
+	}
+
+	private static void printUsage() {
+		System.err.println("Usage: BatchProcessor [--threads N] [--glob PATTERN] [--chunk-size N] [--format srt|vtt] [--compress] [--rules FILE] [--stop-words WORD,...] [--vocabulary FILE [--max-distance N]] [--cache FILE [--cache-size N]] [--string-pool N] [--metrics FILE] OUTPUT_DIR INPUT...");
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		int threads = Runtime.getRuntime().availableProcessors();
+		String glob = DEFAULT_GLOB;
+		int chunkSize = NO_SPLIT;
+		CaptionFormat format = null;
+		boolean compress = false;
+		Path metricsFile = null;
+		Path rulesFile = null;
+		Path cacheFile = null;
+		int cacheSize = CaptionCache.DEFAULT_CAPACITY;
+		int stringPoolSize = 0;
+		Set<String> stopWords = Stages.DEFAULT_STOP_WORDS;
+		Path vocabularyFile = null;
+		int maxDistance = Vocabulary.DEFAULT_MAX_DISTANCE;
+		List<String> positional = new ArrayList<>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("--threads") && i + 1 < args.length) {
+				threads = Integer.parseInt(args[++i]);
+			}
+			else if (args[i].equals("--glob") && i + 1 < args.length) {
+				glob = args[++i];
+			}
+			else if (args[i].equals("--chunk-size") && i + 1 < args.length) {
+				chunkSize = Integer.parseInt(args[++i]);
+			}
+			else if (args[i].equals("--format") && i + 1 < args.length) {
+				format = CaptionFormat.forName(args[++i]);
+			}
+			else if (args[i].equals("--compress")) {
+				compress = true;
+			}
+			else if (args[i].equals("--rules") && i + 1 < args.length) {
+				rulesFile = Path.of(args[++i]);
+			}
+			else if (args[i].equals("--stop-words") && i + 1 < args.length) {
+				stopWords = Stream.of(args[++i].split(",")).map(String::trim).filter(word -> !word.isEmpty()).collect(Collectors.toSet());
+			}
+			else if (args[i].equals("--vocabulary") && i + 1 < args.length) {
+				vocabularyFile = Path.of(args[++i]);
+			}
+			else if (args[i].equals("--max-distance") && i + 1 < args.length) {
+				maxDistance = Integer.parseInt(args[++i]);
+			}
+			else if (args[i].equals("--cache") && i + 1 < args.length) {
+				cacheFile = Path.of(args[++i]);
+			}
+			else if (args[i].equals("--cache-size") && i + 1 < args.length) {
+				cacheSize = Integer.parseInt(args[++i]);
+			}
+			else if (args[i].equals("--string-pool") && i + 1 < args.length) {
+				stringPoolSize = Integer.parseInt(args[++i]);
+			}
+			else if (args[i].equals("--metrics") && i + 1 < args.length) {
+				metricsFile = Path.of(args[++i]);
+			}
+			else {
+				positional.add(args[i]);
+			}
+		}
+		if (positional.size() < 2 || threads < 1 || cacheSize < 1 || stringPoolSize < 0 || maxDistance < 1 || maxDistance > Vocabulary.MAX_DISTANCE) {
+			printUsage();
+			System.exit(2);
+		}
+		Path outputDirectory = Path.of(positional.get(0));
+		List<Job> jobs = findJobs(positional.subList(1, positional.size()), glob);
+		System.out.println("Processing " + jobs.size() + " files on " + threads + " threads...");
+
+		long start = System.nanoTime();
+		MetricsSummary summary = new MetricsSummary();
+		MetricsListener metrics = MetricsListener.of(new JfrMetricsListener(), summary);
+		ReplacementMatcher matcher = (rulesFile == null) ? new ReplacementMatcher(CaptionsProcessor.DEFAULT_REPLACEMENTS)
+				: RuleSet.loadMatcher(rulesFile, RuleSet.snapshotPath(rulesFile));
+		Vocabulary vocabulary = (vocabularyFile == null) ? null : Vocabulary.read(vocabularyFile, maxDistance);
+		CaptionCache cache = (cacheFile == null) ? null : CaptionCache.open(cacheFile, cacheSize);
+		StringPool strings = (stringPoolSize == 0) ? null : new StringPool(stringPoolSize);
+		BatchProcessor batch = new BatchProcessor(outputDirectory, threads, matcher, chunkSize, metrics).setStopWords(stopWords).setVocabulary(vocabulary).setOutputFormat(format).setCompressOutput(compress).setCache(cache).setStringPool(strings);
+		List<FileResult> results;
+		try {
+			results = batch.run(jobs);
+		} catch (IllegalArgumentException iae) {  //outputs that would collide
+			System.err.println(iae.getMessage());
+			System.exit(2);
+			return;
+		}
+		printSummary(results, System.nanoTime() - start);
+		if (cache != null) {
+			cache.save();
+			System.out.format("Cache: %d hits, %d misses, %d captions kept in %s%n", cache.getHits(), cache.getMisses(), cache.size(), cacheFile);
+		}
+		if (strings != null) {
+			System.out.format("String pool: %d of %d strings shared, about %d KB saved%n", strings.getHits(), strings.getLookups(), strings.getBytesSaved() / 1024);
+		}
+		if (metricsFile != null) {
+			summary.write(metricsFile);
+			System.out.println("Metrics written to " + metricsFile);
+		}
+		boolean anyFailed = results.stream().anyMatch(result -> !result.succeeded());
+		System.exit(anyFailed ? 1 : 0);
+	}
+
+}
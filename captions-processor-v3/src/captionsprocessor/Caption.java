@@ -25,6 +25,22 @@ public class Caption {
 	public String getContent() {
 		return content;
 	}
+
+	/**
+	 * Returns the start time of this Caption in milliseconds, parsed from its timing line.
+	 * @return The start time, or Timing.UNPARSED if the timing line isn't in canonical form
+	 */
+	public int getStartMillis() {
+		return Timing.parseStart(timing);
+	}
+
+	/**
+	 * Returns the end time of this Caption in milliseconds, parsed from its timing line.
+	 * @return The end time, or Timing.UNPARSED if the timing line isn't in canonical form
+	 */
+	public int getEndMillis() {
+		return Timing.parseEnd(timing);
+	}
 		
 	protected void setContent(String content) {
 		this.content = content;
@@ -42,11 +58,22 @@ public class Caption {
 		return Objects.equals(content, other.content) && number == other.number && Objects.equals(timing, other.timing);
 	}
 	
+	/**
+	 * Points a WordCursor at the words of this Caption's content, without copying it.
+	 * @param cursor The cursor to be reused
+	 * @return The cursor, positioned before the first word
+	 */
+	public WordCursor words(WordCursor cursor) {
+		return cursor.reset(content);
+	}
+
 	/**
 	 * Converts a Caption to a List of Strings representing each word in the Caption's content.
 	 * @param caption The Caption to be broken up into words
 	 * @return The List of words (space-delimited strings)
+	 * @deprecated Allocates a String and list node per word; step through the words with words(WordCursor) instead.
 	 */
+	@Deprecated
 	public List<String> toWords() {
 		List<String> words = new LinkedList<>();
 		String[] wordArray = this.content.split(" "); //store the words in array temporarily
@@ -56,6 +83,12 @@ public class Caption {
 		return words;
 	}
 	
+	/**
+	 * Converts a Caption to a List of its content's characters.
+	 * @return The List of Characters
+	 * @deprecated Boxes every character into a list node; read getContent() directly, or edit a copy in a StringBuilder.
+	 */
+	@Deprecated
 	public List<Character> toChars() {
 		char[] temp = this.content.toCharArray();  //store the chars in an array temporarily
 		List<Character> chars = new LinkedList<>();
@@ -75,9 +108,19 @@ public class Caption {
 	 * @return A boolean
 	 */
 	public static boolean isAllCaps(String string) {
-		char[] chars = string.toCharArray();
-		for (Character c : chars) {
-			if (!Character.isUpperCase(c)) {
+		return isAllCaps(string, 0, string.length());
+	}
+
+	/**
+	 * Returns whether part of a CharSequence contains nothing but capital letters.
+	 * @param text The CharSequence to be analyzed
+	 * @param start The index of the first character
+	 * @param end The index after the last character
+	 * @return A boolean
+	 */
+	public static boolean isAllCaps(CharSequence text, int start, int end) {
+		for (int i = start; i < end; i++) {
+			if (!Character.isUpperCase(text.charAt(i))) {
 				return false;
 			}
 		}
@@ -90,9 +133,8 @@ public class Caption {
 	 * @return A boolean
 	 */
 	public static boolean isInteger(String string) {
-		char[] chars = string.toCharArray();
-		for (Character c : chars) {
-			if (!Character.isDigit(c)) {
+		for (int i = 0; i < string.length(); i++) {
+			if (!Character.isDigit(string.charAt(i))) {
 				return false;
 			}
 		}
@@ -105,12 +147,50 @@ public class Caption {
 	 * @return The decapitalized String
 	 */
 	public static String decapitalize(String string) {
-		String newString = "";
 		char[] chars = string.toCharArray();
-		for (Character c : chars) {
-			newString = newString + Character.toLowerCase(c);
+		for (int i = 0; i < chars.length; i++) {
+			chars[i] = Character.toLowerCase(chars[i]);
+		}
+		return new String(chars);
+	}
+
+	/**
+	 * Returns whether part of a CharSequence equals the whole of another, optionally ignoring case the way String.equalsIgnoreCase() does.
+	 * @param text The CharSequence containing the region
+	 * @param start The index of the first character of the region
+	 * @param end The index after the last character of the region
+	 * @param other The CharSequence to be compared with
+	 * @param ignoreCase Whether to ignore case
+	 * @return A boolean
+	 */
+	public static boolean regionEquals(CharSequence text, int start, int end, CharSequence other, boolean ignoreCase) {
+		return regionEquals(text, start, end, other, 0, other.length(), ignoreCase);
+	}
+
+	/**
+	 * Returns whether two regions of CharSequences are equal, optionally ignoring case the way String.equalsIgnoreCase() does.
+	 * @return A boolean
+	 */
+	public static boolean regionEquals(CharSequence a, int aStart, int aEnd, CharSequence b, int bStart, int bEnd, boolean ignoreCase) {
+		if (aEnd - aStart != bEnd - bStart) {
+			return false;
+		}
+		for (int i = 0; i < aEnd - aStart; i++) {
+			char c1 = a.charAt(aStart + i);
+			char c2 = b.charAt(bStart + i);
+			if (c1 == c2) {
+				continue;
+			}
+			if (!ignoreCase) {
+				return false;
+			}
+			char u1 = Character.toUpperCase(c1);
+			char u2 = Character.toUpperCase(c2);
+			if (u1 != u2 && Character.toLowerCase(u1) != Character.toLowerCase(u2)) {
+				return false;
+			}
 		}
-		return newString;
+		return true;
 	}
 
 }
@@ -0,0 +1,305 @@
+package captionsprocessor;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A content-addressed cache of processed caption content, so that reprocessing an archive only recomputes the captions whose text
+ * or applicable rules have changed. A Pipeline given a cache looks up each caption before running its stages; see Pipeline.setCache().
+ * <p>
+ * Entries are keyed by a SHA-256 of the caption's content and the cache versions of the stages that produced it (see Stage.getCacheVersion()),
+ * and hold the content those stages produced along with each stage's edit count. The cache keeps at most a fixed number of entries,
+ * evicting the least recently used. It can be kept in a file between runs: open() loads it and save() writes it back.
+ * <p>
+ * A cache is safe to share between the Pipelines of several worker threads. Its entries are split by key into segments that are locked
+ * independently, so workers looking up different captions seldom wait for each other; each segment holds an equal share of the capacity
+ * and evicts its own least recently used entry, so eviction order is only approximately least recently used across the whole cache.
+ */
+public class CaptionCache implements Closeable {
+
+	public static final int DEFAULT_CAPACITY = 500_000;
+
+	private static final int STORE_MAGIC = 0x43504343;  //"CPCC"
+	private static final int STORE_VERSION = 1;
+	private static final int MAX_SEGMENTS = 64;  //a power of two, comfortably more than the cores workers run on
+	private static final ThreadLocal<Hasher> HASHERS = ThreadLocal.withInitial(Hasher::new);
+
+	private final int capacity;
+	private final Path store;
+	private final Segment[] segments;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	/**
+	 * Identifies cached content: the first 128 bits of a SHA-256.
+	 */
+	record Key(long high, long low) {
+	}
+
+	/**
+	 * Content produced by a run of stages, with the number of edits each stage made.
+	 */
+	record Entry(String content, int[] edits) {
+	}
+
+	/**
+	 * Creates an empty cache that is only kept in memory.
+	 * @param capacity The maximum number of entries
+	 */
+	public CaptionCache(int capacity) {
+		this(capacity, null);
+	}
+
+	private CaptionCache(int capacity, Path store) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Capacity must be positive");
+		}
+		this.capacity = capacity;
+		this.store = store;
+		int segmentCount = Math.min(MAX_SEGMENTS, Integer.highestOneBit(capacity));
+		this.segments = new Segment[segmentCount];
+		for (int i = 0; i < segmentCount; i++) {
+			segments[i] = new Segment(capacity / segmentCount + (i < capacity % segmentCount ? 1 : 0));  //shares add up to the capacity
+		}
+	}
+
+	/**
+	 * Returns the segment an entry belongs in, going by bits of its key that Key.hashCode() mixes with others.
+	 */
+	private Segment segmentFor(Key key) {
+		return segments[(int) (key.high() >>> 32) & (segments.length - 1)];
+	}
+
+	/**
+	 * Opens a cache kept in a file, loading its entries if the file exists. save() and close() write the cache back to the same file.
+	 * A file that can't be read as a cache is ignored, and replaced when the cache is saved.
+	 * @param store The cache file
+	 * @param capacity The maximum number of entries
+	 * @return The CaptionCache
+	 */
+	public static CaptionCache open(Path store, int capacity) {
+		CaptionCache cache = new CaptionCache(capacity, store);
+		if (Files.isRegularFile(store)) {
+			try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(store)))) {
+				cache.load(in);
+			} catch (IOException | RuntimeException e) {  //a damaged or foreign file is simply started again
+				for (Segment segment : cache.segments) {
+					segment.clear();
+				}
+				System.err.println("Ignoring unreadable cache " + store + " (" + e + ")");
+			}
+		}
+		return cache;
+	}
+
+	private void load(DataInputStream in) throws IOException {
+		if (in.readInt() != STORE_MAGIC || in.readInt() != STORE_VERSION) {
+			throw new IOException("Not a caption cache of this version");
+		}
+		int count = in.readInt();
+		for (int i = 0; i < count; i++) {
+			Key key = new Key(in.readLong(), in.readLong());
+			int[] edits = new int[in.readInt()];
+			for (int j = 0; j < edits.length; j++) {
+				edits[j] = in.readInt();
+			}
+			char[] content = new char[in.readInt()];
+			for (int j = 0; j < content.length; j++) {
+				content[j] = in.readChar();
+			}
+			put(key, new Entry(new String(content), edits));
+		}
+	}
+
+	/**
+	 * Writes every entry to the cache file, each segment's least recently used first so that the order survives loading, through a
+	 * temporary file that is moved into place so an interrupted save leaves the previous file intact. Does nothing for a cache that is only
+	 * kept in memory. Entries added while the cache is being saved may or may not be written.
+	 * @throws IOException If the file can't be written
+	 */
+	public synchronized void save() throws IOException {
+		if (store == null) {
+			return;
+		}
+		List<Map.Entry<Key, Entry>> snapshot = new ArrayList<>();
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				for (Map.Entry<Key, Entry> entry : segment.entrySet()) {
+					snapshot.add(Map.entry(entry.getKey(), entry.getValue()));
+				}
+			}
+		}
+		Path temp = AtomicFiles.createTempSibling(store);
+		try {
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+				out.writeInt(STORE_MAGIC);
+				out.writeInt(STORE_VERSION);
+				out.writeInt(snapshot.size());
+				for (Map.Entry<Key, Entry> entry : snapshot) {
+					out.writeLong(entry.getKey().high());
+					out.writeLong(entry.getKey().low());
+					int[] edits = entry.getValue().edits();
+					out.writeInt(edits.length);
+					for (int edit : edits) {
+						out.writeInt(edit);
+					}
+					String content = entry.getValue().content();
+					out.writeInt(content.length());
+					out.writeChars(content);
+				}
+			}
+			AtomicFiles.moveIntoPlace(temp, store);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	/**
+	 * Saves the cache; see save().
+	 */
+	@Override
+	public void close() throws IOException {
+		save();
+	}
+
+	/**
+	 * Returns the key of some content as processed by stages of a specified version.
+	 * @param version The cache versions of the stages, combined
+	 * @param content The content the stages are given
+	 * @return The Key
+	 */
+	static Key key(String version, CharSequence content) {
+		return HASHERS.get().hash(version, content);
+	}
+
+	/**
+	 * Looks up an entry, counting a hit or a miss.
+	 * @param key The key of the entry
+	 * @return The Entry, or null if it isn't cached
+	 */
+	Entry get(Key key) {
+		Segment segment = segmentFor(key);
+		Entry entry;
+		synchronized (segment) {
+			entry = segment.get(key);
+		}
+		if (entry == null) {
+			misses.increment();
+		}
+		else {
+			hits.increment();
+		}
+		return entry;
+	}
+
+	void put(Key key, Entry entry) {
+		Segment segment = segmentFor(key);
+		synchronized (segment) {
+			segment.put(key, entry);
+		}
+	}
+
+	public int size() {
+		int size = 0;
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				size += segment.size();
+			}
+		}
+		return size;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * A share of the entries, in access order with the least recently used first, evicting that one when it's full. Locked on itself.
+	 */
+	private static class Segment extends LinkedHashMap<Key, Entry> {
+		private static final long serialVersionUID = 1L;
+
+		private final int capacity;
+
+		private Segment(int capacity) {
+			super(16, 0.75f, true);
+			this.capacity = capacity;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Key, CaptionCache.Entry> eldest) {  //Entry alone would name the Map.Entry inherited here
+			return size() > capacity;
+		}
+	}
+
+	/**
+	 * A reusable SHA-256 digest and scratch buffer, one per thread.
+	 */
+	private static class Hasher {
+		private final MessageDigest digest;
+		private byte[] bytes = new byte[256];
+
+		private Hasher() {
+			try {
+				digest = MessageDigest.getInstance("SHA-256");
+			} catch (NoSuchAlgorithmException nsae) {
+				throw new IllegalStateException(nsae);  //every JVM has SHA-256
+			}
+		}
+
+		private Key hash(String version, CharSequence content) {
+			update(version);
+			update(content);
+			byte[] hash = digest.digest();
+			long high = 0;
+			long low = 0;
+			for (int i = 0; i < 8; i++) {
+				high = (high << 8) | (hash[i] & 0xff);
+				low = (low << 8) | (hash[i + 8] & 0xff);
+			}
+			return new Key(high, low);
+		}
+
+		/**
+		 * Adds a length-prefixed CharSequence to the digest, so that the version and content can't run into each other.
+		 */
+		private void update(CharSequence chars) {
+			int length = chars.length();
+			if (bytes.length < 4 + 2 * length) {
+				bytes = new byte[Math.max(4 + 2 * length, 2 * bytes.length)];
+			}
+			bytes[0] = (byte) (length >>> 24);
+			bytes[1] = (byte) (length >>> 16);
+			bytes[2] = (byte) (length >>> 8);
+			bytes[3] = (byte) length;
+			for (int i = 0; i < length; i++) {
+				char c = chars.charAt(i);
+				bytes[4 + 2 * i] = (byte) (c >>> 8);
+				bytes[5 + 2 * i] = (byte) c;
+			}
+			digest.update(bytes, 0, 4 + 2 * length);
+		}
+	}
+
+}
@@ -0,0 +1,241 @@
+package captionsprocessor;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.charset.UnsupportedCharsetException;
+
+/**
+ * The character encoding of a captions file, detected from its bytes before any of them are decoded.
+ * A byte order mark decides the encoding outright. Otherwise, bytes that are valid UTF-8 (which includes plain ASCII) are read as UTF-8,
+ * a NUL in either of the first two bytes means UTF-16 without a byte order mark, and anything else is read as Windows-1252,
+ * the usual encoding of captions saved by older Windows tools.
+ */
+public final class CaptionEncoding {
+
+	public static final CaptionEncoding UTF_8 = new CaptionEncoding(StandardCharsets.UTF_8, false);
+
+	private static final byte[] UTF_8_BOM = {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF};
+	private static final byte[] UTF_16BE_BOM = {(byte) 0xFE, (byte) 0xFF};
+	private static final byte[] UTF_16LE_BOM = {(byte) 0xFF, (byte) 0xFE};
+	private static final Charset SINGLE_BYTE = singleByteCharset();
+	static final int BLOCK_SIZE = 64 * 1024;  //bytes copied out of a mapped file at a time
+
+	private final Charset charset;
+	private final byte[] byteOrderMark;
+	private final float maxBytesPerChar;
+
+	/**
+	 * @param charset The charset of the file; plain UTF-16 is taken as big-endian with a byte order mark
+	 * @param byteOrderMark Whether the file starts with a byte order mark, which only UTF-8 and UTF-16 files can
+	 */
+	public CaptionEncoding(Charset charset, boolean byteOrderMark) {
+		if (charset.equals(StandardCharsets.UTF_16)) {  //its encoder would write a byte order mark before every caption
+			charset = StandardCharsets.UTF_16BE;
+			byteOrderMark = true;
+		}
+		this.charset = charset;
+		if (!byteOrderMark) {
+			this.byteOrderMark = new byte[0];
+		}
+		else if (charset.equals(StandardCharsets.UTF_8)) {
+			this.byteOrderMark = UTF_8_BOM;
+		}
+		else if (charset.equals(StandardCharsets.UTF_16BE)) {
+			this.byteOrderMark = UTF_16BE_BOM;
+		}
+		else if (charset.equals(StandardCharsets.UTF_16LE)) {
+			this.byteOrderMark = UTF_16LE_BOM;
+		}
+		else {
+			throw new IllegalArgumentException(charset + " has no byte order mark");
+		}
+		this.maxBytesPerChar = charset.newEncoder().maxBytesPerChar();
+	}
+
+	/**
+	 * Detects the encoding of the bytes between a buffer's position and limit, without moving its position.
+	 * @param bytes The contents of a captions file
+	 * @return The detected CaptionEncoding
+	 */
+	public static CaptionEncoding detect(ByteBuffer bytes) {
+		if (startsWith(bytes, UTF_8_BOM)) {
+			return new CaptionEncoding(StandardCharsets.UTF_8, true);
+		}
+		if (startsWith(bytes, UTF_16BE_BOM)) {
+			return new CaptionEncoding(StandardCharsets.UTF_16BE, true);
+		}
+		if (startsWith(bytes, UTF_16LE_BOM)) {
+			return new CaptionEncoding(StandardCharsets.UTF_16LE, true);
+		}
+		int first = bytes.position();
+		if (bytes.remaining() >= 2) {  //a caption file starts with an ASCII digit, so a NUL beside it means 16-bit characters
+			if (bytes.get(first) == 0 && bytes.get(first + 1) != 0) {
+				return new CaptionEncoding(StandardCharsets.UTF_16BE, false);
+			}
+			if (bytes.get(first) != 0 && bytes.get(first + 1) == 0) {
+				return new CaptionEncoding(StandardCharsets.UTF_16LE, false);
+			}
+		}
+		if (isUtf8(bytes)) {
+			return UTF_8;
+		}
+		return new CaptionEncoding(SINGLE_BYTE, false);
+	}
+
+	private static boolean startsWith(ByteBuffer bytes, byte[] prefix) {
+		if (bytes.remaining() < prefix.length) {
+			return false;
+		}
+		for (int i = 0; i < prefix.length; i++) {
+			if (bytes.get(bytes.position() + i) != prefix[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns whether the bytes between a buffer's position and limit are well-formed UTF-8, exactly as the UTF-8 decoder
+	 * accepts it: no overlong forms, surrogates or code points above U+10FFFF.
+	 * The bytes are copied out a block at a time, so a mapped file is scanned as an array.
+	 */
+	static boolean isUtf8(ByteBuffer bytes) {
+		byte[] block = new byte[BLOCK_SIZE];
+		int limit = bytes.limit();
+		int position = bytes.position();
+		while (position < limit) {
+			int length = Math.min(block.length, limit - position);
+			bytes.get(position, block, 0, length);
+			int checked = checkUtf8(block, length, position + length == limit);
+			if (checked < 0) {
+				return false;
+			}
+			position += checked;
+		}
+		return true;
+	}
+
+	/**
+	 * Checks the UTF-8 sequences in a block of bytes.
+	 * @return The number of bytes checked, which stops short of a sequence cut off by the end of the block unless it's the last block,
+	 * or -1 if the bytes are malformed
+	 */
+	private static int checkUtf8(byte[] block, int length, boolean last) {
+		int i = 0;
+		while (i < length) {
+			int b = block[i];
+			if (b >= 0) {  //ASCII
+				i++;
+				continue;
+			}
+			b &= 0xFF;
+			int continuations;
+			int low = 0x80;  //bounds of the second byte; any further bytes are 0x80 to 0xBF
+			int high = 0xBF;
+			if (b >= 0xC2 && b <= 0xDF) {
+				continuations = 1;
+			}
+			else if (b >= 0xE0 && b <= 0xEF) {
+				continuations = 2;
+				if (b == 0xE0) low = 0xA0;
+				if (b == 0xED) high = 0x9F;
+			}
+			else if (b >= 0xF0 && b <= 0xF4) {
+				continuations = 3;
+				if (b == 0xF0) low = 0x90;
+				if (b == 0xF4) high = 0x8F;
+			}
+			else {
+				return -1;
+			}
+			if (i + continuations >= length) {
+				return last ? -1 : i;
+			}
+			int second = block[i + 1] & 0xFF;
+			if (second < low || second > high) {
+				return -1;
+			}
+			for (int k = 2; k <= continuations; k++) {
+				if ((block[i + k] & 0xC0) != 0x80) {
+					return -1;
+				}
+			}
+			i += continuations + 1;
+		}
+		return i;
+	}
+
+	private static Charset singleByteCharset() {
+		try {
+			return Charset.forName("windows-1252");
+		} catch (UnsupportedCharsetException uce) {
+			return StandardCharsets.ISO_8859_1;
+		}
+	}
+
+	public Charset getCharset() {
+		return charset;
+	}
+
+	public boolean hasByteOrderMark() {
+		return byteOrderMark.length > 0;
+	}
+
+	/**
+	 * Returns the bytes of this encoding's byte order mark.
+	 * @return The byte order mark, or an empty array if there is none
+	 */
+	public byte[] getByteOrderMark() {
+		return byteOrderMark.clone();
+	}
+
+	int getByteOrderMarkLength() {
+		return byteOrderMark.length;
+	}
+
+	/**
+	 * Returns whether line breaks in this encoding are single bytes that can't be part of any other character,
+	 * so lines can be found without decoding.
+	 */
+	boolean isAsciiCompatible() {
+		return maxBytesPerChar == 1.0f || charset.equals(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Returns the number of bytes a CharSequence takes up in this encoding; exact for UTF-8, UTF-16 and single-byte charsets,
+	 * and an upper bound for others.
+	 * @param text The text to be measured
+	 * @return The number of bytes
+	 */
+	public long encodedLength(CharSequence text) {
+		int length = text.length();
+		if (!charset.equals(StandardCharsets.UTF_8)) {
+			return (long) Math.ceil(length * (double) maxBytesPerChar);
+		}
+		long bytes = length;
+		for (int i = 0; i < length; i++) {
+			char c = text.charAt(i);
+			if (c < 0x80) {
+				continue;
+			}
+			if (c < 0x800) {
+				bytes += 1;
+			}
+			else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+				bytes += 2;  //four bytes for the pair
+				i++;
+			}
+			else if (!Character.isSurrogate(c)) {
+				bytes += 2;
+			}  //an unpaired surrogate is replaced with a single '?'
+		}
+		return bytes;
+	}
+
+	@Override
+	public String toString() {
+		return charset.name() + (hasByteOrderMark() ? " with BOM" : "");
+	}
+
+}
@@ -0,0 +1,122 @@
+package captionsprocessor;
+
+/**
+ * Flags for what a caption's content contains, found by a Pipeline in a single scan before its stages run, so that each stage can tell
+ * from them when it would leave a caption unchanged and skip its work. Machine-generated captions are mostly clean already:
+ * single-spaced, trimmed, lowercase apart from acronyms, and a sentence or less long, so most stages have nothing to do in most of them.
+ * <p>
+ * Flags are conservative: a stage may only rely on a flag being clear. After a stage edits the content, the Pipeline scans it again
+ * unless the stage keeps the flags that are wanted next clear (see Stage.getFeaturesKeptClear()).
+ */
+public final class CaptionFeatures {
+
+	/**
+	 * Two spaces in a row somewhere in the content.
+	 */
+	public static final int DOUBLE_SPACE = 1;
+	/**
+	 * Whitespace (or another character up to a space) at the start or end of the content, as CaptionsProcessor.trim() removes.
+	 */
+	public static final int EDGE_WHITESPACE = 1 << 1;
+	/**
+	 * An uppercase character, or another that lowercasing would change.
+	 */
+	public static final int UPPERCASE = 1 << 2;
+	/**
+	 * Two characters that may start a replacement rule's search string; see ReplacementMatcher.mayStartRule().
+	 */
+	public static final int RULE_PREFIX = 1 << 3;
+	/**
+	 * A period followed by a space, where a sentence ends within the content.
+	 */
+	public static final int SENTENCE_END = 1 << 4;
+	/**
+	 * Every flag, for content that hasn't been scanned.
+	 */
+	public static final int ALL = DOUBLE_SPACE | EDGE_WHITESPACE | UPPERCASE | RULE_PREFIX | SENTENCE_END;
+
+	private static final byte[] ASCII_PAIRS = new byte[128 * 128];  //pairFeatures() of each pair of ASCII characters
+
+	static {
+		for (char previous = 0; previous < 128; previous++) {
+			for (char c = 0; c < 128; c++) {
+				ASCII_PAIRS[previous << 7 | c] = (byte) pairFeatures(previous, c);
+			}
+		}
+	}
+
+	private CaptionFeatures() {
+	}
+
+	/**
+	 * Scans a caption's content for some of the flags. Apart from rule prefixes, the characters are checked by CharKernels.
+	 * @param chars The content
+	 * @param from The index of the first character
+	 * @param to The index after the last character
+	 * @param wanted The flags to scan for; the others are set in the result, whether or not their features are present
+	 * @param matcher The replacement rules RULE_PREFIX refers to, if it's wanted
+	 * @return The flags found
+	 */
+	public static int scan(char[] chars, int from, int to, int wanted, ReplacementMatcher matcher) {
+		int features = ALL & ~wanted;
+		if (from == to) {
+			return features;
+		}
+		if (chars[from] <= ' ' || chars[to - 1] <= ' ') {
+			features |= EDGE_WHITESPACE;
+		}
+		if ((features | EDGE_WHITESPACE | RULE_PREFIX) != ALL) {
+			int found = CharKernels.get().scan(chars, from, to);
+			features |= (found >= 0) ? found : scanCharacters(chars, from, to);
+		}
+		if ((features & RULE_PREFIX) == 0) {
+			char previous = chars[from];
+			for (int i = from + 1; i < to; i++) {  //until the first pair that may start a rule
+				char c = chars[i];
+				if (matcher.mayStartRule(previous, c)) {
+					return features | RULE_PREFIX;
+				}
+				previous = c;
+			}
+			if (matcher.mayStartRule(previous, '\0')) {
+				features |= RULE_PREFIX;
+			}
+		}
+		return features;
+	}
+
+	/**
+	 * Returns the flags other than EDGE_WHITESPACE and RULE_PREFIX found in content of any characters.
+	 */
+	private static int scanCharacters(char[] chars, int from, int to) {
+		int features = isUpperCase(chars[from]) ? UPPERCASE : 0;
+		for (int i = from + 1; i < to; i++) {
+			char previous = chars[i - 1];
+			char c = chars[i];
+			features |= ((previous | c) < 128) ? ASCII_PAIRS[previous << 7 | c] : pairFeatures(previous, c);
+		}
+		return features;
+	}
+
+	/**
+	 * Returns the flags other than RULE_PREFIX that two ASCII characters in a row show.
+	 */
+	static int asciiPairFeatures(char previous, char c) {
+		return ASCII_PAIRS[previous << 7 | c];
+	}
+
+	/**
+	 * Returns the flags other than RULE_PREFIX that a character and the one before it show.
+	 */
+	private static int pairFeatures(char previous, char c) {
+		if (c == ' ') {
+			return (previous == ' ') ? DOUBLE_SPACE : (previous == '.') ? SENTENCE_END : 0;
+		}
+		return isUpperCase(c) ? UPPERCASE : 0;
+	}
+
+	private static boolean isUpperCase(char c) {
+		return (c < 128) ? (c >= 'A' && c <= 'Z') : (Character.isUpperCase(c) || Character.toLowerCase(c) != c);
+	}
+
+}
@@ -0,0 +1,150 @@
+package captionsprocessor;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The layout of a captions file, such as SubRip (.srt) or WebVTT (.vtt): how its lines are parsed into Captions and how Captions are
+ * laid out again. Every format is read through the same line splitter (see MappedCaptionReader and CaptionReader), which hands lines
+ * to the format's Parser, and written through CaptionWriter, so reading one format and writing another transcodes a file a caption
+ * at a time.
+ * <p>
+ * Captions keep their timing lines in SubRip form whatever format they were read from, so the stages, CaptionStore and CaptionIndex
+ * work the same on either.
+ */
+public interface CaptionFormat {
+
+	CaptionFormat SRT = new SrtFormat();
+	CaptionFormat WEBVTT = new WebVttFormat();
+
+	/**
+	 * Assembles Captions from the lines of a captions document, one line at a time. A Caption is made available as soon as the line
+	 * that ends it has been fed.
+	 */
+	interface Parser {
+
+		/**
+		 * Feeds the next line of the document (without its line terminator) to the parser.
+		 * @param line The line to be parsed
+		 */
+		void feed(String line);
+
+		/**
+		 * Signals the end of the document, releasing any captions that weren't followed by a blank line.
+		 */
+		void finish();
+
+		/**
+		 * Returns whether a finished Caption is waiting to be polled.
+		 * @return A boolean
+		 */
+		boolean hasReady();
+
+		/**
+		 * Removes and returns the next finished Caption, in document order.
+		 * @return The next Caption, or null if none is ready
+		 */
+		Caption poll();
+	}
+
+	/**
+	 * Returns the short name of this format, as given on command lines.
+	 * @return The name, such as "srt"
+	 */
+	String getName();
+
+	/**
+	 * Returns the usual file name extension of this format.
+	 * @return The extension, including its period
+	 */
+	String getExtension();
+
+	/**
+	 * Returns a new Parser for one document in this format.
+	 * @return The Parser
+	 */
+	default Parser newParser() {
+		return newParser(null);
+	}
+
+	/**
+	 * Returns a new Parser for one document in this format, which takes the timing and content Strings of its Captions from a pool.
+	 * @param strings The StringPool, or null to create a String for each
+	 * @return The Parser
+	 */
+	Parser newParser(StringPool strings);
+
+	/**
+	 * Appends whatever comes before the first caption of a file.
+	 * @param out The StringBuilder to be appended to
+	 */
+	void appendHeader(StringBuilder out);
+
+	/**
+	 * Appends a Caption as it appears in a file of this format, followed by the blank line that separates it from the next.
+	 * @param out The StringBuilder to be appended to
+	 * @param caption The Caption
+	 */
+	void appendCaption(StringBuilder out, Caption caption);
+
+	/**
+	 * Appends a caption of a CaptionStore as appendCaption(out, caption) does, without creating a Caption or its Strings.
+	 * @param out The StringBuilder to be appended to
+	 * @param store The CaptionStore holding the caption
+	 * @param index The index of the caption
+	 */
+	void appendCaption(StringBuilder out, CaptionStore store, int index);
+
+	/**
+	 * Returns a format by its name or extension, ignoring case.
+	 * @param name A name such as "srt", "vtt" or "webvtt", with or without a leading period
+	 * @return The CaptionFormat
+	 * @throws IllegalArgumentException If no format has that name
+	 */
+	static CaptionFormat forName(String name) {
+		String key = name.toLowerCase(Locale.ROOT);
+		key = key.startsWith(".") ? key.substring(1) : key;
+		return switch (key) {
+			case "srt", "subrip" -> SRT;
+			case "vtt", "webvtt" -> WEBVTT;
+			default -> throw new IllegalArgumentException("Unknown caption format: " + name);
+		};
+	}
+
+	/**
+	 * Returns the format a file should be written in, going by its extension: WebVTT for .vtt, and SubRip for anything else.
+	 * @param path The file
+	 * @return The CaptionFormat
+	 */
+	static CaptionFormat forPath(Path path) {
+		return path.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(WEBVTT.getExtension()) ? WEBVTT : SRT;
+	}
+
+	/**
+	 * Detects the format of a captions file from its first characters: WebVTT files start with "WEBVTT", and anything else is read as SubRip.
+	 * The buffer's position isn't moved.
+	 * @param bytes The contents of a captions file
+	 * @param encoding The encoding of the bytes, as CaptionEncoding.detect() returned it
+	 * @return The CaptionFormat
+	 */
+	static CaptionFormat detect(ByteBuffer bytes, CaptionEncoding encoding) {
+		int from = bytes.position() + encoding.getByteOrderMarkLength();
+		long signatureLength = encoding.encodedLength(WebVttFormat.SIGNATURE + " ");  //and the character after it
+		int length = (int) Math.min(Math.max(0, bytes.limit() - from), signatureLength);
+		CharBuffer start = encoding.getCharset().decode(bytes.duplicate().position(from).limit(from + length));
+		return WebVttFormat.isHeader(start) ? WEBVTT : SRT;
+	}
+
+	/**
+	 * Detects the format of a captions document that has already been split into lines, as detect(bytes, encoding) does.
+	 * @param lines The lines of the document
+	 * @return The CaptionFormat
+	 */
+	static CaptionFormat detect(List<String> lines) {
+		return (!lines.isEmpty() && WebVttFormat.isHeader(lines.get(0))) ? WEBVTT : SRT;
+	}
+
+}
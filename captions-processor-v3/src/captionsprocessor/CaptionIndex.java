@@ -0,0 +1,449 @@
+package captionsprocessor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An index of the captions in a CaptionStore by time, for questions such as "which captions are shown between 12:03 and 12:45"
+ * without parsing timing lines or scanning the whole file.
+ * <p>
+ * The index holds the captions sorted by start time, and over them a tree of the latest end time in each run of captions: the latest
+ * of all at the root, of each half below it, and so on down to each caption's own end time. A query finds the first caption starting
+ * at or after the end of the range by binary search and the first that ends after its start by descending the tree. If only a few
+ * captions lie between the two, each is checked; otherwise the tree is descended to the captions among them that end after the range
+ * starts, skipping every run that ends too soon. A query takes O(log n) for each caption found, however long a few captions are:
+ * a caption with a mistyped end time such as 10:00:00,000 is found by the queries it overlaps without making others check the
+ * captions after it.
+ * Captions whose timing lines aren't in canonical form aren't indexed; see CaptionStore.
+ * <p>
+ * The sweep that builds the index also validates the timings, recording captions that end before they start, appear in the file
+ * after captions they start before, overlap a caption still showing, or follow a long silence; see getIssues().
+ * <p>
+ * shift() and scale() retime every caption in the store at once, working on the times in milliseconds, and keep the index current.
+ * <p>
+ * Usage: CaptionIndex [--shift MS] [--scale FACTOR] [--max-gap MS] [--output FILE] FILE [FROM [TO]]
+ * <br>Prints the timing issues in FILE and the captions shown between FROM and TO (or at FROM), after any retiming (scaling first),
+ * and writes the retimed captions to --output. Times are written as [[H:]MM:]SS[,mmm].
+ */
+public final class CaptionIndex {
+
+	public static final int DEFAULT_MAX_GAP_MILLIS = 10_000;
+
+	private static final int SCAN_LIMIT = 64;  //candidates that are checked one by one rather than through the tree
+
+	private final CaptionStore store;
+	private final int maxGapMillis;
+	private final int[] order;  //indices of the indexed captions, by start time
+	private final int[] starts;  //start time of order[k]
+	private final int[] ends;  //end time of order[k]
+	private final int leaves;  //the number of leaves of endTree, a power of two no smaller than the number of captions
+	private final int[] endTree;  //node 1 is the root and node n has children 2n and 2n + 1; leaf leaves + k is the end time of order[k]
+	private final int[] unparsed;  //indices of captions that aren't indexed
+	private List<Issue> issues;
+
+	/**
+	 * The kinds of timing problem that the index records.
+	 */
+	public enum Kind {
+		UNPARSED,  //the timing line isn't in canonical form, so the caption isn't indexed
+		INVERTED,  //the caption ends before it starts
+		OUT_OF_ORDER,  //the caption starts before a caption that comes before it in the file
+		OVERLAP,  //the caption starts before an earlier caption has ended
+		GAP  //the caption starts more than the maximum gap after every earlier caption has ended
+	}
+
+	/**
+	 * A timing problem with one caption.
+	 * @param kind The kind of problem
+	 * @param index The index of the caption in the store
+	 * @param other The index of the caption it conflicts with, or -1
+	 * @param millis How far the times are out, such as the length of an overlap or gap
+	 */
+	public record Issue(Kind kind, int index, int other, int millis) {
+
+		/**
+		 * Describes this Issue using the caption numbers from a store.
+		 * @param store The CaptionStore the Issue was found in
+		 * @return A one-line description
+		 */
+		public String describe(CaptionStore store) {
+			String caption = "Caption " + store.getNumber(index);
+			String otherCaption = (other < 0) ? "" : "caption " + store.getNumber(other);
+			return switch (kind) {
+				case UNPARSED -> caption + " has a timing line that can't be indexed: " + store.getTiming(index);
+				case INVERTED -> caption + " ends " + millis + " ms before it starts";
+				case OUT_OF_ORDER -> caption + " starts " + millis + " ms before " + otherCaption + ", which comes before it";
+				case OVERLAP -> caption + " overlaps " + otherCaption + " by " + millis + " ms";
+				case GAP -> caption + " starts " + millis + " ms after " + otherCaption + " ends";
+			};
+		}
+	}
+
+	/**
+	 * Indexes the captions in a store, reporting silences longer than DEFAULT_MAX_GAP_MILLIS as gaps.
+	 * @param store The CaptionStore to be indexed
+	 */
+	public CaptionIndex(CaptionStore store) {
+		this(store, DEFAULT_MAX_GAP_MILLIS);
+	}
+
+	/**
+	 * Indexes the captions in a store. Captions added to the store afterwards aren't indexed.
+	 * @param store The CaptionStore to be indexed
+	 * @param maxGapMillis The longest silence between captions that isn't reported as a gap
+	 */
+	public CaptionIndex(CaptionStore store, int maxGapMillis) {
+		this.store = store;
+		this.maxGapMillis = maxGapMillis;
+		int size = store.size();
+		int[] indexed = new int[size];
+		int[] skipped = new int[size];
+		int indexedCount = 0;
+		int skippedCount = 0;
+		boolean sorted = true;
+		int previousStart = 0;
+		for (int i = 0; i < size; i++) {
+			int start = store.getStartMillis(i);
+			if (start == Timing.UNPARSED) {
+				skipped[skippedCount++] = i;
+				continue;
+			}
+			sorted &= start >= previousStart;
+			previousStart = start;
+			indexed[indexedCount++] = i;
+		}
+		this.order = sorted ? Arrays.copyOf(indexed, indexedCount) : sortByStart(store, indexed, indexedCount);
+		this.unparsed = Arrays.copyOf(skipped, skippedCount);
+		this.starts = new int[indexedCount];
+		this.ends = new int[indexedCount];
+		this.leaves = (indexedCount <= 1) ? 1 : Integer.highestOneBit(indexedCount - 1) << 1;
+		this.endTree = new int[2 * leaves];
+		sweep();
+	}
+
+	/**
+	 * Indexes a List of Captions, such as one returned by CaptionsProcessor.listToCaptions(), in a new CaptionStore.
+	 * @param captions The Captions to be indexed
+	 * @return The CaptionIndex
+	 */
+	public static CaptionIndex of(List<Caption> captions) {
+		return new CaptionIndex(CaptionStore.of(captions));
+	}
+
+	/**
+	 * Returns the indices of captions sorted by start time, then by position in the file, without boxing: each is packed into a long
+	 * below its start time.
+	 */
+	private static int[] sortByStart(CaptionStore store, int[] indices, int count) {
+		long[] keys = new long[count];
+		for (int k = 0; k < count; k++) {
+			keys[k] = ((long) store.getStartMillis(indices[k]) << 32) | indices[k];
+		}
+		Arrays.sort(keys);
+		int[] sorted = new int[count];
+		for (int k = 0; k < count; k++) {
+			sorted[k] = (int) keys[k];
+		}
+		return sorted;
+	}
+
+	/**
+	 * Copies the times of the indexed captions from the store in start order, recording any timing issues on the way, and builds the
+	 * tree of end times over them.
+	 */
+	private void sweep() {
+		List<Issue> found = new ArrayList<>();
+		for (int index : unparsed) {
+			found.add(new Issue(Kind.UNPARSED, index, -1, 0));
+		}
+		int maxEnd = 0;
+		int maxEndIndex = -1;  //the caption that ends at maxEnd
+		for (int k = 0; k < order.length; k++) {
+			int index = order[k];
+			int start = store.getStartMillis(index);
+			int end = store.getEndMillis(index);
+			starts[k] = start;
+			ends[k] = end;
+			if (end < start) {
+				found.add(new Issue(Kind.INVERTED, index, -1, start - end));
+			}
+			if (k > 0 && index < order[k - 1] && starts[k - 1] < start) {  //the caption before it in start order comes after it in the file
+				found.add(new Issue(Kind.OUT_OF_ORDER, order[k - 1], index, start - starts[k - 1]));
+			}
+			if (maxEndIndex >= 0) {
+				if (start < maxEnd) {
+					found.add(new Issue(Kind.OVERLAP, index, maxEndIndex, maxEnd - start));
+				}
+				else if (start - maxEnd > maxGapMillis) {
+					found.add(new Issue(Kind.GAP, index, maxEndIndex, start - maxEnd));
+				}
+			}
+			if (maxEndIndex < 0 || end > maxEnd) {
+				maxEnd = end;
+				maxEndIndex = index;
+			}
+		}
+		System.arraycopy(ends, 0, endTree, leaves, ends.length);
+		Arrays.fill(endTree, leaves + ends.length, endTree.length, Integer.MIN_VALUE);  //leaves past the last caption are never shown
+		for (int node = leaves - 1; node > 0; node--) {
+			endTree[node] = Math.max(endTree[2 * node], endTree[2 * node + 1]);
+		}
+		issues = found;
+	}
+
+	public CaptionStore getStore() {
+		return store;
+	}
+
+	/**
+	 * Returns the number of captions in the index, which leaves out any whose timing lines aren't in canonical form.
+	 * @return The number of indexed captions
+	 */
+	public int size() {
+		return order.length;
+	}
+
+	/**
+	 * Returns the timing issues found when the index was built or last retimed, in the order they were found.
+	 * @return The List of Issues
+	 */
+	public List<Issue> getIssues() {
+		return issues;
+	}
+
+	/**
+	 * Returns the captions shown at any time from one time up to another, that is, those that start before the range ends
+	 * and end after it starts.
+	 * @param fromMillis The start of the range in milliseconds
+	 * @param toMillis The end of the range in milliseconds, exclusive
+	 * @return The indices of the captions in the store, by start time
+	 */
+	public int[] between(int fromMillis, int toMillis) {
+		int last = firstStartingAt(toMillis);
+		int first = firstEndingAfter(fromMillis);
+		if (first >= last) {
+			return new int[0];
+		}
+		if (last - first > SCAN_LIMIT) {  //possibly behind a long caption, so most of them may have ended
+			int[] found = new int[collect(1, 0, leaves, last, fromMillis, null, 0)];  //counted first, so it's never sized by the whole index
+			collect(1, 0, leaves, last, fromMillis, found, 0);
+			return found;
+		}
+		int[] found = new int[last - first];
+		int count = 0;
+		for (int k = first; k < last; k++) {
+			if (ends[k] > fromMillis) {  //a caption after first may end sooner than one before it
+				found[count++] = order[k];
+			}
+		}
+		return (count == found.length) ? found : Arrays.copyOf(found, count);
+	}
+
+	/**
+	 * Returns the captions shown at a specified time.
+	 * @param millis The time in milliseconds
+	 * @return The indices of the captions in the store, by start time
+	 */
+	public int[] at(int millis) {
+		return between(millis, millis == Integer.MAX_VALUE ? millis : millis + 1);
+	}
+
+	/**
+	 * Returns new Caption objects for the captions shown from one time up to another; see between().
+	 * @param fromMillis The start of the range in milliseconds
+	 * @param toMillis The end of the range in milliseconds, exclusive
+	 * @return The List of Captions, by start time
+	 */
+	public List<Caption> captionsBetween(int fromMillis, int toMillis) {
+		int[] indices = between(fromMillis, toMillis);
+		List<Caption> captions = new ArrayList<>(indices.length);
+		for (int index : indices) {
+			captions.add(store.getCaption(index));
+		}
+		return captions;
+	}
+
+	/**
+	 * Returns the position in start order of the first caption that starts at or after a time.
+	 */
+	private int firstStartingAt(int millis) {
+		int low = 0;
+		int high = starts.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (starts[middle] < millis) {
+				low = middle + 1;
+			}
+			else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Returns the position in start order of the first caption that ends after a time, or the number of captions if none does.
+	 */
+	private int firstEndingAfter(int millis) {
+		if (endTree[1] <= millis) {
+			return ends.length;
+		}
+		int node = 1;
+		while (node < leaves) {
+			node = (endTree[2 * node] > millis) ? 2 * node : 2 * node + 1;
+		}
+		return node - leaves;
+	}
+
+	/**
+	 * Finds the captions under a node of the end time tree that come before a position in start order and end after a time,
+	 * skipping any subtree whose latest end time is no later.
+	 * @param node The node
+	 * @param low The position of the first caption under the node
+	 * @param high The position after the last caption under the node
+	 * @param last The position of the first caption not to be found
+	 * @param millis The time the captions must end after
+	 * @param found Where to put the indices of the captions found, in start order, or null to only count them
+	 * @param count The number of captions already found
+	 * @return The number of captions found, including those already found
+	 */
+	private int collect(int node, int low, int high, int last, int millis, int[] found, int count) {
+		if (low >= last || endTree[node] <= millis) {
+			return count;
+		}
+		if (node >= leaves) {
+			if (found != null) {
+				found[count] = order[low];
+			}
+			return count + 1;
+		}
+		int middle = (low + high) >>> 1;
+		count = collect(2 * node, low, middle, last, millis, found, count);
+		return collect(2 * node + 1, middle, high, last, millis, found, count);
+	}
+
+	/**
+	 * Adds an offset to the times of every caption in the store and updates the index and its issues; see CaptionStore.shiftTimes().
+	 * Retime through the index rather than the store, or the index no longer matches it.
+	 * @param offsetMillis The offset in milliseconds, negative to make captions earlier
+	 * @return The number of captions retimed
+	 */
+	public int shift(int offsetMillis) {
+		int retimed = store.shiftTimes(offsetMillis);
+		sweep();  //shifting keeps the start order, so only the times need copying
+		return retimed;
+	}
+
+	/**
+	 * Multiplies the times of every caption in the store by a factor and updates the index and its issues; see CaptionStore.scaleTimes().
+	 * @param factor The factor, greater than zero
+	 * @return The number of captions retimed
+	 */
+	public int scale(double factor) {
+		int retimed = store.scaleTimes(factor);
+		sweep();
+		return retimed;
+	}
+
+	/**
+	 * Parses a time written as [[H:]MM:]SS[,mmm] or with a period before the milliseconds, such as "12:03" or "01:02:03,500".
+	 * @param text The time
+	 * @return The time in milliseconds
+	 * @throws IllegalArgumentException If the text isn't a time
+	 */
+	static int parseClockTime(String text) {
+		String[] parts = text.split(":", -1);
+		if (parts.length > 3) {
+			throw new IllegalArgumentException("Not a time: " + text);
+		}
+		String seconds = parts[parts.length - 1];
+		int fraction = Math.max(seconds.indexOf(','), seconds.indexOf('.'));
+		long millis = 0;
+		try {
+			for (int i = 0; i < parts.length - 1; i++) {
+				millis = millis * 60 + Integer.parseUnsignedInt(parts[i]);
+			}
+			millis = millis * 60 + Integer.parseUnsignedInt(fraction < 0 ? seconds : seconds.substring(0, fraction));
+			millis *= 1000;
+			if (fraction >= 0) {
+				String digits = (seconds.substring(fraction + 1) + "00").substring(0, 3);
+				millis += Integer.parseUnsignedInt(digits);
+			}
+		} catch (NumberFormatException nfe) {
+			throw new IllegalArgumentException("Not a time: " + text);
+		}
+		if (millis > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Time out of range: " + text);
+		}
+		return (int) millis;
+	}
+
+	private static void printUsage() {
+		System.err.println("Usage: CaptionIndex [--shift MS] [--scale FACTOR] [--max-gap MS] [--output FILE] FILE [FROM [TO]]");
+	}
+
+	public static void main(String[] args) throws IOException {
+		int shift = 0;
+		double scale = 1;
+		int maxGap = DEFAULT_MAX_GAP_MILLIS;
+		Path output = null;
+		List<String> operands = new ArrayList<>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("--shift") && i + 1 < args.length) {
+				shift = Integer.parseInt(args[++i]);
+			}
+			else if (args[i].equals("--scale") && i + 1 < args.length) {
+				scale = Double.parseDouble(args[++i]);
+			}
+			else if (args[i].equals("--max-gap") && i + 1 < args.length) {
+				maxGap = Integer.parseInt(args[++i]);
+			}
+			else if (args[i].equals("--output") && i + 1 < args.length) {
+				output = Path.of(args[++i]);
+			}
+			else if (args[i].startsWith("--")) {
+				printUsage();
+				System.exit(2);
+			}
+			else {
+				operands.add(args[i]);
+			}
+		}
+		if (operands.isEmpty() || operands.size() > 3) {
+			printUsage();
+			System.exit(2);
+		}
+
+		CaptionStore store = new CaptionStore();
+		ByteBuffer bytes = MappedCaptionReader.map(Path.of(operands.get(0)));
+		CaptionEncoding encoding = CaptionEncoding.detect(bytes);
+		CaptionFormat format = MappedCaptionReader.read(bytes, encoding, store::add);
+		CaptionIndex index = new CaptionIndex(store, maxGap);
+		if (scale != 1) {
+			index.scale(scale);
+		}
+		if (shift != 0) {
+			index.shift(shift);
+		}
+		for (Issue issue : index.getIssues()) {
+			System.out.println(issue.describe(store));
+		}
+		System.out.println(index.getIssues().size() + " timing issues in " + store.size() + " captions");
+		if (operands.size() > 1) {
+			int from = parseClockTime(operands.get(1));
+			int[] found = (operands.size() > 2) ? index.between(from, parseClockTime(operands.get(2))) : index.at(from);
+			for (int caption : found) {
+				System.out.println();
+				System.out.println(store.getCaption(caption));
+			}
+		}
+		if (output != null) {
+			CaptionWriter.writeAtomically(store, output, encoding, format);
+		}
+	}
+
+}
@@ -0,0 +1,118 @@
+package captionsprocessor;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Assembles Captions incrementally from the lines of a SubRip captions document, one line at a time.
+ * Follows the same rules as CaptionsProcessor.listToCaptions(), but a Caption is made available as soon as
+ * the blank line that terminates it has been fed in, so only the captions currently being read are held in memory.
+ * The Parser of CaptionFormat.SRT.
+ */
+public class CaptionParser implements CaptionFormat.Parser {
+
+	private final StringPool strings;  //or null
+	private final Deque<PendingCaption> open = new ArrayDeque<>();  //captions whose terminating blank line hasn't been read yet, in order of their number lines
+	private final Deque<Caption> ready = new ArrayDeque<>();  //finished captions waiting to be polled
+	private String candidate = null;  //the previous line, if it could be the number line of a new caption
+
+	/**
+	 * A Caption whose content is still being read.
+	 */
+	private static class PendingCaption {
+		private final int number;
+		private final String timing;
+		private final StringBuilder content = new StringBuilder();
+
+		private PendingCaption(int number, String timing) {
+			this.number = number;
+			this.timing = timing;
+		}
+
+		private Caption toCaption(StringPool strings) {
+			return new Caption(number, timing, (strings != null) ? strings.intern(content) : content.toString());
+		}
+	}
+
+	public CaptionParser() {
+		this(null);
+	}
+
+	/**
+	 * Creates a parser that takes the timing and content Strings of its Captions from a pool.
+	 * @param strings The StringPool, or null to create a String for each
+	 */
+	public CaptionParser(StringPool strings) {
+		this.strings = strings;
+	}
+
+	/**
+	 * Feeds the next line of the document (without its line terminator) to the parser.
+	 * @param line The line to be parsed
+	 */
+	@Override
+	public void feed(String line) {
+		if (line.equals("")) {  //a blank line ends every caption that's still being read
+			while (!open.isEmpty()) {
+				ready.add(open.poll().toCaption(strings));
+			}
+		}
+		else {
+			for (PendingCaption pending : open) {
+				if (pending.content.length() > 0) {
+					pending.content.append(CaptionsProcessor.CAPTION_BREAK_DELINEATOR);
+				}
+				pending.content.append(line);
+			}
+		}
+		if (candidate != null) {  //the previous line was a caption number, and this line is its timing
+			open.add(new PendingCaption(parseNumber(candidate), (strings != null) ? strings.intern(line) : line));
+		}
+		candidate = (!line.equals("") && Caption.isInteger(line)) ? line : null;
+	}
+
+	/**
+	 * Signals the end of the document, releasing any captions that weren't followed by a blank line.
+	 */
+	@Override
+	public void finish() {
+		while (!open.isEmpty()) {
+			ready.add(open.poll().toCaption(strings));
+		}
+		candidate = null;
+	}
+
+	/**
+	 * Returns whether a finished Caption is waiting to be polled.
+	 * @return A boolean
+	 */
+	@Override
+	public boolean hasReady() {
+		return !ready.isEmpty();
+	}
+
+	/**
+	 * Removes and returns the next finished Caption, in document order.
+	 * @return The next Caption, or null if none is ready
+	 */
+	@Override
+	public Caption poll() {
+		return ready.poll();
+	}
+
+	/**
+	 * Parses a caption number line. See CaptionsProcessor.parseCaption().
+	 * @param line A line for which Caption.isInteger() is true
+	 * @return The caption number
+	 */
+	static int parseNumber(String line) {
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (c < '0' || c > '9') {  //non-ASCII digits get the same treatment as in parseCaption()
+				return Integer.parseInt(line.replaceAll("[^a-zA-Z0-9]", ""));
+			}
+		}
+		return Integer.parseInt(line);
+	}
+
+}
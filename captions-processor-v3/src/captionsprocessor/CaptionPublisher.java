@@ -0,0 +1,66 @@
+package captionsprocessor;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.SubmissionPublisher;
+
+/**
+ * Publishes Captions to Flow subscribers as the lines of a captions document arrive, for example from a speech-to-text job
+ * that is still running. Each Caption is submitted as soon as the blank line that ends it is fed.
+ * Every subscriber has a bounded buffer; once one is full, feed() blocks until that subscriber catches up.
+ * Lines must be fed from one thread at a time.
+ */
+public class CaptionPublisher extends SubmissionPublisher<Caption> {
+
+	private final CaptionFormat.Parser parser;
+
+	/**
+	 * Creates a CaptionPublisher that delivers on the common ForkJoinPool, with Flow.defaultBufferSize() captions of buffering per subscriber.
+	 */
+	public CaptionPublisher() {
+		super();
+		this.parser = new CaptionParser();
+	}
+
+	/**
+	 * @param executor The Executor that delivers Captions to subscribers
+	 * @param maxBufferCapacity The most Captions buffered for each subscriber
+	 */
+	public CaptionPublisher(Executor executor, int maxBufferCapacity) {
+		this(executor, maxBufferCapacity, CaptionFormat.SRT);
+	}
+
+	/**
+	 * @param executor The Executor that delivers Captions to subscribers
+	 * @param maxBufferCapacity The most Captions buffered for each subscriber
+	 * @param format The format of the lines that will be fed
+	 */
+	public CaptionPublisher(Executor executor, int maxBufferCapacity, CaptionFormat format) {
+		super(executor, maxBufferCapacity);
+		this.parser = format.newParser();
+	}
+
+	/**
+	 * Feeds the next line of the document (without its line terminator), publishing any captions it completes.
+	 * @param line The line to be parsed
+	 */
+	public void feed(String line) {
+		parser.feed(line);
+		publishReady();
+	}
+
+	/**
+	 * Signals the end of the document: publishes any captions that weren't followed by a blank line, then completes every subscriber.
+	 */
+	public void finish() {
+		parser.finish();
+		publishReady();
+		close();
+	}
+
+	private void publishReady() {
+		while (parser.hasReady()) {
+			submit(parser.poll());
+		}
+	}
+
+}
@@ -0,0 +1,101 @@
+package captionsprocessor;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Reads Captions from a captions document one at a time, without loading the whole document into memory.
+ * Produces the same Captions as CaptionsProcessor.listToCaptions(CaptionsProcessor.fileToList()) for a SubRip document,
+ * or reads another CaptionFormat given to the constructor.
+ */
+public class CaptionReader implements Iterator<Caption>, Closeable {
+
+	private final BufferedReader reader;
+	private final CaptionFormat.Parser parser;
+	private boolean finished = false;
+
+	public CaptionReader(BufferedReader reader) {
+		this(reader, CaptionFormat.SRT);
+	}
+
+	/**
+	 * @param reader The document, positioned at its start
+	 * @param format The format of the document
+	 */
+	public CaptionReader(BufferedReader reader, CaptionFormat format) {
+		this.reader = reader;
+		this.parser = format.newParser();
+	}
+
+	/**
+	 * Opens a CaptionReader on a UTF-8 captions file.
+	 * @param path The captions file to be read
+	 * @return A new CaptionReader
+	 * @throws IOException If the file can't be opened
+	 */
+	public static CaptionReader open(Path path) throws IOException {
+		return new CaptionReader(Files.newBufferedReader(path));
+	}
+
+	/**
+	 * Returns a sequential Stream of the Captions in a file. The Stream should be closed after use.
+	 * @param path The captions file to be read
+	 * @return The Stream of Captions
+	 * @throws IOException If the file can't be opened
+	 */
+	public static Stream<Caption> stream(Path path) throws IOException {
+		CaptionReader captionReader = open(path);
+		Spliterator<Caption> spliterator = Spliterators.spliteratorUnknownSize(captionReader, Spliterator.ORDERED | Spliterator.NONNULL);
+		return StreamSupport.stream(spliterator, false).onClose(() -> {
+			try {
+				captionReader.close();
+			} catch (IOException ioe) {
+				throw new UncheckedIOException(ioe);
+			}
+		});
+	}
+
+	@Override
+	public boolean hasNext() {
+		while (!parser.hasReady() && !finished) {  //read lines until a caption is terminated or the file runs out
+			String line;
+			try {
+				line = reader.readLine();
+			} catch (IOException ioe) {
+				throw new UncheckedIOException(ioe);
+			}
+			if (line == null) {
+				parser.finish();
+				finished = true;
+			}
+			else {
+				parser.feed(line);
+			}
+		}
+		return parser.hasReady();
+	}
+
+	@Override
+	public Caption next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		return parser.poll();
+	}
+
+	@Override
+	public void close() throws IOException {
+		reader.close();
+	}
+
+}
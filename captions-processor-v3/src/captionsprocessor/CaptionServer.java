@@ -0,0 +1,280 @@
+package captionsprocessor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Server mode: a long-running HTTP service that runs the same edits as CaptionsProcessor.main() on uploaded captions files,
+ * so callers such as an LMS integration pay neither JVM startup nor the dialogs of InputHandler, and every request runs on code the JIT
+ * has already warmed up. The compiled replacement rules are shared by every request.
+ * <p>
+ * Endpoints:
+ * <br>POST /process with a captions file as the body responds with the processed file, in the same encoding and format as the upload
+ * (detected as for files; see CaptionEncoding and CaptionFormat). The request's FileMetrics are sent as JSON in the X-Caption-Metrics header.
+ * <br>POST /process?format=srt or ?format=vtt responds in that format instead, such as WebVTT for a web player.
+ * <br>POST /process?format=json responds with a JSON object instead: {"metrics": {...}, "captions": "..."}.
+ * <br>The format parameter can appear anywhere in the query, among others that are ignored.
+ * <br>GET /health responds with "ok".
+ * <p>
+ * Each request is handled on its own virtual thread where the JVM has them (Java 21 and later), or on a pooled platform thread before that.
+ * <p>
+ * Usage: CaptionServer [--port N] [--bind ADDRESS] [--rules FILE]
+ * <br>The server listens on the loopback address unless --bind says otherwise. With --rules, the replacements come from a rules file,
+ * which is checked for changes every few seconds and swapped in without a restart; see ReloadableMatcher.
+ */
+public class CaptionServer {
+
+	public static final int DEFAULT_PORT = 8080;
+	public static final int MAX_UPLOAD_BYTES = 64 * 1024 * 1024;
+
+	private static final String METRICS_HEADER = "X-Caption-Metrics";
+	private static final String FORMAT_PARAMETER = "format";
+	private static final String JSON_FORMAT = "json";
+	private static final int RELOAD_INTERVAL_SECONDS = 5;
+	private static final int STOP_DELAY_SECONDS = 2;
+
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final Supplier<ReplacementMatcher> matchers;  //asked once per request
+	private final MetricsListener metrics;
+
+	/**
+	 * Creates a server bound to an address, ready to be started.
+	 * @param address The address and port to listen on; port 0 picks a free port
+	 * @param matchers Supplies the replacement rules for each request as it starts, such as a ReloadableMatcher
+	 * @param metrics Receives the metrics of each request that is processed successfully
+	 * @throws IOException If the address can't be bound
+	 */
+	public CaptionServer(InetSocketAddress address, Supplier<ReplacementMatcher> matchers, MetricsListener metrics) throws IOException {
+		this.matchers = matchers;
+		this.metrics = metrics;
+		this.executor = newRequestExecutor();
+		this.server = HttpServer.create(address, 0);
+		server.setExecutor(executor);
+		server.createContext("/process", this::handleProcess);
+		server.createContext("/health", this::handleHealth);
+	}
+
+	/**
+	 * Returns an executor that runs each task on a new virtual thread, looked up reflectively so this still runs on JVMs without them,
+	 * or else a pool that grows with demand and reuses idle platform threads.
+	 */
+	static ExecutorService newRequestExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException roe) {  //before Java 21
+			return Executors.newCachedThreadPool();
+		}
+	}
+
+	public void start() {
+		server.start();
+	}
+
+	/**
+	 * Stops accepting requests, waits up to a specified time for current ones to finish, then stops the request threads.
+	 * @param delaySeconds The longest time to wait
+	 */
+	public void stop(int delaySeconds) {
+		server.stop(delaySeconds);
+		executor.shutdown();
+	}
+
+	/**
+	 * Returns the address the server is listening on, with the actual port if port 0 was requested.
+	 * @return The InetSocketAddress
+	 */
+	public InetSocketAddress getAddress() {
+		return server.getAddress();
+	}
+
+	private void handleHealth(HttpExchange exchange) throws IOException {
+		try (exchange) {
+			if (!exchange.getRequestMethod().equals("GET")) {
+				sendText(exchange, 405, "Use GET\n");
+				return;
+			}
+			sendText(exchange, 200, "ok\n");
+		}
+	}
+
+	private void handleProcess(HttpExchange exchange) throws IOException {
+		try (exchange) {
+			if (!exchange.getRequestMethod().equals("POST")) {
+				sendText(exchange, 405, "Use POST with a captions file as the body\n");
+				return;
+			}
+			byte[] upload;
+			try (InputStream body = exchange.getRequestBody()) {
+				upload = body.readNBytes(MAX_UPLOAD_BYTES + 1);
+			}
+			if (upload.length > MAX_UPLOAD_BYTES) {
+				sendText(exchange, 413, "Captions files are limited to " + MAX_UPLOAD_BYTES + " bytes\n");
+				return;
+			}
+			String requested;
+			boolean json;
+			CaptionFormat format;
+			try {
+				requested = queryParameter(exchange.getRequestURI().getRawQuery(), FORMAT_PARAMETER);
+				json = JSON_FORMAT.equals(requested);
+				format = (requested == null || json) ? null : CaptionFormat.forName(requested);
+			} catch (IllegalArgumentException iae) {
+				sendText(exchange, 400, iae.getMessage() + "\n");
+				return;
+			}
+			try {
+				process(exchange, upload, json, format);
+			} catch (RuntimeException re) {
+				sendText(exchange, 500, re + "\n");
+			}
+		}
+	}
+
+	/**
+	 * Returns the value of a parameter in a query string such as "x=1&format=vtt", URL-decoded. Other parameters are ignored.
+	 * @param rawQuery The query, still URL-encoded, or null if there is none
+	 * @param name The name of the parameter
+	 * @return The value of the last occurrence of the parameter, or null if it isn't given
+	 * @throws IllegalArgumentException If the query has a malformed escape
+	 */
+	private static String queryParameter(String rawQuery, String name) {
+		if (rawQuery == null) {
+			return null;
+		}
+		String value = null;
+		for (String parameter : rawQuery.split("&")) {
+			int equals = parameter.indexOf('=');
+			String key = URLDecoder.decode((equals < 0) ? parameter : parameter.substring(0, equals), StandardCharsets.UTF_8);
+			if (key.equals(name)) {
+				value = (equals < 0) ? "" : URLDecoder.decode(parameter.substring(equals + 1), StandardCharsets.UTF_8);
+			}
+		}
+		return value;
+	}
+
+	/**
+	 * Processes one uploaded file as BatchProcessor processes a file on disk, and sends the result.
+	 * @param format The format of the response, or null for the format of the upload
+	 */
+	private void process(HttpExchange exchange, byte[] upload, boolean json, CaptionFormat format) throws IOException {
+		long start = System.nanoTime();
+		long allocatedBefore = AllocationCounter.currentThread();
+		CaptionStore store = new CaptionStore();
+		ByteBuffer bytes = ByteBuffer.wrap(upload);
+		CaptionEncoding encoding = CaptionEncoding.detect(bytes);
+		CaptionFormat inputFormat = MappedCaptionReader.read(bytes, encoding, store::add);
+		if (format == null) {
+			format = inputFormat;
+		}
+		int captionsIn = store.size();
+		store.removeEmptyCaptions();
+		Pipeline pipeline = Pipeline.standard(matchers.get()).setInstrumented(true);
+		store.run(pipeline);
+		ByteBuffer output = CaptionWriter.encode(store, json ? CaptionEncoding.UTF_8 : encoding, format);
+		long allocatedAfter = AllocationCounter.currentThread();
+		long allocated = (allocatedBefore < 0 || allocatedAfter < 0) ? -1 : allocatedAfter - allocatedBefore;  //virtual threads may not count
+		FileMetrics fileMetrics = new FileMetrics(null, null, encoding.toString(), upload.length, output.remaining(),
+				captionsIn, store.size(), System.nanoTime() - start, allocated, pipeline.getMetrics());
+		metrics.fileProcessed(fileMetrics);
+
+		if (json) {
+			String captions = StandardCharsets.UTF_8.decode(output).toString();
+			String document = "{\"metrics\":" + fileMetrics.toJson() + ",\"captions\":" + Json.quote(captions) + "}\n";
+			send(exchange, 200, "application/json; charset=utf-8", ByteBuffer.wrap(document.getBytes(StandardCharsets.UTF_8)));
+		}
+		else {
+			exchange.getResponseHeaders().set(METRICS_HEADER, fileMetrics.toJson());
+			String contentType = (format == CaptionFormat.WEBVTT) ? "text/vtt" : "application/x-subrip";
+			send(exchange, 200, contentType + "; charset=" + encoding.getCharset().name(), output);
+		}
+	}
+
+	private static void sendText(HttpExchange exchange, int status, String text) throws IOException {
+		send(exchange, status, "text/plain; charset=utf-8", ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	/**
+	 * Sends a response with a known length, straight from a heap buffer.
+	 */
+	private static void send(HttpExchange exchange, int status, String contentType, ByteBuffer body) throws IOException {
+		exchange.getResponseHeaders().set("Content-Type", contentType);
+		exchange.sendResponseHeaders(status, body.remaining() == 0 ? -1 : body.remaining());
+		if (body.remaining() > 0) {
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(body.array(), body.arrayOffset() + body.position(), body.remaining());
+			}
+		}
+	}
+
+	private static void printUsage() {
+		System.err.println("Usage: CaptionServer [--port N] [--bind ADDRESS] [--rules FILE]");
+	}
+
+	public static void main(String[] args) throws IOException {
+		int port = DEFAULT_PORT;
+		InetAddress bind = InetAddress.getLoopbackAddress();
+		Path rulesFile = null;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("--port") && i + 1 < args.length) {
+				port = Integer.parseInt(args[++i]);
+			}
+			else if (args[i].equals("--bind") && i + 1 < args.length) {
+				bind = InetAddress.getByName(args[++i]);
+			}
+			else if (args[i].equals("--rules") && i + 1 < args.length) {
+				rulesFile = Path.of(args[++i]);
+			}
+			else {
+				printUsage();
+				System.exit(2);
+			}
+		}
+
+		Supplier<ReplacementMatcher> matchers;
+		if (rulesFile == null) {
+			ReplacementMatcher matcher = new ReplacementMatcher(CaptionsProcessor.DEFAULT_REPLACEMENTS);
+			matchers = () -> matcher;
+		}
+		else {
+			ReloadableMatcher reloadable = new ReloadableMatcher(rulesFile);
+			Path watched = rulesFile;
+			ScheduledExecutorService reloader = Executors.newSingleThreadScheduledExecutor(task -> {
+				Thread thread = new Thread(task, "rules-reloader");
+				thread.setDaemon(true);
+				return thread;
+			});
+			reloader.scheduleWithFixedDelay(() -> {
+				try {
+					if (reloadable.reloadIfChanged()) {
+						System.out.println("Reloaded " + watched + " (" + reloadable.get().getRuleCount() + " rules)");
+					}
+				} catch (IOException | RuntimeException e) {  //keep serving the rules already loaded
+					System.err.println("Couldn't reload " + watched + ": " + e);
+				}
+			}, RELOAD_INTERVAL_SECONDS, RELOAD_INTERVAL_SECONDS, TimeUnit.SECONDS);
+			matchers = reloadable;
+		}
+
+		CaptionServer server = new CaptionServer(new InetSocketAddress(bind, port), matchers, new JfrMetricsListener());
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> server.stop(STOP_DELAY_SECONDS)));
+		server.start();
+		System.out.println("Listening on http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/process");
+	}
+
+}
@@ -0,0 +1,100 @@
+package captionsprocessor;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+
+/**
+ * The end of a Flow of Captions: writes each one with a CaptionWriter as it arrives, and closes the writer when the stream ends.
+ * Only a bounded number of captions is requested ahead of writing. If a write fails, the subscription is cancelled and
+ * getCompletion() completes with the IOException.
+ */
+public class CaptionSink implements Flow.Subscriber<Caption> {
+
+	private final CaptionWriter writer;
+	private final int requestSize;
+	private final CompletableFuture<Integer> completion = new CompletableFuture<>();
+	private Flow.Subscription subscription;
+	private int captionsWritten = 0;
+
+	/**
+	 * Creates a CaptionSink that requests Flow.defaultBufferSize() captions ahead of writing.
+	 * @param writer The CaptionWriter to be written to; it is closed when the stream ends
+	 */
+	public CaptionSink(CaptionWriter writer) {
+		this(writer, Flow.defaultBufferSize());
+	}
+
+	/**
+	 * @param writer The CaptionWriter to be written to; it is closed when the stream ends
+	 * @param requestSize The most captions requested ahead of writing
+	 */
+	public CaptionSink(CaptionWriter writer, int requestSize) {
+		this.writer = writer;
+		this.requestSize = requestSize;
+	}
+
+	/**
+	 * Returns a future that completes with the number of captions written once the stream has ended and the writer is closed,
+	 * or exceptionally if the stream failed or a caption couldn't be written.
+	 * @return The completion of this sink
+	 */
+	public CompletableFuture<Integer> getCompletion() {
+		return completion;
+	}
+
+	@Override
+	public void onSubscribe(Flow.Subscription subscription) {
+		if (this.subscription != null) {
+			subscription.cancel();
+			return;
+		}
+		this.subscription = subscription;
+		subscription.request(requestSize);
+	}
+
+	@Override
+	public void onNext(Caption caption) {
+		if (completion.isDone()) {  //captions may still arrive after a cancellation
+			return;
+		}
+		try {
+			writer.write(caption);
+			captionsWritten++;
+			subscription.request(1);
+		} catch (IOException ioe) {
+			subscription.cancel();
+			fail(ioe);
+		}
+	}
+
+	@Override
+	public void onError(Throwable throwable) {
+		if (!completion.isDone()) {
+			fail(throwable);
+		}
+	}
+
+	@Override
+	public void onComplete() {
+		if (completion.isDone()) {
+			return;
+		}
+		try {
+			writer.close();
+			completion.complete(captionsWritten);
+		} catch (IOException ioe) {
+			completion.completeExceptionally(ioe);
+		}
+	}
+
+	private void fail(Throwable throwable) {
+		try {
+			writer.close();
+		} catch (IOException ioe) {
+			throwable.addSuppressed(ioe);
+		}
+		completion.completeExceptionally(throwable);
+	}
+
+}
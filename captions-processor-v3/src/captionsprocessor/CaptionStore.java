@@ -0,0 +1,361 @@
+package captionsprocessor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A compact, column-oriented List of captions. Numbers and start/end times are held in parallel int arrays, and all content shares a
+ * single char buffer indexed by offsets, so each caption costs a few ints plus its characters instead of three objects.
+ * Timing lines that aren't in the canonical form Timing.format() produces are kept verbatim, so output always matches the input exactly;
+ * settings after the end time of a canonical timing line, such as WebVTT cue settings, are kept beside its times. Both are held in parallel
+ * String arrays that are only allocated once a caption needs them.
+ */
+public class CaptionStore {
+
+	private static final int DEFAULT_CAPACITY = 16;
+
+	private int size = 0;
+	private int[] numbers;
+	private int[] starts;  //Timing.UNPARSED where the timing is kept in rawTimings
+	private int[] ends;
+	private int[] offsets;  //content of caption i is content[offsets[i]] up to content[offsets[i + 1]]
+	private char[] content;
+	private String[] rawTimings = null;  //where starts[i] is Timing.UNPARSED; null until a caption needs it
+	private String[] timingSettings = null;  //anything after the end time, with its leading space; null until a caption has some
+	private StringPool strings = null;
+
+	public CaptionStore() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param capacity The number of captions to allocate room for
+	 */
+	public CaptionStore(int capacity) {
+		capacity = Math.max(1, capacity);
+		numbers = new int[capacity];
+		starts = new int[capacity];
+		ends = new int[capacity];
+		offsets = new int[capacity + 1];
+		content = new char[capacity * 32];
+	}
+
+	/**
+	 * Creates a CaptionStore holding the same captions as a List.
+	 * @param captions The Captions to be stored
+	 * @return A new CaptionStore
+	 */
+	public static CaptionStore of(List<Caption> captions) {
+		CaptionStore store = new CaptionStore(captions.size());
+		for (Caption caption : captions) {
+			store.add(caption);
+		}
+		return store;
+	}
+
+	/**
+	 * Creates a CaptionStore holding every remaining Caption of an Iterator, such as a CaptionReader.
+	 * @param captions The Captions to be stored
+	 * @return A new CaptionStore
+	 */
+	public static CaptionStore of(Iterator<Caption> captions) {
+		CaptionStore store = new CaptionStore();
+		captions.forEachRemaining(store::add);
+		return store;
+	}
+
+	/**
+	 * Sets a pool to take the timing Strings kept for later captions from, such as recurring WebVTT cue settings, or null to keep a
+	 * String for each. The pool can be shared with the parser reading the captions and with other stores.
+	 * @param strings The StringPool
+	 * @return This CaptionStore
+	 */
+	public CaptionStore setStringPool(StringPool strings) {
+		this.strings = strings;
+		return this;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Appends a Caption to the end of the store.
+	 * @param caption The Caption to be added
+	 */
+	public void add(Caption caption) {
+		add(caption.getNumber(), caption.getTiming(), caption.getContent());
+	}
+
+	/**
+	 * Appends a caption to the end of the store.
+	 * @param number The caption number
+	 * @param timing The timing line
+	 * @param text The caption content
+	 */
+	public void add(int number, String timing, CharSequence text) {
+		if (size == numbers.length) {
+			int capacity = size * 2;
+			numbers = Arrays.copyOf(numbers, capacity);
+			starts = Arrays.copyOf(starts, capacity);
+			ends = Arrays.copyOf(ends, capacity);
+			offsets = Arrays.copyOf(offsets, capacity + 1);
+			if (rawTimings != null) {
+				rawTimings = Arrays.copyOf(rawTimings, capacity);
+			}
+			if (timingSettings != null) {
+				timingSettings = Arrays.copyOf(timingSettings, capacity);
+			}
+		}
+		numbers[size] = number;
+		int start = Timing.parseStart(timing);
+		int end = Timing.parseEnd(timing);
+		int settings = Timing.settingsStart(timing);
+		String canonical = (start == Timing.UNPARSED || end == Timing.UNPARSED) ? null : Timing.format(start, end);
+		if (canonical == null || canonical.length() != settings || !timing.startsWith(canonical)) {
+			start = Timing.UNPARSED;
+			end = Timing.UNPARSED;
+			if (rawTimings == null) {
+				rawTimings = new String[numbers.length];
+			}
+			rawTimings[size] = (strings != null) ? strings.intern(timing) : timing;
+		}
+		else if (settings < timing.length()) {
+			if (timingSettings == null) {
+				timingSettings = new String[numbers.length];
+			}
+			timingSettings[size] = (strings != null) ? strings.intern(timing.substring(settings)) : timing.substring(settings);
+		}
+		starts[size] = start;
+		ends[size] = end;
+		int offset = offsets[size];
+		ensureContentCapacity(offset + text.length());
+		for (int i = 0; i < text.length(); i++) {
+			content[offset + i] = text.charAt(i);
+		}
+		offsets[size + 1] = offset + text.length();
+		size++;
+	}
+
+	private void ensureContentCapacity(int capacity) {
+		if (capacity > content.length) {
+			content = Arrays.copyOf(content, Math.max(capacity, content.length * 2));
+		}
+	}
+
+	public int getNumber(int index) {
+		return numbers[index];
+	}
+
+	/**
+	 * Returns the start time of a caption in milliseconds.
+	 * @param index The index of the caption
+	 * @return The start time, or Timing.UNPARSED if its timing line isn't in canonical form
+	 */
+	public int getStartMillis(int index) {
+		return starts[index];
+	}
+
+	/**
+	 * Returns the end time of a caption in milliseconds.
+	 * @param index The index of the caption
+	 * @return The end time, or Timing.UNPARSED if its timing line isn't in canonical form
+	 */
+	public int getEndMillis(int index) {
+		return ends[index];
+	}
+
+	/**
+	 * Returns the timing line of a caption, exactly as it was added.
+	 * @param index The index of the caption
+	 * @return The timing line
+	 */
+	public String getTiming(int index) {
+		if (starts[index] == Timing.UNPARSED) {
+			return rawTimings[index];
+		}
+		return Timing.format(starts[index], ends[index]) + getTimingSettings(index);
+	}
+
+	/**
+	 * Returns whatever follows the end time in a caption's timing line, such as WebVTT cue settings.
+	 * @param index The index of the caption
+	 * @return The settings with their leading space, or an empty String if there are none or the timing line is kept verbatim
+	 */
+	public String getTimingSettings(int index) {
+		String settings = (timingSettings == null) ? null : timingSettings[index];
+		return (settings == null) ? "" : settings;
+	}
+
+	/**
+	 * Appends the timing line of a caption to a StringBuilder without creating a String.
+	 * @param index The index of the caption
+	 * @param out The StringBuilder to be appended to
+	 */
+	public void appendTiming(int index, StringBuilder out) {
+		if (starts[index] == Timing.UNPARSED) {
+			out.append(rawTimings[index]);
+		}
+		else {
+			Timing.append(out, starts[index], ends[index]);
+			out.append(getTimingSettings(index));
+		}
+	}
+
+	/**
+	 * Adds an offset to the start and end time of every caption, such as after footage is cut from or added to the start of a video.
+	 * Times that would fall before zero become zero. Captions whose timing lines are kept verbatim are left as they are.
+	 * @param offsetMillis The offset in milliseconds, negative to make captions earlier
+	 * @return The number of captions retimed
+	 */
+	public int shiftTimes(int offsetMillis) {
+		int retimed = 0;
+		for (int i = 0; i < size; i++) {
+			if (starts[i] != Timing.UNPARSED) {
+				starts[i] = Timing.shift(starts[i], offsetMillis);
+				ends[i] = Timing.shift(ends[i], offsetMillis);
+				retimed++;
+			}
+		}
+		return retimed;
+	}
+
+	/**
+	 * Multiplies the start and end time of every caption by a factor, such as when a video is converted to a different frame rate.
+	 * Captions whose timing lines are kept verbatim are left as they are.
+	 * @param factor The factor, greater than zero
+	 * @return The number of captions retimed
+	 */
+	public int scaleTimes(double factor) {
+		if (!(factor > 0) || Double.isInfinite(factor)) {
+			throw new IllegalArgumentException("Scale factor must be positive: " + factor);
+		}
+		int retimed = 0;
+		for (int i = 0; i < size; i++) {
+			if (starts[i] != Timing.UNPARSED) {
+				starts[i] = Timing.scale(starts[i], factor);
+				ends[i] = Timing.scale(ends[i], factor);
+				retimed++;
+			}
+		}
+		return retimed;
+	}
+
+	public int getContentLength(int index) {
+		return offsets[index + 1] - offsets[index];
+	}
+
+	public String getContent(int index) {
+		return new String(content, offsets[index], getContentLength(index));
+	}
+
+	/**
+	 * Appends the content of a caption to a StringBuilder without creating a String.
+	 * @param index The index of the caption
+	 * @param out The StringBuilder to be appended to
+	 */
+	public void appendContent(int index, StringBuilder out) {
+		out.append(content, offsets[index], getContentLength(index));
+	}
+
+	/**
+	 * Returns a new Caption object with the data of a stored caption.
+	 * @param index The index of the caption
+	 * @return The Caption
+	 */
+	public Caption getCaption(int index) {
+		return new Caption(numbers[index], getTiming(index), getContent(index));
+	}
+
+	/**
+	 * Returns a new List of Caption objects with the data of every stored caption.
+	 * @return The List of Captions
+	 */
+	public List<Caption> toCaptions() {
+		List<Caption> captions = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			captions.add(getCaption(i));
+		}
+		return captions;
+	}
+
+	/**
+	 * Removes captions with empty or placeholder content, as CaptionsProcessor.removeEmptyCaptions() does.
+	 * @return The number of captions removed
+	 */
+	public int removeEmptyCaptions() {
+		int kept = 0;
+		int contentLength = 0;
+		for (int i = 0; i < size; i++) {
+			int start = offsets[i];
+			int length = getContentLength(i);
+			if (length == 0 || isPlaceholder(start, length)) {
+				continue;
+			}
+			numbers[kept] = numbers[i];
+			starts[kept] = starts[i];
+			ends[kept] = ends[i];
+			if (rawTimings != null) {
+				rawTimings[kept] = rawTimings[i];
+			}
+			if (timingSettings != null) {
+				timingSettings[kept] = timingSettings[i];
+			}
+			System.arraycopy(content, start, content, contentLength, length);  //moves content towards the front, never over unread content
+			offsets[kept] = contentLength;
+			contentLength += length;
+			kept++;
+		}
+		int removed = size - kept;
+		size = kept;
+		offsets[size] = contentLength;
+		if (rawTimings != null) {
+			Arrays.fill(rawTimings, size, size + removed, null);  //so removed captions' Strings can be collected
+		}
+		if (timingSettings != null) {
+			Arrays.fill(timingSettings, size, size + removed, null);
+		}
+		return removed;
+	}
+
+	private boolean isPlaceholder(int start, int length) {
+		String placeholder = CaptionsProcessor.EMPTY_PLACEHOLDER;
+		if (length != placeholder.length()) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (content[start + i] != placeholder.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Resets a Pipeline and runs its stages over the content of every stored caption, in order.
+	 * @param pipeline The Pipeline to be run
+	 */
+	public void run(Pipeline pipeline) {
+		pipeline.reset();
+		StringBuilder buffer = new StringBuilder();
+		char[] newContent = new char[content.length];
+		int newLength = 0;
+		for (int i = 0; i < size; i++) {
+			buffer.setLength(0);
+			appendContent(i, buffer);
+			pipeline.process(buffer);
+			int length = buffer.length();
+			if (newLength + length > newContent.length) {
+				newContent = Arrays.copyOf(newContent, Math.max(newLength + length, newContent.length * 2));
+			}
+			buffer.getChars(0, length, newContent, newLength);
+			offsets[i] = newLength;
+			newLength += length;
+		}
+		offsets[size] = newLength;
+		content = newContent;
+	}
+
+}
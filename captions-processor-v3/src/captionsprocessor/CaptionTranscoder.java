@@ -0,0 +1,93 @@
+package captionsprocessor;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Converts captions files between formats, such as SubRip to WebVTT for web players, a caption at a time: each caption is written as
+ * soon as the line that ends it has been read, so no List of Captions is built, whatever the size of the file.
+ * <p>
+ * Usage: CaptionTranscoder [--to srt|vtt] [--process] INPUT OUTPUT
+ * <br>The output format is taken from OUTPUT's extension unless --to gives it. The input format is detected; see CaptionFormat.
+ * With --process, the edits of CaptionsProcessor.main() are made on the way; see CaptionsProcessor.processStreaming().
+ */
+public final class CaptionTranscoder {
+
+	private static final int BUFFER_CAPACITY = 256;
+
+	private CaptionTranscoder() {
+	}
+
+	/**
+	 * Rewrites a captions file in another format, keeping its encoding.
+	 * @param input The captions file to be read, in any CaptionFormat
+	 * @param output The captions file to be written
+	 * @param format The format to be written
+	 * @return The number of captions written
+	 * @throws IOException If either file can't be read or written
+	 */
+	public static int transcode(Path input, Path output, CaptionFormat format) throws IOException {
+		ByteBuffer bytes = MappedCaptionReader.map(input);
+		CaptionEncoding encoding = CaptionEncoding.detect(bytes);
+		CaptionFormat inputFormat = CaptionFormat.detect(bytes, encoding);
+		int[] written = {0};
+		try (CaptionWriter writer = CaptionWriter.open(output, encoding, format)) {
+			MappedCaptionReader.read(bytes, encoding, inputFormat, caption -> {
+				try {
+					writer.write(caption);
+					written[0]++;
+				} catch (IOException ioe) {
+					throw new UncheckedIOException(ioe);
+				}
+			});
+		} catch (UncheckedIOException uioe) {
+			throw uioe.getCause();
+		}
+		return written[0];
+	}
+
+	private static void printUsage() {
+		System.err.println("Usage: CaptionTranscoder [--to srt|vtt] [--process] INPUT OUTPUT");
+	}
+
+	public static void main(String[] args) throws IOException {
+		CaptionFormat format = null;
+		boolean process = false;
+		List<String> positional = new ArrayList<>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("--to") && i + 1 < args.length) {
+				format = CaptionFormat.forName(args[++i]);
+			}
+			else if (args[i].equals("--process")) {
+				process = true;
+			}
+			else {
+				positional.add(args[i]);
+			}
+		}
+		if (positional.size() != 2) {
+			printUsage();
+			System.exit(2);
+		}
+		Path input = Path.of(positional.get(0));
+		Path output = Path.of(positional.get(1));
+		if (format == null) {
+			format = CaptionFormat.forPath(output);
+		}
+		long start = System.nanoTime();
+		int written;
+		if (process) {
+			Pipeline pipeline = Pipeline.standard(new ReplacementMatcher(CaptionsProcessor.DEFAULT_REPLACEMENTS));
+			written = CaptionsProcessor.processStreaming(input, output, format, pipeline, BUFFER_CAPACITY);
+		}
+		else {
+			written = transcode(input, output, format);
+		}
+		System.out.format("%d captions written to %s as %s in %.1f ms%n", written, output, format, (System.nanoTime() - start) / 1e6);
+	}
+
+}
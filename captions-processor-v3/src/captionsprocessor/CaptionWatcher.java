@@ -0,0 +1,444 @@
+package captionsprocessor;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Daemon mode: watches input folders with a WatchService and processes each captions file that appears or changes in them,
+ * writing the result under an output folder as BatchProcessor would, without anyone picking files in InputHandler's dialogs.
+ * <p>
+ * A file is only processed once it has settled: no events for it for a while, and the same size and modification time as when
+ * it was last seen, so files still being copied or exported aren't read half written. Settled files are processed on a pool
+ * of worker threads, and each result is written to a temporary file and renamed into place.
+ * <p>
+ * Every file processed is recorded in a journal with its size and modification time. Files the journal already has, unchanged,
+ * are skipped when the watcher starts, so a restart only picks up files that arrived or changed while it was down.
+ * <p>
+ * Usage: CaptionWatcher [--threads N] [--glob PATTERN] [--settle MS] [--rules FILE] [--journal FILE] OUTPUT_DIR [INPUT_DIR...]
+ * <br>Input folders are watched recursively for files matching PATTERN (default *.{srt,vtt,srt.gz,vtt.gz,zip}); without any, src/captionfiles is watched,
+ * as InputHandler uses. The journal is kept in OUTPUT_DIR by default. With --rules, the replacements come from a rules file,
+ * which is reloaded whenever it changes; see ReloadableMatcher.
+ */
+public class CaptionWatcher implements Closeable {
+
+	public static final long DEFAULT_SETTLE_MILLIS = 2000;
+
+	private static final Path DEFAULT_INPUT = Path.of("src", "captionfiles");
+	private static final String JOURNAL_NAME = ".captionwatcher-journal";
+	private static final long STOP_TIMEOUT_SECONDS = 60;
+
+	private final List<Path> inputDirectories;
+	private final Path outputDirectory;
+	private final PathMatcher nameMatcher;
+	private final long settleMillis;
+	private final BatchProcessor processor;
+	private final ReloadableMatcher rules;  //null if the rules are fixed
+	private final Journal journal;
+	private final WatchService watcher;
+	private final Map<WatchKey, Path> watchedDirectories = new ConcurrentHashMap<>();
+	private final Map<Path, Pending> pending = new ConcurrentHashMap<>();  //files seen but not yet settled
+	private final Set<Path> inFlight = ConcurrentHashMap.newKeySet();  //files being processed
+	private final ScheduledExecutorService settler;
+	private final ExecutorService workers;
+	private Thread eventLoop;
+
+	/**
+	 * A file's size and modification time, which identify a version of it well enough to tell when it has changed.
+	 */
+	record FileStamp(long size, long modifiedMillis) {
+
+		static FileStamp of(Path file) throws IOException {
+			BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+			return new FileStamp(attributes.size(), attributes.lastModifiedTime().toMillis());
+		}
+	}
+
+	/**
+	 * A file waiting to settle: the input folder it was found under, when it was last reported and what it looked like then.
+	 */
+	private record Pending(Path root, long lastEventNanos, FileStamp stamp) {
+	}
+
+	/**
+	 * @param inputDirectories The folders to be watched, recursively
+	 * @param outputDirectory The folder results are written under, with the same path as the input relative to its input folder
+	 * @param glob The file name pattern of captions files
+	 * @param settleMillis How long a file has to stay unchanged before it is processed
+	 * @param threads The number of files processed at once
+	 * @param matchers Supplies the replacement rules for each file; if it's a ReloadableMatcher, it's reloaded whenever its rules file changes
+	 * @param journalFile The journal of files already processed, created if it doesn't exist
+	 * @throws IOException If a folder can't be watched or the journal can't be read
+	 * @throws IllegalArgumentException If the output folder is inside an input folder, or the other way around
+	 */
+	public CaptionWatcher(List<Path> inputDirectories, Path outputDirectory, String glob, long settleMillis, int threads,
+			Supplier<ReplacementMatcher> matchers, Path journalFile) throws IOException {
+		this.outputDirectory = outputDirectory.toAbsolutePath().normalize();
+		this.inputDirectories = new ArrayList<>();
+		for (Path input : inputDirectories) {
+			Path directory = input.toAbsolutePath().normalize();
+			if (directory.startsWith(this.outputDirectory) || this.outputDirectory.startsWith(directory)) {  //results would be picked up as inputs
+				throw new IllegalArgumentException("Output folder " + outputDirectory + " overlaps input folder " + input);
+			}
+			this.inputDirectories.add(directory);
+		}
+		this.nameMatcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+		this.settleMillis = settleMillis;
+		this.processor = new BatchProcessor(this.outputDirectory, threads, matchers, BatchProcessor.NO_SPLIT, new JfrMetricsListener());
+		this.rules = (matchers instanceof ReloadableMatcher reloadable) ? reloadable : null;
+		this.journal = new Journal(journalFile);
+		this.watcher = FileSystems.getDefault().newWatchService();
+		this.settler = Executors.newSingleThreadScheduledExecutor(task -> {
+			Thread thread = new Thread(task, "caption-watcher-settler");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.workers = Executors.newFixedThreadPool(threads);
+	}
+
+	/**
+	 * Starts watching: registers every input folder, queues the files already in them that the journal doesn't have,
+	 * then handles events on a new thread until the watcher is closed.
+	 * @throws IOException If a folder can't be watched
+	 */
+	public void start() throws IOException {
+		Files.createDirectories(outputDirectory);
+		for (Path input : inputDirectories) {
+			Files.createDirectories(input);
+			registerAll(input);
+			scan(input, input);
+		}
+		if (rules != null) {
+			Path rulesDirectory = rules.getRulesFile().toAbsolutePath().getParent();
+			watchedDirectories.put(rulesDirectory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY), rulesDirectory);
+		}
+		eventLoop = new Thread(this::handleEvents, "caption-watcher");
+		eventLoop.start();
+	}
+
+	/**
+	 * Registers a folder and every folder under it with the WatchService.
+	 */
+	private void registerAll(Path directory) throws IOException {
+		try (Stream<Path> directories = Files.walk(directory)) {
+			for (Path subdirectory : (Iterable<Path>) directories.filter(Files::isDirectory)::iterator) {
+				WatchKey key = subdirectory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+				watchedDirectories.put(key, subdirectory);
+			}
+		}
+	}
+
+	/**
+	 * Queues every captions file under a folder, for when files may have arrived without events: at startup, in a new folder
+	 * and after the WatchService has dropped events.
+	 */
+	private void scan(Path root, Path directory) throws IOException {
+		try (Stream<Path> files = Files.walk(directory)) {
+			for (Path file : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator) {
+				if (nameMatcher.matches(file.getFileName())) {
+					observe(root, file);
+				}
+			}
+		}
+	}
+
+	private void handleEvents() {
+		try {
+			while (true) {
+				WatchKey key = watcher.take();
+				Path directory = watchedDirectories.get(key);
+				if (directory != null) {
+					for (WatchEvent<?> event : key.pollEvents()) {
+						handleEvent(directory, event);
+					}
+				}
+				if (!key.reset()) {  //the folder was deleted
+					watchedDirectories.remove(key);
+				}
+			}
+		} catch (InterruptedException | ClosedWatchServiceException e) {  //closed
+		}
+	}
+
+	private void handleEvent(Path directory, WatchEvent<?> event) {
+		Path root = rootOf(directory);
+		try {
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+				System.err.println("Watch events were lost in " + directory + "; rescanning");
+				if (root != null) {
+					scan(root, directory);
+				}
+				return;
+			}
+			Path path = directory.resolve((Path) event.context());
+			if (rules != null && path.equals(rules.getRulesFile().toAbsolutePath())) {
+				settler.schedule(this::reloadRules, settleMillis, TimeUnit.MILLISECONDS);
+			}
+			if (root == null) {
+				return;
+			}
+			if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+				registerAll(path);
+				scan(root, path);
+			}
+			else if (nameMatcher.matches(path.getFileName())) {
+				observe(root, path);
+			}
+		} catch (IOException ioe) {
+			System.err.println("Couldn't watch " + directory + ": " + ioe);
+		}
+	}
+
+	/**
+	 * Returns the input folder a folder is in, or null if it's only watched for the rules file.
+	 */
+	private Path rootOf(Path directory) {
+		for (Path input : inputDirectories) {
+			if (directory.startsWith(input)) {
+				return input;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Notes that a file was created or changed, and checks it once it has had time to settle.
+	 */
+	private void observe(Path root, Path file) {
+		FileStamp stamp;
+		try {
+			stamp = FileStamp.of(file);
+		} catch (IOException ioe) {  //already gone again
+			return;
+		}
+		pending.put(file, new Pending(root, System.nanoTime(), stamp));
+		settler.schedule(() -> settle(file), settleMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Hands a file to the workers if nothing has happened to it since it was last observed. Every observation schedules its own check,
+	 * so a check that finds a more recent observation simply leaves it to that observation's check.
+	 */
+	private void settle(Path file) {
+		Pending waiting = pending.get(file);
+		if (waiting == null || System.nanoTime() - waiting.lastEventNanos() < TimeUnit.MILLISECONDS.toNanos(settleMillis)) {
+			return;
+		}
+		FileStamp stamp;
+		try {
+			stamp = FileStamp.of(file);
+		} catch (IOException ioe) {
+			pending.remove(file, waiting);
+			return;
+		}
+		if (!stamp.equals(waiting.stamp())) {  //written to without an event, so wait again
+			observe(waiting.root(), file);
+			return;
+		}
+		if (journal.isDone(file, stamp)) {
+			pending.remove(file, waiting);
+			return;
+		}
+		if (!inFlight.add(file)) {  //still processing an earlier version
+			settler.schedule(() -> settle(file), settleMillis, TimeUnit.MILLISECONDS);
+			return;
+		}
+		if (!pending.remove(file, waiting)) {  //observed again just now
+			inFlight.remove(file);
+			return;
+		}
+		workers.execute(() -> process(waiting.root(), file, stamp));
+	}
+
+	private void process(Path root, Path file, FileStamp stamp) {
+		try {
+			Path output = outputDirectory.resolve(root.relativize(file));  //a .gz or .zip result is compressed like its input
+			List<BatchProcessor.FileResult> results = CompressedFiles.isZip(file) ? processor.processArchive(file, output) : List.of(processor.processFile(file, output));
+			boolean succeeded = true;
+			for (BatchProcessor.FileResult result : results) {
+				if (result.succeeded()) {
+					System.out.format("%s -> %s: %d captions written, %d edits, %.1f ms%n", result.input(), result.output(),
+							result.captionsWritten(), result.edits(), result.nanos() / 1e6);
+				}
+				else {
+					System.err.println(result.input() + ": FAILED (" + result.error() + ")");
+					succeeded = false;
+				}
+			}
+			if (succeeded) {
+				journal.record(file, stamp);
+			}
+		} catch (IOException ioe) {
+			System.err.println("Couldn't update the journal for " + file + ": " + ioe);
+		} finally {
+			inFlight.remove(file);
+		}
+	}
+
+	private void reloadRules() {
+		try {
+			if (rules.reloadIfChanged()) {
+				System.out.println("Reloaded " + rules.getRulesFile() + " (" + rules.get().getRuleCount() + " rules)");
+			}
+		} catch (IOException | RuntimeException e) {  //keep the rules already loaded
+			System.err.println("Couldn't reload " + rules.getRulesFile() + ": " + e);
+		}
+	}
+
+	/**
+	 * Stops watching, then waits for the files being processed to finish. Files that haven't settled yet are left for the next start.
+	 * @throws IOException If the WatchService can't be closed
+	 */
+	@Override
+	public void close() throws IOException {
+		watcher.close();
+		settler.shutdownNow();
+		workers.shutdown();
+		try {
+			if (eventLoop != null) {
+				eventLoop.join();
+			}
+			workers.awaitTermination(STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * The files that have been processed, one line each: size, modification time in milliseconds and absolute path, separated by tabs.
+	 * Lines are appended as files finish, so a crash loses at most the last few, and those files are simply processed again.
+	 * The journal is rewritten without superseded lines when it's opened.
+	 */
+	private static class Journal {
+
+		private static final String SEPARATOR = "\t";
+
+		private final Path file;
+		private final Map<Path, FileStamp> done = new LinkedHashMap<>();
+
+		private Journal(Path file) throws IOException {
+			this.file = file;
+			if (Files.isRegularFile(file)) {
+				for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+					String[] fields = line.split(SEPARATOR, 3);
+					try {
+						done.put(Path.of(fields[2]), new FileStamp(Long.parseLong(fields[0]), Long.parseLong(fields[1])));
+					} catch (RuntimeException re) {  //a line cut short by a crash
+					}
+				}
+				StringBuilder compacted = new StringBuilder();
+				done.forEach((path, stamp) -> appendLine(compacted, path, stamp));
+				AtomicFiles.write(file, ByteBuffer.wrap(compacted.toString().getBytes(StandardCharsets.UTF_8)), false);
+			}
+		}
+
+		private static void appendLine(StringBuilder lines, Path path, FileStamp stamp) {
+			lines.append(stamp.size()).append(SEPARATOR).append(stamp.modifiedMillis()).append(SEPARATOR).append(path).append('\n');
+		}
+
+		synchronized boolean isDone(Path path, FileStamp stamp) {
+			return stamp.equals(done.get(path));
+		}
+
+		synchronized void record(Path path, FileStamp stamp) throws IOException {
+			done.put(path, stamp);
+			StringBuilder line = new StringBuilder();
+			appendLine(line, path, stamp);
+			Files.writeString(file, line, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		}
+	}
+
+	private static void printUsage() {
+		System.err.println("Usage: CaptionWatcher [--threads N] [--glob PATTERN] [--settle MS] [--rules FILE] [--journal FILE] OUTPUT_DIR [INPUT_DIR...]");
+	}
+
+	public static void main(String[] args) throws IOException {
+		int threads = Runtime.getRuntime().availableProcessors();
+		String glob = BatchProcessor.DEFAULT_GLOB;
+		long settleMillis = DEFAULT_SETTLE_MILLIS;
+		Path rulesFile = null;
+		Path journalFile = null;
+		List<String> positional = new ArrayList<>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("--threads") && i + 1 < args.length) {
+				threads = Integer.parseInt(args[++i]);
+			}
+			else if (args[i].equals("--glob") && i + 1 < args.length) {
+				glob = args[++i];
+			}
+			else if (args[i].equals("--settle") && i + 1 < args.length) {
+				settleMillis = Long.parseLong(args[++i]);
+			}
+			else if (args[i].equals("--rules") && i + 1 < args.length) {
+				rulesFile = Path.of(args[++i]);
+			}
+			else if (args[i].equals("--journal") && i + 1 < args.length) {
+				journalFile = Path.of(args[++i]);
+			}
+			else {
+				positional.add(args[i]);
+			}
+		}
+		if (positional.isEmpty() || threads < 1 || settleMillis < 0) {
+			printUsage();
+			System.exit(2);
+		}
+		Path outputDirectory = Path.of(positional.get(0));
+		List<Path> inputDirectories = new ArrayList<>();
+		for (String input : positional.subList(1, positional.size())) {
+			inputDirectories.add(Path.of(input));
+		}
+		if (inputDirectories.isEmpty()) {
+			inputDirectories.add(DEFAULT_INPUT);
+		}
+		if (journalFile == null) {
+			Files.createDirectories(outputDirectory);
+			journalFile = outputDirectory.resolve(JOURNAL_NAME);
+		}
+
+		Supplier<ReplacementMatcher> matchers;
+		if (rulesFile == null) {
+			ReplacementMatcher matcher = new ReplacementMatcher(CaptionsProcessor.DEFAULT_REPLACEMENTS);
+			matchers = () -> matcher;
+		}
+		else {
+			matchers = new ReloadableMatcher(rulesFile);
+		}
+		CaptionWatcher watcher = new CaptionWatcher(inputDirectories, outputDirectory, glob, settleMillis, threads, matchers, journalFile);
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			try {
+				watcher.close();
+			} catch (IOException ioe) {
+				System.err.println("Couldn't stop watching: " + ioe);
+			}
+		}));
+		watcher.start();
+		System.out.println("Watching " + inputDirectories + " for " + glob + " files; results go to " + outputDirectory);
+	}
+
+}
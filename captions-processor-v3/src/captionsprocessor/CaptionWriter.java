@@ -0,0 +1,343 @@
+package captionsprocessor;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Writes Captions to a captions document one at a time, laid out in a CaptionFormat: SubRip, as InputHandler.writeCaptionFile() produces
+ * by default, or another given when the writer is opened. Writing captions as they are read from a file of another format transcodes it
+ * without holding the file; see CaptionTranscoder.
+ * The static write() methods instead encode a whole file into one ByteBuffer, sized up front, and hand it to the file in a single write.
+ */
+public class CaptionWriter implements Closeable {
+
+	static final Charset CHARSET = StandardCharsets.UTF_8;
+	private static final char BYTE_ORDER_MARK = '\uFEFF';
+
+	private final BufferedWriter writer;
+	private final CaptionFormat format;
+	private final StringBuilder line = new StringBuilder();  //reused for each caption
+	private char[] chars = new char[256];
+
+	public CaptionWriter(BufferedWriter writer) {
+		this(writer, CaptionFormat.SRT);
+	}
+
+	/**
+	 * @param writer The document, positioned after the format's header; open() writes the header itself
+	 * @param format The layout of the captions
+	 */
+	public CaptionWriter(BufferedWriter writer, CaptionFormat format) {
+		this.writer = writer;
+		this.format = format;
+	}
+
+	/**
+	 * Opens a CaptionWriter on a file, creating it or replacing its contents.
+	 * @param path The captions file to be written
+	 * @return A new CaptionWriter
+	 * @throws IOException If the file can't be opened
+	 */
+	public static CaptionWriter open(Path path) throws IOException {
+		return new CaptionWriter(Files.newBufferedWriter(path, CHARSET));
+	}
+
+	/**
+	 * Opens a CaptionWriter on a file in a specified encoding, creating it or replacing its contents.
+	 * The encoding's byte order mark, if it has one, is written straight away.
+	 * @param path The captions file to be written
+	 * @param encoding The encoding to write, such as the one the captions were read with
+	 * @return A new CaptionWriter
+	 * @throws IOException If the file can't be opened
+	 */
+	public static CaptionWriter open(Path path, CaptionEncoding encoding) throws IOException {
+		return open(path, encoding, CaptionFormat.SRT);
+	}
+
+	/**
+	 * Opens a CaptionWriter on a file in a specified encoding and format, creating it or replacing its contents.
+	 * The encoding's byte order mark, if it has one, and the format's header are written straight away.
+	 * @param path The captions file to be written
+	 * @param encoding The encoding to write, such as the one the captions were read with
+	 * @param format The layout of the captions
+	 * @return A new CaptionWriter
+	 * @throws IOException If the file can't be opened
+	 */
+	public static CaptionWriter open(Path path, CaptionEncoding encoding, CaptionFormat format) throws IOException {
+		BufferedWriter writer = Files.newBufferedWriter(path, encoding.getCharset());
+		if (encoding.hasByteOrderMark()) {
+			writer.write(BYTE_ORDER_MARK);
+		}
+		StringBuilder header = new StringBuilder();
+		format.appendHeader(header);
+		writer.append(header);
+		return new CaptionWriter(writer, format);
+	}
+
+	/**
+	 * Writes a List of Captions to a file as UTF-8, creating it or replacing its contents.
+	 * @param captions The Captions to be written, in order
+	 * @param path The captions file to be written
+	 * @throws IOException If the file can't be written
+	 */
+	public static void write(List<Caption> captions, Path path) throws IOException {
+		write(captions, path, CaptionEncoding.UTF_8);
+	}
+
+	/**
+	 * Writes a List of Captions to a file, creating it or replacing its contents.
+	 * @param captions The Captions to be written, in order
+	 * @param path The captions file to be written
+	 * @param encoding The encoding to write, such as the one the captions were read with
+	 * @throws IOException If the file can't be written
+	 */
+	public static void write(List<Caption> captions, Path path, CaptionEncoding encoding) throws IOException {
+		write(captions, path, encoding, CaptionFormat.SRT);
+	}
+
+	/**
+	 * Writes a List of Captions to a file in a specified format, creating it or replacing its contents.
+	 * @param captions The Captions to be written, in order
+	 * @param path The captions file to be written
+	 * @param encoding The encoding to write, such as the one the captions were read with
+	 * @param format The layout of the captions
+	 * @throws IOException If the file can't be written
+	 */
+	public static void write(List<Caption> captions, Path path, CaptionEncoding encoding, CaptionFormat format) throws IOException {
+		writeFully(encode(captions, encoding, format), path);
+	}
+
+	/**
+	 * Writes every caption of a CaptionStore to a file as UTF-8, creating it or replacing its contents.
+	 * @param store The captions to be written, in order
+	 * @param path The captions file to be written
+	 * @throws IOException If the file can't be written
+	 */
+	public static void write(CaptionStore store, Path path) throws IOException {
+		write(store, path, CaptionEncoding.UTF_8);
+	}
+
+	/**
+	 * Writes every caption of a CaptionStore to a file, creating it or replacing its contents.
+	 * @param store The captions to be written, in order
+	 * @param path The captions file to be written
+	 * @param encoding The encoding to write, such as the one the captions were read with
+	 * @throws IOException If the file can't be written
+	 */
+	public static void write(CaptionStore store, Path path, CaptionEncoding encoding) throws IOException {
+		writeFully(encode(store, encoding), path);
+	}
+
+	/**
+	 * As write(captions, path, encoding, format), but through a temporary file that is renamed over the target, so that a reader never sees
+	 * the file partly written.
+	 */
+	public static void writeAtomically(List<Caption> captions, Path path, CaptionEncoding encoding, CaptionFormat format) throws IOException {
+		AtomicFiles.write(path, encode(captions, encoding, format), false);
+	}
+
+	/**
+	 * As write(store, path, encoding), but in a specified format and through a temporary file that is renamed over the target, so that
+	 * a reader never sees the file partly written.
+	 */
+	public static void writeAtomically(CaptionStore store, Path path, CaptionEncoding encoding, CaptionFormat format) throws IOException {
+		AtomicFiles.write(path, encode(store, encoding, format), false);
+	}
+
+	/**
+	 * Encodes a List of Captions as a whole captions file, starting with the encoding's byte order mark if it has one.
+	 * @param captions The Captions to be encoded, in order
+	 * @param encoding The encoding to be used
+	 * @return A buffer holding the file, ready to be read
+	 */
+	public static ByteBuffer encode(List<Caption> captions, CaptionEncoding encoding) {
+		return encode(captions, encoding, CaptionFormat.SRT);
+	}
+
+	/**
+	 * Encodes a List of Captions as a whole captions file in a specified format, starting with the encoding's byte order mark if it has one.
+	 * @param captions The Captions to be encoded, in order
+	 * @param encoding The encoding to be used
+	 * @param format The layout of the captions
+	 * @return A buffer holding the file, ready to be read
+	 */
+	public static ByteBuffer encode(List<Caption> captions, CaptionEncoding encoding, CaptionFormat format) {
+		FileEncoder file = new FileEncoder(encoding, format);
+		for (Caption caption : captions) {
+			file.measure(appendCaption(file.line, format, caption));
+		}
+		file.allocate();
+		for (Caption caption : captions) {
+			file.encode(appendCaption(file.line, format, caption));
+		}
+		return file.finish();
+	}
+
+	/**
+	 * Encodes every caption of a CaptionStore as a whole captions file, starting with the encoding's byte order mark if it has one.
+	 * @param store The captions to be encoded, in order
+	 * @param encoding The encoding to be used
+	 * @return A buffer holding the file, ready to be read
+	 */
+	public static ByteBuffer encode(CaptionStore store, CaptionEncoding encoding) {
+		return encode(store, encoding, CaptionFormat.SRT);
+	}
+
+	/**
+	 * Encodes every caption of a CaptionStore as a whole captions file in a specified format, starting with the encoding's byte order
+	 * mark if it has one.
+	 * @param store The captions to be encoded, in order
+	 * @param encoding The encoding to be used
+	 * @param format The layout of the captions
+	 * @return A buffer holding the file, ready to be read
+	 */
+	public static ByteBuffer encode(CaptionStore store, CaptionEncoding encoding, CaptionFormat format) {
+		FileEncoder file = new FileEncoder(encoding, format);
+		for (int i = 0; i < store.size(); i++) {
+			file.measure(appendCaption(file.line, format, store, i));
+		}
+		file.allocate();
+		for (int i = 0; i < store.size(); i++) {
+			file.encode(appendCaption(file.line, format, store, i));
+		}
+		return file.finish();
+	}
+
+	private static void writeFully(ByteBuffer bytes, Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			while (bytes.hasRemaining()) {
+				channel.write(bytes);
+			}
+		}
+	}
+
+	/**
+	 * Replaces the contents of a StringBuilder with a caption as it appears in the file, followed by its empty breakline.
+	 */
+	private static StringBuilder appendCaption(StringBuilder line, CaptionFormat format, Caption caption) {
+		line.setLength(0);
+		format.appendCaption(line, caption);
+		return line;
+	}
+
+	private static StringBuilder appendCaption(StringBuilder line, CaptionFormat format, CaptionStore store, int index) {
+		line.setLength(0);
+		format.appendCaption(line, store, index);
+		return line;
+	}
+
+	/**
+	 * Encodes the captions of one file into a single buffer: every caption is measured first, so the buffer is allocated once at its final size.
+	 */
+	private static final class FileEncoder {
+
+		private final CaptionEncoding encoding;
+		private final CaptionFormat format;
+		private final CharsetEncoder encoder;
+		private final StringBuilder line = new StringBuilder();
+		private char[] chars = new char[256];
+		private long size;
+		private ByteBuffer bytes;
+
+		private FileEncoder(CaptionEncoding encoding, CaptionFormat format) {
+			this.encoding = encoding;
+			this.format = format;
+			this.encoder = encoding.getCharset().newEncoder()
+					.onMalformedInput(CodingErrorAction.REPLACE)
+					.onUnmappableCharacter(CodingErrorAction.REPLACE);
+			this.size = encoding.getByteOrderMarkLength();
+			format.appendHeader(line);
+			measure(line);
+		}
+
+		private void measure(StringBuilder text) {
+			size += encoding.encodedLength(text);
+		}
+
+		private void allocate() {
+			if (size > Integer.MAX_VALUE) {
+				throw new IllegalArgumentException("Captions take up " + size + " bytes, too many for one buffer");
+			}
+			bytes = ByteBuffer.allocate((int) size);
+			bytes.put(encoding.getByteOrderMark());
+			line.setLength(0);
+			format.appendHeader(line);
+			encode(line);
+		}
+
+		private void encode(StringBuilder text) {
+			if (chars.length < text.length()) {
+				chars = new char[text.length() * 2];
+			}
+			text.getChars(0, text.length(), chars, 0);
+			CharBuffer in = CharBuffer.wrap(chars, 0, text.length());
+			encoder.reset();
+			while (encoder.encode(in, bytes, true) == CoderResult.OVERFLOW) {
+				grow();
+			}
+			while (encoder.flush(bytes) == CoderResult.OVERFLOW) {
+				grow();
+			}
+		}
+
+		/**
+		 * Only reached if encodedLength() came up short, which it doesn't for any encoding CaptionEncoding.detect() returns.
+		 */
+		private void grow() {
+			ByteBuffer larger = ByteBuffer.allocate(Math.max(16, bytes.capacity() * 2));
+			bytes.flip();
+			larger.put(bytes);
+			bytes = larger;
+		}
+
+		private ByteBuffer finish() {
+			return bytes.flip();
+		}
+	}
+
+	/**
+	 * Writes a single caption of a CaptionStore, followed by the empty breakline that separates it from the next.
+	 * @param store The CaptionStore holding the caption
+	 * @param index The index of the caption
+	 * @throws IOException If the caption can't be written
+	 */
+	public void write(CaptionStore store, int index) throws IOException {
+		writeLine(appendCaption(line, format, store, index));
+	}
+
+	/**
+	 * Writes a single Caption, followed by the empty breakline that separates it from the next.
+	 * @param caption The Caption to be written
+	 * @throws IOException If the Caption can't be written
+	 */
+	public void write(Caption caption) throws IOException {
+		writeLine(appendCaption(line, format, caption));
+	}
+
+	private void writeLine(StringBuilder text) throws IOException {
+		if (chars.length < text.length()) {
+			chars = new char[text.length() * 2];
+		}
+		text.getChars(0, text.length(), chars, 0);
+		writer.write(chars, 0, text.length());
+	}
+
+	@Override
+	public void close() throws IOException {
+		writer.close();
+	}
+
+}
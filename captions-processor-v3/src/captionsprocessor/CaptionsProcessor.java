@@ -1,25 +1,44 @@
 package captionsprocessor;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.file.Path;
 import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
 
 public class CaptionsProcessor {
 
 	private static final String SPACE_DELINEATOR = " ";
 	private static final String NEWLINE_DELINEATOR = "\n";
-	private static final String EMPTY_PLACEHOLDER = "[no speech detected]";
-
-	private static final String CAPTION_BREAK_DELINEATOR = NEWLINE_DELINEATOR;  //exists to give the option of preserving newlines in caption content string
-	private static final boolean ENABLE_CONSOLE_OUTPUT = true;
-	private static boolean REPLACE_CONSOLE_OUTPUT = ENABLE_CONSOLE_OUTPUT;  //a special console output setting only for searchAndReplace()
-
-	private static final int FIRST_CHARACTER = 0;
-	private static final int SEARCH = 0;
-	private static final int REPLACE = 1;
+	static final String EMPTY_PLACEHOLDER = "[no speech detected]";
+
+	static final String CAPTION_BREAK_DELINEATOR = NEWLINE_DELINEATOR;  //exists to give the option of preserving newlines in caption content string
+	static final boolean ENABLE_CONSOLE_OUTPUT = true;
+
+	static final int SEARCH = 0;
+	static final int REPLACE = 1;
+
+	static final String[][] DEFAULT_REPLACEMENTS = {  //the replacements main() performs; see multipleReplace()
+			{"you know", ""},
+			{"peer to peer", "peer-to-peer"},
+			{"client server", "client-server"},
+			{"actually", ""},
+			{"basically", ""},
+			{"really", ""},
+			{"i mean", ""},
+			{"and and", "and"},
+			{"then then", "then"},
+			{"so so ", "so "},
+			{" so so", " so"},
+			{"TCP IP", "TCP-IP"},
+			{"adopt", "adapt"},
+			{"zoom", "Zoom"},
+			{"washoe", "WashU"}
+	};
 
 	/**
 	 * Returns a List<String> containing each line of a text file in a new entry.
@@ -36,23 +55,45 @@ public class CaptionsProcessor {
 		}
 	}
 
+	/**
+	 * Returns a List<Caption> containing every caption in a captions file, parsed as the file is read.
+	 * Equivalent to listToCaptions(fileToList(path)) without holding every line of the file in memory, except that the file's encoding
+	 * is detected rather than assumed to be UTF-8; see MappedCaptionReader.
+	 * @param path The captions file to be parsed
+	 * @return A list of valid Caption objects
+	 */
+	public static List<Caption> readCaptions(Path path) {
+		List<Caption> captions = new ArrayList<>();
+		try {
+			MappedCaptionReader.read(path, captions::add);
+			return captions;
+		} catch (IOException ioe) {
+			ioe.printStackTrace();
+			return null;
+		}
+	}
+
 	/**
 	 * Returns a List<Caption> based on a series of lines parsed using linesToList on a valid captions file.
+	 * A line that is an integer starts a caption whenever another line follows it; see CaptionParser.
+	 * Lines that start with a WebVTT header are parsed as WebVTT instead; see CaptionFormat.
 	 * @param lines The list of lines as output form linesToList()
 	 * @return A list of valid Caption objects
 	 */
 	public static List<Caption> listToCaptions(List<String> lines) {
 		List<Caption> captions = new LinkedList<>();
+		CaptionFormat.Parser parser = CaptionFormat.detect(lines).newParser();
 
-		for (int currentLine = 0; currentLine < lines.size(); currentLine++) {  //for all the lines in the document
-			String lineContent = lines.get(currentLine);
-			if (currentLine + 1 < lines.size()) {  //if the next line exists
-				String nextLineContent = lines.get(currentLine + 1);   //if this AND the first character of the next line are both digits (i.e. next is a timing line)
-				if (!lineContent.equals("") && Caption.isInteger(lineContent) && Caption.isInteger(nextLineContent.substring(0, 0))) {
-					captions.add(parseCaption(lines, currentLine));
-				}
+		for (String line : lines) {  //for all the lines in the document
+			parser.feed(line);
+			while (parser.hasReady()) {
+				captions.add(parser.poll());
 			}
 		}
+		parser.finish();
+		while (parser.hasReady()) {
+			captions.add(parser.poll());
+		}
 		return captions;
 	}
 
@@ -92,14 +133,16 @@ public class CaptionsProcessor {
 	 * See Caption.toWords().
 	 * @param words The List of Strings, each representing a word in a caption's content
 	 * @return The formatted content String
+	 * @deprecated Goes with Caption.toWords(); stages now edit content in place with a WordCursor.
 	 */
+	@Deprecated
 	public static String wordsToContent(List<String> words) {
-		String content = "";          //rebuild the string's content from the edited list of words
+		StringBuilder content = new StringBuilder();          //rebuild the string's content from the edited list of words
 		for (String word : words) {
-			content += word + " ";
+			content.append(word).append(' ');
 		}
-		content = content.trim();  //remove the trailing space
-		return content;
+		trim(content);  //remove the trailing space
+		return content.toString();
 	}
 
 	/**
@@ -107,14 +150,111 @@ public class CaptionsProcessor {
 	 * See Caption.toChars().
 	 * @param chars The List of Characters to be concatenated into a content String
 	 * @return The resulting content String
+	 * @deprecated Goes with Caption.toChars(); edit content in a StringBuilder instead.
 	 */
+	@Deprecated
 	public static String charsToContent(List<Character> chars) {
-		String content = "";          //rebuild the string's content from the edited list of words
-		for (Character c : chars) {
-			content += c;
+		StringBuilder content = new StringBuilder(chars.size());          //rebuild the string's content from the edited list of words
+		for (char c : chars) {
+			content.append(c);
 		}
-		content = content.trim();  //remove any trailing space
-		return content;
+		trim(content);  //remove any trailing space
+		return content.toString();
+	}
+
+	/**
+	 * Returns whether a Caption has empty or placeholder content.
+	 * @param caption The Caption to be analyzed
+	 * @return A boolean
+	 */
+	static boolean isEmptyCaption(Caption caption) {
+		String content = caption.getContent();
+		return content.equals(EMPTY_PLACEHOLDER) || content.equals("");
+	}
+
+	/**
+	 * Removes empty captions from a List of Captions and runs a Pipeline over the rest, as main() does, without console output.
+	 * @param captions The List of Captions to be processed
+	 * @param pipeline The Pipeline to be run; it is reset first
+	 * @return The new List of processed Captions
+	 */
+	public static List<Caption> process(List<Caption> captions, Pipeline pipeline) {
+		List<Caption> newCaptions = nonEmptyCaptions(captions);
+		pipeline.run(newCaptions);
+		return newCaptions;
+	}
+
+	/**
+	 * Removes empty captions from a List of Captions and runs a ParallelPipeline over the rest, without console output.
+	 * The result is identical to process(captions, pipeline) with a Pipeline of the same stages.
+	 * @param captions The List of Captions to be processed
+	 * @param pipeline The ParallelPipeline to be run
+	 * @return The new List of processed Captions
+	 */
+	public static List<Caption> process(List<Caption> captions, ParallelPipeline pipeline) {
+		List<Caption> newCaptions = nonEmptyCaptions(captions);
+		pipeline.run(newCaptions);
+		return newCaptions;
+	}
+
+	/**
+	 * Reads, processes and writes a captions file as a Flow (CaptionPublisher, then PipelineProcessor, then CaptionSink), so parsing,
+	 * editing and writing overlap and only a few buffers' worth of captions are held at once, without console output.
+	 * The output is the same as reading the whole file, running process() over it and writing the result in the file's own encoding and format.
+	 * @param input The captions file to be read
+	 * @param output The captions file to be written
+	 * @param pipeline The Pipeline to be run; it is reset first
+	 * @param bufferCapacity The most captions buffered between any two steps
+	 * @return The number of captions written
+	 * @throws IOException If either file can't be read or written
+	 */
+	public static int processStreaming(Path input, Path output, Pipeline pipeline, int bufferCapacity) throws IOException {
+		return processStreaming(input, output, null, pipeline, bufferCapacity);
+	}
+
+	/**
+	 * As processStreaming(input, output, pipeline, bufferCapacity), but writes the output in a specified format, transcoding the file
+	 * as it's processed.
+	 * @param format The format to be written, or null for the format of the input
+	 */
+	public static int processStreaming(Path input, Path output, CaptionFormat format, Pipeline pipeline, int bufferCapacity) throws IOException {
+		ByteBuffer bytes = MappedCaptionReader.map(input);
+		CaptionEncoding encoding = CaptionEncoding.detect(bytes);
+		CaptionFormat inputFormat = CaptionFormat.detect(bytes, encoding);
+		CaptionSink sink = new CaptionSink(CaptionWriter.open(output, encoding, (format != null) ? format : inputFormat), bufferCapacity);
+		PipelineProcessor transform = new PipelineProcessor(pipeline, ForkJoinPool.commonPool(), bufferCapacity);
+		transform.subscribe(sink);
+		try (CaptionPublisher source = new CaptionPublisher(ForkJoinPool.commonPool(), bufferCapacity)) {
+			source.subscribe(transform);
+			try {
+				MappedCaptionReader.read(bytes, encoding, inputFormat, source::submit);
+			} catch (RuntimeException re) {
+				source.closeExceptionally(re);
+			}
+		}
+		try {
+			return sink.getCompletion().join();
+		} catch (CompletionException ce) {
+			if (ce.getCause() instanceof IOException ioe) {
+				throw ioe;
+			}
+			throw ce;
+		}
+	}
+
+	/**
+	 * Returns a new List of the Captions that don't have empty or placeholder content, without console output.
+	 * @param captions The List of Captions to be analyzed
+	 * @return The new List of Captions
+	 */
+	static List<Caption> nonEmptyCaptions(List<Caption> captions) {
+		List<Caption> newCaptions = new ArrayList<>(captions.size());
+		for (Caption caption : captions) {
+			if (!isEmptyCaption(caption)) {
+				newCaptions.add(caption);
+			}
+		}
+		return newCaptions;
 	}
 
 	/**
@@ -131,8 +271,7 @@ public class CaptionsProcessor {
 			newCaptions.add(caption);
 		}
 		for (Caption caption : captions) {
-			String content = caption.getContent();
-			if (content.equals(EMPTY_PLACEHOLDER) || content.equals("")) {
+			if (isEmptyCaption(caption)) {
 				newCaptions.remove(caption);
 				captionsRemoved++;
 			}
@@ -143,7 +282,7 @@ public class CaptionsProcessor {
 	}
 
 	/**
-	 * Runs the searchAndReplace method multiple times using a set of predetermined replacement operations stored in a double array.
+	 * Performs a set of predetermined replacement operations stored in a double array on all Caption content in a List.
 	 * Replacement double array second index 0 represents the target string, and second index 1 represents its replacement.
 	 * replacements[].length() should always be 2, but replacements.length can be as long as needed.
 	 * @param captions The List of Captions to be analyzed
@@ -151,17 +290,95 @@ public class CaptionsProcessor {
 	 * @return The total number of replacements performed
 	 */
 	private static int multipleReplace(List<Caption> captions, String[][] replacements) {
+		return multipleReplace(captions, new ReplacementMatcher(replacements), null);
+	}
+
+	/**
+	 * Applies every rule of a compiled ReplacementMatcher to all Caption content in a List, scanning each caption once.
+	 * Captions in which something was replaced get the same punctuation clean-up as in searchAndReplace().
+	 * @param captions The List of Captions to be analyzed
+	 * @param matcher The compiled replacement rules
+	 * @param ruleHits Per-rule replacement counts to be incremented, indexed like the replacement table; may be null
+	 * @return The total number of replacements performed
+	 */
+	static int multipleReplace(List<Caption> captions, ReplacementMatcher matcher, int[] ruleHits) {
+		if (ENABLE_CONSOLE_OUTPUT) System.out.print("Performing multiple content replacements... ");
 		int totalReplacements = 0;
-		System.out.print("Performing multiple content replacements... ");
-		REPLACE_CONSOLE_OUTPUT = false; //don't output to console for a replaceMultiple operation
-		for (String[] replacement : replacements) {
-			totalReplacements += searchAndReplace(captions, replacement[SEARCH], replacement[REPLACE]);
+		StringBuilder replaced = new StringBuilder();
+
+		for (Caption caption : captions) {
+			replaced.setLength(0);
+			int replacementsPerformed = matcher.replaceAll(caption.getContent(), replaced, ruleHits);
+			if (replacementsPerformed > 0) {
+				removeSpacesBeforePunctuation(replaced);
+				caption.setContent(replaced.toString().trim());
+				totalReplacements += replacementsPerformed;
+			}
 		}
-		System.out.println(totalReplacements + " total replacements performed");
-		REPLACE_CONSOLE_OUTPUT = ENABLE_CONSOLE_OUTPUT; //return the field to its original value
+
+		if (ENABLE_CONSOLE_OUTPUT) System.out.println(totalReplacements + " total replacements performed");
 		return totalReplacements;
 	}
 
+	/**
+	 * Removes each space or comma that directly precedes a period or question mark, in place.
+	 * Equivalent to the clean-up searchAndReplace() performs after a replacement.
+	 * @param content The content to be cleaned up
+	 * @return The number of characters removed
+	 */
+	static int removeSpacesBeforePunctuation(StringBuilder content) {
+		int length = content.length();
+		int kept = 0;  //compacted length so far
+		for (int i = 0; i < length; i++) {
+			char c = content.charAt(i);
+			if ((c == '.' || c == '?') && kept > 0) {
+				char previous = content.charAt(kept - 1);  //always the character just before this one
+				if (previous == ' ' || previous == ',') {
+					kept--;
+				}
+			}
+			content.setCharAt(kept++, c);
+		}
+		content.setLength(kept);
+		return length - kept;
+	}
+
+	/**
+	 * Removes whitespace from both ends of content in place, the same way String.trim() does.
+	 * @param content The content to be trimmed
+	 * @return Whether anything was removed
+	 */
+	static boolean trim(StringBuilder content) {
+		int length = content.length();
+		int end = length;
+		while (end > 0 && content.charAt(end - 1) <= ' ') {
+			end--;
+		}
+		int start = 0;
+		while (start < end && content.charAt(start) <= ' ') {
+			start++;
+		}
+		if (start == 0 && end == length) {
+			return false;
+		}
+		content.setLength(end);
+		content.delete(0, start);
+		return true;
+	}
+
+	/**
+	 * Runs a single Stage over every Caption in a List and prints its console summary.
+	 * @param captions The List of Captions to be processed
+	 * @param stage The Stage to be run
+	 * @return The number of edits the Stage performed
+	 */
+	static int runStage(List<Caption> captions, Stage stage) {
+		Pipeline pipeline = new Pipeline(stage);
+		pipeline.run(captions);
+		if (ENABLE_CONSOLE_OUTPUT) pipeline.printSummary();
+		return pipeline.getCount(0);
+	}
+
 	/**
 	 * Searches all Caption content in a specified List for a specified String (case-insensitively) and replaces each instance with another String.
 	 * @param captions The list of captions to be used
@@ -170,10 +387,11 @@ public class CaptionsProcessor {
 	 * @return The number of successful replacements performed (inaccurate; also counts punctuation clean-ups)
 	 */
 	//TODO: see above. make them two separate unchanged/changed loops
-	private static int searchAndReplace(List<Caption> captions, String search, String replace) {
-		if (REPLACE_CONSOLE_OUTPUT) System.out.print("Replacing \"" + search + "\" with \"" + replace + "\"... ");
+	static int searchAndReplace(List<Caption> captions, String search, String replace) {
+		if (ENABLE_CONSOLE_OUTPUT) System.out.print("Replacing \"" + search + "\" with \"" + replace + "\"... ");
 		int replacementsPerformed = 0;
 		String target = "(?i)" + search;
+		StringBuilder cleaned = new StringBuilder();
 
 		for (Caption caption : captions) {
 			String originalContent = caption.getContent();
@@ -184,70 +402,31 @@ public class CaptionsProcessor {
 				replaced = replaced.replaceFirst(target, replace); //try it again
 				replacementsPerformed++;    //and note that something got replaced
 
-				caption.setContent(replaced);  //get rid of trailing commas and spaces
-				List<Character> chars = caption.toChars();
-				for (int i = 0; i < chars.size() - 1; i++) {
-					char thisChar = chars.get(i);
-					char nextChar = chars.get(i + 1);  //if there is an extra space/comma where there shouldn't be, remove it
-					if ((thisChar == ' ' || thisChar == ',') && ((nextChar == '.') || (nextChar == '?'))) {
-						chars.remove(i);
-					}
-				}
-				replaced = charsToContent(chars);
+				cleaned.setLength(0);  //get rid of trailing commas and spaces
+				cleaned.append(replaced);
+				removeSpacesBeforePunctuation(cleaned);
+				trim(cleaned);
+				replaced = cleaned.toString();
 			}
 
 			caption.setContent(replaced);
 		}
 
-		if (REPLACE_CONSOLE_OUTPUT) System.out.println(replacementsPerformed + " replacements performed");
+		if (ENABLE_CONSOLE_OUTPUT) System.out.println(replacementsPerformed + " replacements performed");
 		return replacementsPerformed;
 	}
 
 	/**
-	 * Removes duplicate words, case- and plural-insensitively, from the content of a List of Captions.
+	 * Removes duplicate words, case- and plural-insensitively, from the content of a List of Captions, including a word repeated
+	 * across a caption break. See Stages.RemoveDuplicateWords and Stages.RemoveDuplicateWordsAcrossCaptions.
 	 * @param captions The List of Captions to be analyzed
 	 * @return The number of duplicate words removed
 	 */
-	//FIXME: not replacing words at all
-	private static int removeDuplicateWords(List<Caption> captions) {
-		if (ENABLE_CONSOLE_OUTPUT) System.out.print("Removing duplicate words... ");
-		int duplicatesRemoved = 0;
-
-		for (Caption caption : captions) {
-			List<String> words = caption.toWords();
-			for (int i = 0; i < words.size() - 1; i++) {
-				String thisWord = words.get(i);
-				String nextWord = words.get(i + 1);
-				if (nextWord.length() > 2) {
-					String lastChar = nextWord.substring(nextWord.length() - 1); //contains only the last character of the word
-					String lastTwoChars = nextWord.substring(nextWord.length() - 2); //contains last two chars
-					boolean endsWithNewline = lastTwoChars.equals("\n");
-					if (endsWithNewline) {
-						nextWord = nextWord.substring(0, nextWord.length() - 3); //chop off the last two
-					}
-					boolean endsWithPunctuation = lastChar.equals(".") || lastChar.equals(",") || lastChar.equals("?");
-					if (endsWithPunctuation) {
-						nextWord = nextWord.substring(0, nextWord.length() - 2); //chop off the last char
-					}
-					//				String thisWordPlural = thisWord + "s";
-					//				String thisWordPeriod = thisWord + ".";
-					//				String thisWordQuestion = thisWord + "?";
-					//				String thisWordComma = thisWord + "\n";
-					//				String nextWord = words.get(i + 1);
-					//				boolean sameWord = (thisWord.equalsIgnoreCase(nextWord) || thisWordPlural.equalsIgnoreCase(nextWord) || thisWordPeriod.equalsIgnoreCase(nextWord) || thisWordQuestion.equalsIgnoreCase(nextWord) || thisWordComma.equalsIgnoreCase(nextWord));
-					boolean sameWord = thisWord.equalsIgnoreCase(nextWord);
-					if (sameWord && (!thisWord.equalsIgnoreCase("that")) && (!thisWord.equalsIgnoreCase("had"))) {
-						words.remove(i);  //if this word (or its plural) equals the next word, and the word isn't "that" or "had", remove it
-						duplicatesRemoved++;
-					}
-				}
-			}
-			String newContent = wordsToContent(words);
-			caption.setContent(newContent);
-		}
-
-		if (ENABLE_CONSOLE_OUTPUT) System.out.println(duplicatesRemoved + " duplicates removed");
-		return duplicatesRemoved;
+	static int removeDuplicateWords(List<Caption> captions) {
+		Pipeline pipeline = new Pipeline(new Stages.RemoveDuplicateWords(), new Stages.RemoveDuplicateWordsAcrossCaptions());
+		pipeline.run(captions);
+		if (ENABLE_CONSOLE_OUTPUT) pipeline.printSummary();
+		return pipeline.getCount(0) + pipeline.getCount(1);
 	}
 
 	/**
@@ -255,28 +434,8 @@ public class CaptionsProcessor {
 	 * @param captions List of Captions to be analyzed
 	 * @return The total number of excess spaces removed from all captions 
 	 */
-	private static int removeMultipleSpaces(List<Caption> captions) {
-		if (ENABLE_CONSOLE_OUTPUT) System.out.print("Removing multiple spaces... ");
-		int spacesRemoved = 0;
-
-		for (Caption caption : captions) {
-			List<Character> chars = caption.toChars();
-			List<Integer> queuedForRemoval = new LinkedList<Integer>();   
-			for (int i = 0; i < chars.size() - 1; i++) {
-				if (chars.get(i) == ' ' && chars.get(i + 1) == ' ') { //if this and the next character are spaces
-					queuedForRemoval.add(i);   //queue the current index for removal
-					spacesRemoved++;
-				}
-			}
-			for (int i = queuedForRemoval.size() - 1; i >= 0; i--) {  //remove all queued indexes, highest first
-				chars.remove((int) queuedForRemoval.get(i));
-			}
-			String newContent = charsToContent(chars); //write new content string
-			caption.setContent(newContent);  //update caption contents
-		}
-
-		if (ENABLE_CONSOLE_OUTPUT) System.out.println(spacesRemoved + " extra spaces removed");
-		return spacesRemoved;
+	static int removeMultipleSpaces(List<Caption> captions) {
+		return runStage(captions, new Stages.RemoveMultipleSpaces());
 	}
 
 	/**
@@ -284,21 +443,8 @@ public class CaptionsProcessor {
 	 * @param captions The List of Captions to be analyzed
 	 * @return The total number of successful trim actions performed
 	 */
-	private static int trimTrailingSpaces(List<Caption> captions) {
-		if (ENABLE_CONSOLE_OUTPUT) System.out.print("Removing trailing spaces... ");
-		int spacesRemoved = 0;
-
-		for (Caption caption : captions) {
-			String originalContent = caption.getContent();
-			String newContent = originalContent.trim();
-			if (!originalContent.equals(newContent)) {
-				spacesRemoved++;
-			}
-			caption.setContent(newContent);
-		}
-
-		if (ENABLE_CONSOLE_OUTPUT) System.out.println(spacesRemoved + " successful trims performed");
-		return spacesRemoved;
+	static int trimTrailingSpaces(List<Caption> captions) {
+		return runStage(captions, new Stages.TrimTrailingSpaces());
 	}
 
 	/**
@@ -306,25 +452,8 @@ public class CaptionsProcessor {
 	 * @param The List of Captions to be analyzed
 	 * @return The number of decapitalizations performed, including words that were already all lowercase
 	 */
-	private static int decapitalize(List<Caption> captions) {
-		if (ENABLE_CONSOLE_OUTPUT) System.out.print("Decapitalizing unecessary words... ");
-		int decapitalizationsPerformed = 0;
-
-		for (Caption caption : captions) {
-			List<String> words = caption.toWords();
-			List<String> newWords = new LinkedList<>();
-			for (String word : words) {  //for each word in the current caption's content,
-				if (!(Caption.isAllCaps(word) || word.equals("I") || word.equals("I'll"))) {  //if the word isn't in all caps (an acronym), or the word "I" or "I'll"
-					newWords.add(Caption.decapitalize(word));  //make all the letters lowercase
-					decapitalizationsPerformed++;
-				}
-			}
-			String newContent = wordsToContent(newWords);          //rebuild the string's content from the edited list of words
-			caption.setContent(newContent);   //update the caption's content
-		}
-
-		if (ENABLE_CONSOLE_OUTPUT) System.out.println(decapitalizationsPerformed + " decapitalizations performed");
-		return decapitalizationsPerformed;
+	static int decapitalize(List<Caption> captions) {
+		return runStage(captions, new Stages.Decapitalize());
 	}
 
 	/**
@@ -332,45 +461,8 @@ public class CaptionsProcessor {
 	 * @param captions The List of Captions to be analyzed
 	 * @return the total number of capitalizations performed in all captions
 	 */
-	private static int capitalizeFirstLetters(List<Caption> captions) {
-		if (ENABLE_CONSOLE_OUTPUT) System.out.print("Auto-capitalizing sentences... ");
-		int capitalizationsPerformed = 0;
-		boolean firstCaption = true;
-		boolean nextShouldCapitalize = false;
-
-		for (Caption caption : captions) {
-			List<Character> chars = caption.toChars();  //chars stores caption content as individual characters
-			if ((chars.size() != 0 && nextShouldCapitalize) || firstCaption) {  //if we're sure it's supposed to be a new sentence, or it's the first caption of the file:
-				char upper = Character.toUpperCase(chars.get(FIRST_CHARACTER));  //capitalize the first character
-				chars.remove(FIRST_CHARACTER);
-				chars.add(0, upper);
-				capitalizationsPerformed++;
-			}
-			for (int i = 0; i < chars.size() - 1; i++) {
-				if (chars.get(i) == '.' && chars.get(i + 1) == ' ') { //if this character is a period and the next character is a space,
-					if (i + 2 < chars.size()) {    //and the character after that exists,
-						char upper = Character.toUpperCase(chars.get(i + 2));
-						chars.remove(i + 2);    //replace the character after that with the corresponding capitalized character
-						chars.add(i + 2, upper);
-						capitalizationsPerformed++;
-					}
-				}
-			}
-			String newContent = charsToContent(chars);
-			if (newContent.length() > 0) {
-				String lastCharacter = newContent.substring(newContent.length() - 1);
-				if (lastCharacter.equals(".") || lastCharacter.equals("?")) {
-					nextShouldCapitalize = true;
-				}
-				else nextShouldCapitalize = false;
-			}
-
-			caption.setContent(newContent);  //update caption contents
-			firstCaption = false;
-		}
-
-		if (ENABLE_CONSOLE_OUTPUT) System.out.println(capitalizationsPerformed + " capitalizations performed");
-		return capitalizationsPerformed;
+	static int capitalizeFirstLetters(List<Caption> captions) {
+		return runStage(captions, new Stages.CapitalizeFirstLetters());
 	}
 
 	/**
@@ -389,36 +481,23 @@ public class CaptionsProcessor {
 	}
 
 
-	public static void main(String[] args) {
+	/**
+	 * Processes a captions file chosen and saved through dialogs, or given any arguments, runs HeadlessProcessor.main() with them instead,
+	 * without loading any Swing classes.
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length > 0) {
+			HeadlessProcessor.main(args);
+			return;
+		}
 		//file selection and parsing
 		Path file = InputHandler.chooseFile();
-		List<String> lines = fileToList(file);
-		List<Caption> captions = listToCaptions(lines);
+		List<Caption> captions = readCaptions(file);
 		//edits performed
-		String[][] replacements = {
-				{"you know", ""},
-				{"peer to peer", "peer-to-peer"},
-				{"client server", "client-server"},
-				{"actually", ""},
-				{"basically", ""},
-				{"really", ""},
-				{"i mean", ""},
-				{"and and", "and"},
-				{"then then", "then"},
-				{"so so ", "so "},
-				{" so so", " so"},
-				{"TCP IP", "TCP-IP"},
-				{"adopt", "adapt"},
-				{"zoom", "Zoom"},
-				{"washoe", "WashU"}
-		};
 		captions = removeEmptyCaptions(captions);
-		multipleReplace(captions, replacements);
-		removeDuplicateWords(captions);
-		removeMultipleSpaces(captions);
-		trimTrailingSpaces(captions);
-		decapitalize(captions);
-		capitalizeFirstLetters(captions);
+		Pipeline pipeline = Pipeline.standard(new ReplacementMatcher(DEFAULT_REPLACEMENTS));
+		pipeline.run(captions);
+		if (ENABLE_CONSOLE_OUTPUT) pipeline.printSummary();
 		//output handled
 		if (InputHandler.userConfirm("Console preview", "Post caption preview to console?")) {
 			printCaptions(captions);
@@ -0,0 +1,78 @@
+package captionsprocessor;
+
+/**
+ * The character-by-character part of CaptionFeatures.scan(), over content copied into a char array. VectorKernels checks many
+ * characters per instruction with the incubating Vector API; it's used when it was compiled (see the vector/ source folder) and the
+ * JVM was started with --add-modules jdk.incubator.vector on hardware with vector registers. Otherwise the scalar loop here is used.
+ */
+abstract class CharKernels {
+
+	private static final CharKernels INSTANCE = load();
+
+	/**
+	 * Returns the kernels this JVM supports best.
+	 * @return The kernels
+	 */
+	static CharKernels get() {
+		return INSTANCE;
+	}
+
+	private static CharKernels load() {
+		if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+			try {
+				return (CharKernels) Class.forName("captionsprocessor.VectorKernels").getDeclaredConstructor().newInstance();
+			} catch (ReflectiveOperationException | LinkageError | UnsupportedOperationException e) {  //not compiled, or no usable vector shape
+			}
+		}
+		return new Scalar();
+	}
+
+	/**
+	 * Returns a name for the kernels, for reports.
+	 * @return The name
+	 */
+	abstract String getName();
+
+	/**
+	 * Scans ASCII content for the CaptionFeatures DOUBLE_SPACE, SENTENCE_END and UPPERCASE.
+	 * @param chars The content
+	 * @param from The index of the first character
+	 * @param to The index after the last character
+	 * @return The flags found, or -1 if the content has a character outside ASCII, which the caller must scan itself
+	 */
+	abstract int scan(char[] chars, int from, int to);
+
+	/**
+	 * Scans ASCII content a character at a time, as scan() does.
+	 */
+	static int scanEach(char[] chars, int from, int to) {
+		char previous = chars[from];
+		if (previous >= 128) {
+			return -1;
+		}
+		int features = (previous >= 'A' && previous <= 'Z') ? CaptionFeatures.UPPERCASE : 0;
+		for (int i = from + 1; i < to; i++) {
+			char c = chars[i];
+			if (c >= 128) {
+				return -1;
+			}
+			features |= CaptionFeatures.asciiPairFeatures(previous, c);
+			previous = c;
+		}
+		return features;
+	}
+
+	private static final class Scalar extends CharKernels {
+
+		@Override
+		String getName() {
+			return "scalar";
+		}
+
+		@Override
+		int scan(char[] chars, int from, int to) {
+			return scanEach(chars, from, to);
+		}
+	}
+
+}
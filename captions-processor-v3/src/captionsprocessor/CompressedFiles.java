@@ -0,0 +1,146 @@
+package captionsprocessor;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Reads captions files into buffers, and reads and writes gzip-compressed ones (.srt.gz, .vtt.gz) in memory, so a compressed file is decompressed straight into the
+ * buffer the caption parser reads from, and a result is compressed on its way to disk, without an uncompressed copy ever being stored.
+ * Zip archives are read and written entry by entry by BatchProcessor.processArchive().
+ */
+final class CompressedFiles {
+
+	static final String GZIP_EXTENSION = ".gz";
+	static final String ZIP_EXTENSION = ".zip";
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final long MAP_THRESHOLD = 1024 * 1024;  //bytes
+	private static final int ZIP_SIGNATURE_LENGTH = 4;
+
+	private CompressedFiles() {
+	}
+
+	/**
+	 * Returns whether a file is gzip-compressed, going by its extension.
+	 * @param path The file
+	 * @return A boolean
+	 */
+	static boolean isGzip(Path path) {
+		return hasExtension(path.getFileName().toString(), GZIP_EXTENSION);
+	}
+
+	/**
+	 * Returns whether a file is a zip archive, going by its extension.
+	 * @param path The file
+	 * @return A boolean
+	 */
+	static boolean isZip(Path path) {
+		return hasExtension(path.getFileName().toString(), ZIP_EXTENSION);
+	}
+
+	static boolean hasExtension(String name, String extension) {
+		return name.toLowerCase(Locale.ROOT).endsWith(extension);
+	}
+
+	/**
+	 * Removes an extension from the end of a file name, if it's there.
+	 * @param name The file name
+	 * @param extension The extension, including its period
+	 * @return The name without the extension
+	 */
+	static String stripExtension(String name, String extension) {
+		return hasExtension(name, extension) ? name.substring(0, name.length() - extension.length()) : name;
+	}
+
+	/**
+	 * Returns the contents of a captions file: decompressed into memory if it's gzip-compressed, memory-mapped if it's large, and read
+	 * into memory otherwise, since mapping a short file costs more than copying it (a first mapping also loads many JDK classes).
+	 * @param path The file to be read
+	 * @return A buffer over the file's (uncompressed) bytes
+	 * @throws IOException If the file can't be read, isn't valid gzip data, or is over 2 GB uncompressed
+	 */
+	static ByteBuffer read(Path path) throws IOException {
+		if (!isGzip(path)) {
+			return (Files.size(path) < MAP_THRESHOLD) ? ByteBuffer.wrap(Files.readAllBytes(path)) : MappedCaptionReader.map(path);
+		}
+		try (InputStream in = new GZIPInputStream(Files.newInputStream(path), BUFFER_SIZE)) {
+			return ByteBuffer.wrap(in.readAllBytes());
+		}
+	}
+
+	/**
+	 * Opens a zip archive to be read an entry at a time. ZipInputStream finds no entries in a file that isn't a zip archive at all,
+	 * so the file is checked to start with a local file header, or the end record of an empty archive, first.
+	 * @param path The archive
+	 * @return The ZipInputStream, positioned before the first entry
+	 * @throws IOException If the file can't be read, or isn't a zip archive
+	 */
+	static ZipInputStream openZip(Path path) throws IOException {
+		InputStream in = new BufferedInputStream(Files.newInputStream(path), BUFFER_SIZE);
+		try {
+			in.mark(ZIP_SIGNATURE_LENGTH);
+			byte[] signature = in.readNBytes(ZIP_SIGNATURE_LENGTH);
+			in.reset();
+			boolean valid = signature.length == ZIP_SIGNATURE_LENGTH && signature[0] == 'P' && signature[1] == 'K'
+					&& ((signature[2] == 3 && signature[3] == 4) || (signature[2] == 5 && signature[3] == 6));
+			if (!valid) {
+				throw new ZipException("Not a zip archive: " + path);
+			}
+			return new ZipInputStream(in);
+		} catch (IOException ioe) {
+			in.close();
+			throw ioe;
+		}
+	}
+
+	/**
+	 * Replaces a file with the contents of a buffer, gzip-compressed if the file's name ends in .gz. See AtomicFiles.write().
+	 * @param target The file to be replaced or created
+	 * @param bytes The new (uncompressed) contents, from position to limit
+	 * @throws IOException If the file can't be written; the target is then left as it was
+	 */
+	static void write(Path target, ByteBuffer bytes) throws IOException {
+		if (!isGzip(target)) {
+			AtomicFiles.write(target, bytes, false);
+			return;
+		}
+		Path temp = AtomicFiles.createTempSibling(target);
+		try {
+			try (OutputStream out = new GZIPOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), BUFFER_SIZE), BUFFER_SIZE)) {
+				write(bytes, out);
+			}
+			AtomicFiles.moveIntoPlace(temp, target);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	/**
+	 * Writes a buffer's remaining bytes to a stream, without copying them to an array first when the buffer has one.
+	 * @param bytes The bytes to be written, from position to limit; the position is moved to the limit
+	 * @param out The stream
+	 * @throws IOException If the stream can't be written
+	 */
+	static void write(ByteBuffer bytes, OutputStream out) throws IOException {
+		if (bytes.hasArray()) {
+			out.write(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+			bytes.position(bytes.limit());
+		}
+		else {
+			Channels.newChannel(out).write(bytes);
+		}
+	}
+
+}
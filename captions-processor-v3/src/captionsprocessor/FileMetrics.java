@@ -0,0 +1,34 @@
+package captionsprocessor;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * What processing one captions file took: bytes read and written, captions in and out, wall time, an estimate of the bytes allocated
+ * by the thread that handled it, and the metrics of each Pipeline stage. The input and output are null for captions that weren't read from
+ * or written to a file, such as an upload to CaptionServer.
+ */
+public record FileMetrics(Path input, Path output, String encoding, long bytesIn, long bytesOut, int captionsIn, int captionsOut,
+		long nanos, long bytesAllocated, List<StageMetrics> stages) {
+
+	public FileMetrics {
+		stages = List.copyOf(stages);
+	}
+
+	/**
+	 * Returns these metrics as a JSON object.
+	 * @return The JSON text
+	 */
+	public String toJson() {
+		return "{\"input\":" + Json.quote(pathName(input)) + ",\"output\":" + Json.quote(pathName(output)) + ",\"encoding\":" + Json.quote(encoding)
+				+ ",\"bytesIn\":" + bytesIn + ",\"bytesOut\":" + bytesOut + ",\"captionsIn\":" + captionsIn + ",\"captionsOut\":" + captionsOut
+				+ ",\"nanos\":" + nanos + ",\"bytesAllocated\":" + bytesAllocated
+				+ ",\"stages\":[" + stages.stream().map(StageMetrics::toJson).collect(Collectors.joining(",")) + "]}";
+	}
+
+	static String pathName(Path path) {
+		return (path == null) ? null : path.toString();
+	}
+
+}
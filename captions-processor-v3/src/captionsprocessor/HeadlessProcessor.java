@@ -0,0 +1,166 @@
+package captionsprocessor;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A fast-starting command line entry point that processes one captions file with the edits of CaptionsProcessor.main(), for shell
+ * scripts that run once per file. Unlike CaptionsProcessor.main() it never touches InputHandler, so no Swing or AWT classes are loaded,
+ * and it skips what only pays off over many files: no worker pool, metrics, Flight Recorder events or cache.
+ * <p>
+ * Usage: HeadlessProcessor [--format srt|vtt] [--rules FILE] [--stop-words WORD,...] [--vocabulary FILE [--max-distance N]] INPUT [OUTPUT]
+ * <br>The result is written to OUTPUT, replaced atomically, or to standard output without one. INPUT may be gzip-compressed, and
+ * OUTPUT is compressed if its name ends in .gz. The output format is INPUT's unless --format gives it.
+ * <p>
+ * Usage: HeadlessProcessor --train [--rules FILE] [--vocabulary FILE]
+ * <br>Processes a small built-in sample in every supported form (SubRip, WebVTT, gzipped, UTF-16), so that a run under
+ * -XX:ArchiveClassesAtExit=FILE records every class an ordinary run needs in an application class-data sharing (AppCDS) archive.
+ * Later runs started with -XX:SharedArchiveFile=FILE map those classes already parsed and verified instead of loading them from bin/.
+ * The archive must be recreated whenever the classes or the JDK change; the JVM ignores a stale one, with a warning.
+ */
+public final class HeadlessProcessor {
+
+	private static final String TRAINING_SAMPLE = String.join("\n",
+			"1",
+			"00:00:00,000 --> 00:00:02,500",
+			"um so so today we we we're going to talk about  peer to peer networks",
+			"",
+			"2",
+			"00:00:02,500 --> 00:00:04,000",
+			"",
+			"",
+			"3",
+			"00:00:04,000 --> 00:00:06,250",
+			"networks.   you know, the client server model is basically   TCP IP ",
+			"",
+			"4",
+			"00:00:06,250 --> 00:00:09,000",
+			"that that is what what I mean, i mean on zoom \u00e9t\u00e9",
+			"");
+
+	private HeadlessProcessor() {
+	}
+
+	/**
+	 * Reads, processes and encodes a captions file in the same encoding.
+	 * @param input The captions file, gzip-compressed if its name ends in .gz
+	 * @param format The format to be written, or null for the input's
+	 * @param pipeline The Pipeline to be run
+	 * @return The encoded result
+	 * @throws IOException If the file can't be read
+	 */
+	static ByteBuffer process(Path input, CaptionFormat format, Pipeline pipeline) throws IOException {
+		ByteBuffer bytes = CompressedFiles.read(input);
+		CaptionEncoding encoding = CaptionEncoding.detect(bytes);
+		CaptionFormat inputFormat = CaptionFormat.detect(bytes, encoding);
+		CaptionStore store = new CaptionStore();
+		MappedCaptionReader.read(bytes, encoding, inputFormat, store::add);
+		store.removeEmptyCaptions();
+		store.run(pipeline);
+		return CaptionWriter.encode(store, encoding, (format != null) ? format : inputFormat);
+	}
+
+	/**
+	 * Runs process() over the training sample in each supported form, writing the results to a temporary directory that is then deleted.
+	 * @param pipeline The Pipeline to be run
+	 * @return The number of files processed
+	 * @throws IOException If the temporary files can't be written
+	 */
+	static int train(Pipeline pipeline) throws IOException {
+		Path directory = Files.createTempDirectory("captions-training");
+		try {
+			List<Path> inputs = new ArrayList<>();
+			Path srt = directory.resolve("sample.srt");
+			Files.writeString(srt, TRAINING_SAMPLE, StandardCharsets.UTF_8);
+			inputs.add(srt);
+			Path utf16 = directory.resolve("sample-utf16.srt");
+			CompressedFiles.write(utf16, CaptionWriter.encode(CaptionsProcessor.readCaptions(srt), new CaptionEncoding(StandardCharsets.UTF_16LE, true)));
+			inputs.add(utf16);
+			for (CaptionFormat format : List.of(CaptionFormat.SRT, CaptionFormat.WEBVTT)) {
+				Path target = directory.resolve("sample-processed" + format.getExtension() + CompressedFiles.GZIP_EXTENSION);
+				CompressedFiles.write(target, process(srt, format, pipeline));
+				inputs.add(target);
+			}
+			for (Path input : inputs) {
+				CompressedFiles.write(directory.resolve("out-" + input.getFileName()), process(input, null, pipeline));
+			}
+			return inputs.size();
+		} finally {
+			try (Stream<Path> files = Files.walk(directory)) {
+				for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+					Files.deleteIfExists(file);
+				}
+			}
+		}
+	}
+
+	private static void printUsage() {
+		System.err.println("Usage: HeadlessProcessor [--format srt|vtt] [--rules FILE] [--stop-words WORD,...] [--vocabulary FILE [--max-distance N]] INPUT [OUTPUT]");
+		System.err.println("       HeadlessProcessor --train [--rules FILE] [--vocabulary FILE]");
+	}
+
+	public static void main(String[] args) throws IOException {
+		CaptionFormat format = null;
+		Path rulesFile = null;
+		Set<String> stopWords = Stages.DEFAULT_STOP_WORDS;
+		Path vocabularyFile = null;
+		int maxDistance = Vocabulary.DEFAULT_MAX_DISTANCE;
+		boolean training = false;
+		List<String> positional = new ArrayList<>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("--format") && i + 1 < args.length) {
+				format = CaptionFormat.forName(args[++i]);
+			}
+			else if (args[i].equals("--rules") && i + 1 < args.length) {
+				rulesFile = Path.of(args[++i]);
+			}
+			else if (args[i].equals("--stop-words") && i + 1 < args.length) {
+				stopWords = Stream.of(args[++i].split(",")).map(String::trim).filter(word -> !word.isEmpty()).collect(Collectors.toSet());
+			}
+			else if (args[i].equals("--vocabulary") && i + 1 < args.length) {
+				vocabularyFile = Path.of(args[++i]);
+			}
+			else if (args[i].equals("--max-distance") && i + 1 < args.length) {
+				maxDistance = Integer.parseInt(args[++i]);
+			}
+			else if (args[i].equals("--train")) {
+				training = true;
+			}
+			else {
+				positional.add(args[i]);
+			}
+		}
+		if (training ? !positional.isEmpty() : (positional.isEmpty() || positional.size() > 2)) {
+			printUsage();
+			System.exit(2);
+		}
+		ReplacementMatcher matcher = (rulesFile == null) ? new ReplacementMatcher(CaptionsProcessor.DEFAULT_REPLACEMENTS)
+				: RuleSet.loadMatcher(rulesFile, RuleSet.snapshotPath(rulesFile));
+		Vocabulary vocabulary = (vocabularyFile == null) ? null : Vocabulary.read(vocabularyFile, maxDistance);
+		Pipeline pipeline = Pipeline.standard(matcher, stopWords, vocabulary);
+		if (training) {
+			System.out.println("Training run: " + train(pipeline) + " sample files processed");
+			return;
+		}
+		ByteBuffer result = process(Path.of(positional.get(0)), format, pipeline);
+		if (positional.size() == 2) {
+			CompressedFiles.write(Path.of(positional.get(1)), result);
+		}
+		else {
+			PrintStream out = System.out;
+			CompressedFiles.write(result, out);
+			out.flush();
+		}
+	}
+
+}
@@ -4,9 +4,7 @@ import java.io.*;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
-import java.nio.charset.Charset;
 import java.nio.file.*;
-import java.util.ArrayList;
 import java.util.List;
 
 import javax.swing.JFileChooser;
@@ -18,7 +16,6 @@ public class InputHandler {
 	private static final Path WORKING_PATH = Path.of(WORKING_DIR);
 	private static final Path CAPTION_FOLDER_PATH = Paths.get(WORKING_PATH.toString() + "\\src\\captionfiles");
 	private static final File CAPTION_FOLDER_FILE = new File(WORKING_PATH.toString() + "\\src\\captionfiles");
-	private static final Charset CHARSET = Charset.forName("US-ASCII");
 	
 	/**
 	 * Helper method for chooseFile (deprecated).
@@ -67,22 +64,6 @@ public class InputHandler {
 		return null;
 	}
 	
-	/**
-	 * Writes a list of specified lines to a specified file.
-	 * @param lines The list of lines to be written, in order of transcription
-	 * @param file The path of the target file
-	 */
-	private static void writeLines(List<String> lines, Path file) {
-		try (BufferedWriter writer = Files.newBufferedWriter(file, CHARSET)) {
-		    for (String line : lines) {
-		    	writer.write(line + "\n");
-		    }
-		    writer.close();
-		} catch (IOException x) {
-		    System.err.format("IOException: %s%n", x);
-		}
-	}
-	
 	/**
 	 * Records String input from a dialog with a specified prompt. Continues query until input is provided or dialog is dismissed, in which case null is returned.
 	 * @param prompt The user prompt for text input
@@ -118,7 +99,7 @@ public class InputHandler {
 	}
 	
 	/**
-	 * Creates a new file and populates it with formatted captions.
+	 * Creates a new file and populates it with formatted captions, in WebVTT if the name ends in .vtt and SubRip otherwise.
 	 * @param captions The list of captions to be written to the new file
 	 * @param fileName The name of the caption file
 	 * @return The Path of the new (formatted) caption file
@@ -126,14 +107,11 @@ public class InputHandler {
 	protected static Path writeCaptionFile(List<Caption> captions, String fileName) {
 		Path path = newFile(fileName);
 		//populate the new file
-		List<String> lines = new ArrayList<>();
-		for (Caption caption : captions) {
-			lines.add(String.valueOf(caption.getNumber()));
-			lines.add(caption.getTiming());
-			lines.add(caption.getContent());
-			lines.add("");  //add emtpy breakline for formatting purposes
+		try {
+			CaptionWriter.write(captions, path, CaptionEncoding.UTF_8, CaptionFormat.forPath(path));
+		} catch (IOException x) {
+		    System.err.format("IOException: %s%n", x);
 		}
-		writeLines(lines, path);
 		return path;
 	}
 	
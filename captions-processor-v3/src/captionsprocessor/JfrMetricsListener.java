@@ -0,0 +1,129 @@
+package captionsprocessor;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Commits a JDK Flight Recorder event for each processed file and for each stage run over it, so a recording of a production batch
+ * (for example java -XX:StartFlightRecording=filename=batch.jfr ...) shows which stage is hot without any console output.
+ * Events are only built while a recording has them enabled.
+ */
+public class JfrMetricsListener implements MetricsListener {
+
+	@Name("captionsprocessor.File")
+	@Label("Captions File Processed")
+	@Category("Captions Processor")
+	@StackTrace(false)
+	static class FileEvent extends Event {
+		@Label("Input")
+		String input;
+
+		@Label("Output")
+		String output;
+
+		@Label("Encoding")
+		String encoding;
+
+		@Label("Bytes In")
+		@DataAmount
+		long bytesIn;
+
+		@Label("Bytes Out")
+		@DataAmount
+		long bytesOut;
+
+		@Label("Captions In")
+		int captionsIn;
+
+		@Label("Captions Out")
+		int captionsOut;
+
+		@Label("Processing Time")
+		@Timespan(Timespan.NANOSECONDS)
+		long processingTime;
+
+		@Label("Bytes Allocated")
+		@Description("Estimated allocation by the thread that processed the file, or -1 if unknown")
+		@DataAmount
+		long bytesAllocated;
+	}
+
+	@Name("captionsprocessor.Stage")
+	@Label("Captions Stage Run")
+	@Category("Captions Processor")
+	@StackTrace(false)
+	static class StageEvent extends Event {
+		@Label("Input")
+		String input;
+
+		@Label("Stage")
+		String stage;
+
+		@Label("Stage Time")
+		@Description("Time spent in the stage, summed over every caption of the file")
+		@Timespan(Timespan.NANOSECONDS)
+		long stageTime;
+
+		@Label("Captions")
+		int captions;
+
+		@Label("Captions Touched")
+		@Description("Captions the stage made at least one edit to")
+		int captionsTouched;
+
+		@Label("Edits")
+		int edits;
+
+		@Label("Characters In")
+		long charsIn;
+
+		@Label("Characters Out")
+		long charsOut;
+
+		@Label("Bytes Allocated")
+		@Description("Estimated allocation by the stage, or -1 if unknown")
+		@DataAmount
+		long bytesAllocated;
+	}
+
+	@Override
+	public void fileProcessed(FileMetrics metrics) {
+		String input = FileMetrics.pathName(metrics.input());
+		FileEvent file = new FileEvent();
+		if (file.isEnabled()) {
+			file.input = input;
+			file.output = FileMetrics.pathName(metrics.output());
+			file.encoding = metrics.encoding();
+			file.bytesIn = metrics.bytesIn();
+			file.bytesOut = metrics.bytesOut();
+			file.captionsIn = metrics.captionsIn();
+			file.captionsOut = metrics.captionsOut();
+			file.processingTime = metrics.nanos();
+			file.bytesAllocated = metrics.bytesAllocated();
+			file.commit();
+		}
+		for (StageMetrics stageMetrics : metrics.stages()) {
+			StageEvent stage = new StageEvent();
+			if (!stage.isEnabled()) {
+				break;
+			}
+			stage.input = input;
+			stage.stage = stageMetrics.stage();
+			stage.stageTime = stageMetrics.nanos();
+			stage.captions = stageMetrics.captions();
+			stage.captionsTouched = stageMetrics.captionsTouched();
+			stage.edits = stageMetrics.edits();
+			stage.charsIn = stageMetrics.charsIn();
+			stage.charsOut = stageMetrics.charsOut();
+			stage.bytesAllocated = stageMetrics.bytesAllocated();
+			stage.commit();
+		}
+	}
+
+}
@@ -0,0 +1,42 @@
+package captionsprocessor;
+
+/**
+ * Helpers for writing JSON by hand, for the few machine-readable outputs the processor produces.
+ */
+final class Json {
+
+	private Json() {
+	}
+
+	/**
+	 * Returns a String as a quoted JSON string, escaping quotes, backslashes and control characters.
+	 * @param string The String to be quoted, or null
+	 * @return The JSON string, or the JSON null if the String is null
+	 */
+	static String quote(String string) {
+		if (string == null) {
+			return "null";
+		}
+		StringBuilder quoted = new StringBuilder(string.length() + 2).append('"');
+		for (int i = 0; i < string.length(); i++) {
+			char c = string.charAt(i);
+			switch (c) {
+			case '"' -> quoted.append("\\\"");
+			case '\\' -> quoted.append("\\\\");
+			case '\n' -> quoted.append("\\n");
+			case '\r' -> quoted.append("\\r");
+			case '\t' -> quoted.append("\\t");
+			default -> {
+				if (c < 0x20) {
+					quoted.append(String.format("\\u%04x", (int) c));
+				}
+				else {
+					quoted.append(c);
+				}
+			}
+			}
+		}
+		return quoted.append('"').toString();
+	}
+
+}
@@ -0,0 +1,219 @@
+package captionsprocessor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Reads captions files by memory-mapping them and finding line breaks in the raw bytes, so only lines with text are ever decoded.
+ * The encoding is detected first (see CaptionEncoding): a byte order mark is skipped instead of reaching the parser in front of the
+ * first caption number, and non-ASCII speech is decoded with the charset it was saved in.
+ * Lines end at "\n", "\r\n" or a lone "\r", as with BufferedReader.readLine(). The lines are parsed by the Parser of the file's
+ * CaptionFormat, which is detected after the encoding unless one is given.
+ */
+public final class MappedCaptionReader {
+
+	private static final String BLANK_LINE = "";
+
+	private MappedCaptionReader() {
+	}
+
+	/**
+	 * Reads every caption of a file, passing each to a Consumer as soon as it's complete. A .gz file is decompressed into memory first.
+	 * @param path The captions file to be read
+	 * @param captions Receives the Captions, in order
+	 * @return The encoding the file was read with, for writing results back the same way
+	 * @throws IOException If the file can't be read or is over 2 GB
+	 */
+	public static CaptionEncoding read(Path path, Consumer<? super Caption> captions) throws IOException {
+		return read(CompressedFiles.read(path), captions);
+	}
+
+	/**
+	 * Maps the whole of a file into memory, read-only.
+	 * @param path The file to be mapped
+	 * @return A buffer over the file's bytes
+	 * @throws IOException If the file can't be opened or is over 2 GB
+	 */
+	public static ByteBuffer map(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException(path + " is too large to map (" + size + " bytes)");
+			}
+			return channel.map(MapMode.READ_ONLY, 0, size);  //the mapping stays valid after the channel is closed
+		}
+	}
+
+	/**
+	 * Reads every caption between a buffer's position and limit, passing each to a Consumer as soon as it's complete.
+	 * The buffer's position isn't moved.
+	 * @param bytes The contents of a captions file
+	 * @param captions Receives the Captions, in order
+	 * @return The encoding the bytes were read with
+	 */
+	public static CaptionEncoding read(ByteBuffer bytes, Consumer<? super Caption> captions) {
+		CaptionEncoding encoding = CaptionEncoding.detect(bytes);
+		read(bytes, encoding, captions);
+		return encoding;
+	}
+
+	/**
+	 * Reads every caption between a buffer's position and limit in an encoding detected beforehand, detecting their format.
+	 * The buffer's position isn't moved.
+	 * @param bytes The contents of a captions file
+	 * @param encoding The encoding of the bytes, as CaptionEncoding.detect() returned it
+	 * @param captions Receives the Captions, in order
+	 * @return The format the bytes were read as, for writing results back the same way
+	 */
+	public static CaptionFormat read(ByteBuffer bytes, CaptionEncoding encoding, Consumer<? super Caption> captions) {
+		CaptionFormat format = CaptionFormat.detect(bytes, encoding);
+		read(bytes, encoding, format, captions);
+		return format;
+	}
+
+	/**
+	 * Reads every caption between a buffer's position and limit in an encoding and format known beforehand.
+	 * The buffer's position isn't moved.
+	 * @param bytes The contents of a captions file
+	 * @param encoding The encoding of the bytes, as CaptionEncoding.detect() returned it
+	 * @param format The format of the captions
+	 * @param captions Receives the Captions, in order
+	 */
+	public static void read(ByteBuffer bytes, CaptionEncoding encoding, CaptionFormat format, Consumer<? super Caption> captions) {
+		read(bytes, encoding, format, null, captions);
+	}
+
+	/**
+	 * Reads every caption between a buffer's position and limit in an encoding and format known beforehand, taking the Strings of
+	 * the Captions from a pool. The buffer's position isn't moved.
+	 * @param bytes The contents of a captions file
+	 * @param encoding The encoding of the bytes, as CaptionEncoding.detect() returned it
+	 * @param format The format of the captions
+	 * @param strings The StringPool, or null to create a String for each
+	 * @param captions Receives the Captions, in order
+	 */
+	public static void read(ByteBuffer bytes, CaptionEncoding encoding, CaptionFormat format, StringPool strings, Consumer<? super Caption> captions) {
+		int from = bytes.position() + encoding.getByteOrderMarkLength();
+		CaptionFormat.Parser parser = format.newParser(strings);
+		if (encoding.isAsciiCompatible()) {
+			feedLines(bytes, from, bytes.limit(), encoding.getCharset(), parser, captions);
+		}
+		else {
+			feedLines(decode(bytes, from, encoding.getCharset()), parser, captions);
+		}
+		parser.finish();
+		drain(parser, captions);
+	}
+
+	/**
+	 * Splits bytes of an ASCII-compatible encoding into lines without decoding them, then decodes each line that isn't blank.
+	 * The bytes are copied out a block at a time; only a line that straddles two blocks is copied again.
+	 */
+	private static void feedLines(ByteBuffer bytes, int from, int to, Charset charset, CaptionFormat.Parser parser, Consumer<? super Caption> captions) {
+		byte[] block = new byte[CaptionEncoding.BLOCK_SIZE];
+		byte[] carried = new byte[128];  //the start of a line that continues into the next block
+		int carriedLength = 0;
+		boolean skipLineFeed = false;  //the previous block ended in '\r', so a '\n' starting this one belongs to it
+		int position = from;
+		while (position < to) {
+			int length = Math.min(block.length, to - position);
+			bytes.get(position, block, 0, length);
+			position += length;
+			int start = (skipLineFeed && block[0] == '\n') ? 1 : 0;
+			skipLineFeed = false;
+			for (int i = start; i < length; i++) {
+				byte b = block[i];
+				if (b != '\n' && b != '\r') {
+					continue;
+				}
+				if (carriedLength == 0) {
+					parser.feed(i == start ? BLANK_LINE : new String(block, start, i - start, charset));
+				}
+				else {
+					carried = append(carried, carriedLength, block, start, i);
+					parser.feed(new String(carried, 0, carriedLength + i - start, charset));
+					carriedLength = 0;
+				}
+				drain(parser, captions);
+				if (b == '\r') {
+					if (i + 1 == length) {
+						skipLineFeed = true;
+					}
+					else if (block[i + 1] == '\n') {
+						i++;
+					}
+				}
+				start = i + 1;
+			}
+			carried = append(carried, carriedLength, block, start, length);
+			carriedLength += length - start;
+		}
+		if (carriedLength > 0) {  //the last line has no line break
+			parser.feed(new String(carried, 0, carriedLength, charset));
+			drain(parser, captions);
+		}
+	}
+
+	/**
+	 * Appends part of one byte array to the used part of another, growing it if needed.
+	 * @return The array appended to, or a larger copy of it
+	 */
+	private static byte[] append(byte[] array, int used, byte[] source, int from, int to) {
+		int needed = used + to - from;
+		if (array.length < needed) {
+			array = Arrays.copyOf(array, Math.max(needed, array.length * 2));
+		}
+		System.arraycopy(source, from, array, used, to - from);
+		return array;
+	}
+
+	/**
+	 * Splits already-decoded text into lines.
+	 */
+	private static void feedLines(CharBuffer chars, CaptionFormat.Parser parser, Consumer<? super Caption> captions) {
+		char[] text = chars.array();
+		int to = chars.arrayOffset() + chars.limit();
+		int start = chars.arrayOffset() + chars.position();
+		while (start < to) {
+			int end = start;
+			while (end < to && text[end] != '\n' && text[end] != '\r') {
+				end++;
+			}
+			parser.feed(end == start ? BLANK_LINE : new String(text, start, end - start));
+			drain(parser, captions);
+			if (end + 1 < to && text[end] == '\r' && text[end + 1] == '\n') {
+				end++;
+			}
+			start = end + 1;
+		}
+	}
+
+	private static CharBuffer decode(ByteBuffer bytes, int from, Charset charset) {
+		CharsetDecoder decoder = charset.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		try {
+			return decoder.decode(bytes.duplicate().position(from));
+		} catch (CharacterCodingException cce) {
+			throw new IllegalStateException(cce);  //a replacing decoder doesn't throw
+		}
+	}
+
+	private static void drain(CaptionFormat.Parser parser, Consumer<? super Caption> captions) {
+		while (parser.hasReady()) {
+			captions.accept(parser.poll());
+		}
+	}
+
+}
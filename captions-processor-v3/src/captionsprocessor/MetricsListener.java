@@ -0,0 +1,33 @@
+package captionsprocessor;
+
+import java.util.List;
+
+/**
+ * Receives the metrics of each captions file once it has been processed. Listeners may be called from several worker threads at once.
+ * See JfrMetricsListener and MetricsSummary.
+ */
+public interface MetricsListener {
+
+	MetricsListener NONE = metrics -> {};
+
+	/**
+	 * Called after a file has been processed and written.
+	 * @param metrics The metrics of the file and of each stage run over it
+	 */
+	void fileProcessed(FileMetrics metrics);
+
+	/**
+	 * Returns a listener that passes metrics on to each of several listeners, in order.
+	 * @param listeners The listeners to be called
+	 * @return The combined MetricsListener
+	 */
+	static MetricsListener of(MetricsListener... listeners) {
+		List<MetricsListener> all = List.of(listeners);
+		return metrics -> {
+			for (MetricsListener listener : all) {
+				listener.fileProcessed(metrics);
+			}
+		};
+	}
+
+}
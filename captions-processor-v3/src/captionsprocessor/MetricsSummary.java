@@ -0,0 +1,74 @@
+package captionsprocessor;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Collects the metrics of every file in a batch and writes them as a single JSON document: the totals of each stage across all files,
+ * followed by each file's own metrics in the order they finished. Safe to use from several worker threads.
+ */
+public class MetricsSummary implements MetricsListener {
+
+	private final List<FileMetrics> files = new ArrayList<>();
+
+	@Override
+	public synchronized void fileProcessed(FileMetrics metrics) {
+		files.add(metrics);
+	}
+
+	public synchronized List<FileMetrics> getFiles() {
+		return List.copyOf(files);
+	}
+
+	/**
+	 * Returns the metrics of each stage added up over every file, in stage order.
+	 * @return The total StageMetrics
+	 */
+	public synchronized List<StageMetrics> getStageTotals() {
+		Map<String, StageMetrics> totals = new LinkedHashMap<>();
+		for (FileMetrics file : files) {
+			for (StageMetrics stage : file.stages()) {
+				totals.merge(stage.stage(), stage, StageMetrics::plus);
+			}
+		}
+		return new ArrayList<>(totals.values());
+	}
+
+	/**
+	 * Returns the summary as a JSON document.
+	 * @return The JSON text
+	 */
+	public synchronized String toJson() {
+		long bytesIn = 0;
+		long bytesOut = 0;
+		long captionsIn = 0;
+		long captionsOut = 0;
+		for (FileMetrics file : files) {
+			bytesIn += file.bytesIn();
+			bytesOut += file.bytesOut();
+			captionsIn += file.captionsIn();
+			captionsOut += file.captionsOut();
+		}
+		return "{\"files\":" + files.size() + ",\"bytesIn\":" + bytesIn + ",\"bytesOut\":" + bytesOut
+				+ ",\"captionsIn\":" + captionsIn + ",\"captionsOut\":" + captionsOut
+				+ ",\n\"stages\":[\n" + getStageTotals().stream().map(StageMetrics::toJson).collect(Collectors.joining(",\n"))
+				+ "],\n\"perFile\":[\n" + files.stream().map(FileMetrics::toJson).collect(Collectors.joining(",\n")) + "]}\n";
+	}
+
+	/**
+	 * Writes the summary to a file as UTF-8 JSON, creating it or replacing its contents.
+	 * @param path The file to be written
+	 * @throws IOException If the file can't be written
+	 */
+	public void write(Path path) throws IOException {
+		Files.writeString(path, toJson(), StandardCharsets.UTF_8);
+	}
+
+}
@@ -0,0 +1,193 @@
+package captionsprocessor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+/**
+ * Runs a Pipeline over a single large List of Captions by splitting it into chunks that are processed in parallel,
+ * with output identical to running one Pipeline over the whole List in order.
+ * <p>
+ * Stages such as CapitalizeFirstLetters carry state from one caption to the next. Each chunk after the first is started from the state
+ * reached by warming up a fresh Pipeline on copies of the captions just before it. Once every chunk is done, the chunks are checked in order:
+ * if the state a chunk started from differs from the state the previous chunk actually ended with, that chunk is restored and processed again
+ * from the correct state. Re-runs are rare in practice, since carried state rarely depends on more than the last few captions.
+ */
+public class ParallelPipeline {
+
+	private static final int MIN_CHUNK_SIZE = 256;
+	private static final int CHUNKS_PER_THREAD = 4;
+	private static final int WARM_UP_CAPTIONS = 8;
+
+	private final Supplier<Pipeline> pipelines;
+	private final ForkJoinPool pool;
+	private final int chunkSize;
+	private int[] counts = new int[0];
+	private int chunksRerun = 0;
+	private boolean instrumented = false;
+	private List<StageMetrics> metrics = List.of();
+
+	/**
+	 * The outcome of processing one chunk.
+	 */
+	private static class Chunk {
+		private final int start;
+		private final int end;
+		private Object[] startState;  //null for the first chunk, which starts from a reset Pipeline
+		private Object[] endState;
+		private int[] counts;
+		private List<StageMetrics> metrics;
+
+		private Chunk(int start, int end) {
+			this.start = start;
+			this.end = end;
+		}
+	}
+
+	/**
+	 * @param pipelines Creates a new Pipeline of the same stages for each chunk
+	 * @param pool The pool chunks are processed on
+	 * @param chunkSize The number of captions per chunk, or 0 to choose from the pool size
+	 */
+	public ParallelPipeline(Supplier<Pipeline> pipelines, ForkJoinPool pool, int chunkSize) {
+		this.pipelines = pipelines;
+		this.pool = pool;
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Returns the number of edits each stage performed during the last run, in stage order.
+	 * @return The edit counts
+	 */
+	public int[] getCounts() {
+		return counts.clone();
+	}
+
+	/**
+	 * Turns the recording of StageMetrics on or off for the Pipeline of every chunk. See Pipeline.setInstrumented().
+	 * @param instrumented Whether to record StageMetrics
+	 * @return This ParallelPipeline
+	 */
+	public ParallelPipeline setInstrumented(boolean instrumented) {
+		this.instrumented = instrumented;
+		return this;
+	}
+
+	/**
+	 * Returns what each stage did during the last run, added up over every chunk, in stage order.
+	 * Time spent warming up chunks and on chunks that had to be re-run isn't included.
+	 * @return One StageMetrics per stage
+	 */
+	public List<StageMetrics> getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Returns how many chunks had to be processed again during the last run because they started from the wrong state.
+	 * @return The number of re-run chunks
+	 */
+	public int getChunksRerun() {
+		return chunksRerun;
+	}
+
+	/**
+	 * Runs the Pipeline's stages over every Caption of a List, updating the Captions in place.
+	 * @param captions The List of Captions to be processed
+	 * @return The number of edits each stage performed, in stage order, as Pipeline.getCounts() would return them after a sequential run
+	 */
+	public int[] run(List<Caption> captions) {
+		List<Caption> list = (captions instanceof RandomAccess) ? captions : new ArrayList<>(captions);
+		int size = list.size();
+		String[] originals = new String[size];  //for warming up on captions another chunk is editing, and for re-runs
+		for (int i = 0; i < size; i++) {
+			originals[i] = list.get(i).getContent();
+		}
+		int perChunk = chunkSize > 0 ? chunkSize : Math.max(MIN_CHUNK_SIZE, size / (pool.getParallelism() * CHUNKS_PER_THREAD) + 1);
+
+		List<Chunk> chunks = new ArrayList<>();
+		List<Callable<Chunk>> tasks = new ArrayList<>();
+		for (int start = 0; start < size || start == 0; start += perChunk) {
+			Chunk chunk = new Chunk(start, Math.min(size, start + perChunk));
+			chunks.add(chunk);
+			tasks.add(() -> process(list, originals, chunk));
+		}
+		for (Future<Chunk> future : pool.invokeAll(tasks)) {
+			try {
+				future.get();
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException(ie);
+			} catch (ExecutionException ee) {
+				throw new IllegalStateException(ee.getCause());
+			}
+		}
+
+		//stitch the chunks together in order, re-running any that started from the wrong state
+		chunksRerun = 0;
+		counts = chunks.get(0).counts.clone();
+		List<StageMetrics> totals = new ArrayList<>(chunks.get(0).metrics);
+		Object[] state = chunks.get(0).endState;
+		for (int k = 1; k < chunks.size(); k++) {
+			Chunk chunk = chunks.get(k);
+			if (!Arrays.equals(chunk.startState, state)) {
+				rerun(list, originals, chunk, state);
+				chunksRerun++;
+			}
+			for (int i = 0; i < counts.length; i++) {
+				counts[i] += chunk.counts[i];
+				totals.set(i, totals.get(i).plus(chunk.metrics.get(i)));
+			}
+			state = chunk.endState;
+		}
+		metrics = List.copyOf(totals);
+		return counts.clone();
+	}
+
+	/**
+	 * Processes one chunk, first warming up on copies of the captions before it to guess the state it starts from.
+	 */
+	private Chunk process(List<Caption> captions, String[] originals, Chunk chunk) {
+		Pipeline pipeline = pipelines.get().setInstrumented(instrumented);
+		pipeline.reset();
+		if (chunk.start > 0) {
+			for (int i = Math.max(0, chunk.start - WARM_UP_CAPTIONS); i < chunk.start; i++) {
+				Caption previous = captions.get(i);
+				pipeline.process(new Caption(previous.getNumber(), previous.getTiming(), originals[i]));
+			}
+			pipeline.clearCounts();
+			chunk.startState = pipeline.getState();
+		}
+		for (int i = chunk.start; i < chunk.end; i++) {
+			pipeline.process(captions.get(i));
+		}
+		chunk.endState = pipeline.getState();
+		chunk.counts = pipeline.getCounts();
+		chunk.metrics = pipeline.getMetrics();
+		return chunk;
+	}
+
+	/**
+	 * Restores a chunk's original content and processes it again, sequentially, from a known state.
+	 */
+	private void rerun(List<Caption> captions, String[] originals, Chunk chunk, Object[] state) {
+		Pipeline pipeline = pipelines.get().setInstrumented(instrumented);
+		pipeline.reset();
+		pipeline.setState(state);
+		for (int i = chunk.start; i < chunk.end; i++) {
+			Caption caption = captions.get(i);
+			caption.setContent(originals[i]);
+			pipeline.process(caption);
+		}
+		chunk.startState = state;
+		chunk.endState = pipeline.getState();
+		chunk.counts = pipeline.getCounts();
+		chunk.metrics = pipeline.getMetrics();
+	}
+
+}
@@ -0,0 +1,385 @@
+package captionsprocessor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Runs a sequence of Stages over a List of Captions in a single pass. Each caption's content is copied into one reusable buffer,
+ * every stage edits it in turn, and the result is written back to the caption once, only if it changed.
+ * A Pipeline keeps per-stage edit counts and is not thread-safe; use one Pipeline per file being processed.
+ * An instrumented Pipeline also records StageMetrics: time in each stage, captions touched, characters in and out, and allocation.
+ * A Pipeline given a CaptionCache takes the output of its leading stateless stages from the cache wherever it can.
+ * <p>
+ * Each caption is scanned for the CaptionFeatures its stages consult before the first of them runs, so a stage can skip captions it
+ * would leave unchanged, and scanned again only when a stage that consults them follows one whose edits may have added a feature.
+ */
+public class Pipeline {
+
+	private static final int ALLOCATION_SAMPLE_INTERVAL = 16;  //allocation is measured on one caption in this many, and scaled up
+	private static final String CACHE_VERSION = "2";  //change whenever a built-in stage's output changes, to invalidate cached results
+
+	private final Stage[] stages;
+	private final int[] counts;
+	private final StringBuilder buffer = new StringBuilder();
+	private boolean instrumented = false;
+	private int captionsProcessed = 0;
+	private int captionsSampled = 0;
+	private final long[] nanos;
+	private final int[] captionsTouched;
+	private final long[] charsIn;
+	private final long[] charsOut;
+	private final long[] bytesAllocated;  //over the sampled captions only
+	private final int cacheableStages;  //the stateless stages before the first stateful one
+	private final int[] captionEdits;  //the edits of each stage on the current caption, while its result is being cached
+	private final ReplacementMatcher matcher;  //of the Replace stage, for CaptionFeatures.RULE_PREFIX; null if there are none or several
+	private final int[] stageFeatures;  //the CaptionFeatures each stage consults
+	private final int[] laterFeatures;  //the CaptionFeatures this and later stages consult, less RULE_PREFIX without a matcher
+	private final int[] keptClear;  //the CaptionFeatures each stage never sets
+	private int features;  //of the current caption
+	private int featuresKnown;  //the flags of features that are up to date
+	private char[] scanned = new char[64];  //the current caption, copied out to be scanned
+	private CaptionCache cache = null;
+	private String cacheVersion;  //of the cacheable stages after the first
+
+	public Pipeline(Stage... stages) {
+		this.stages = stages.clone();
+		int cacheable = 0;
+		while (cacheable < stages.length && !stages[cacheable].isStateful()) {
+			cacheable++;
+		}
+		this.cacheableStages = cacheable;
+		ReplacementMatcher found = null;
+		int replaceStages = 0;
+		for (Stage stage : stages) {
+			if (stage instanceof Stages.Replace replace) {
+				found = replace.getMatcher();
+				replaceStages++;
+			}
+		}
+		this.matcher = (replaceStages == 1) ? found : null;
+		this.stageFeatures = new int[stages.length];
+		this.keptClear = new int[stages.length];
+		for (int i = 0; i < stages.length; i++) {
+			stageFeatures[i] = stages[i].getFeatures();
+			keptClear[i] = stages[i].getFeaturesKeptClear();
+		}
+		this.laterFeatures = new int[stages.length];
+		int scannable = (matcher == null) ? CaptionFeatures.ALL & ~CaptionFeatures.RULE_PREFIX : CaptionFeatures.ALL;
+		int later = 0;
+		for (int i = stages.length - 1; i >= 0; i--) {
+			later |= stageFeatures[i];
+			laterFeatures[i] = later & scannable;
+		}
+		this.captionEdits = new int[stages.length];
+		this.counts = new int[stages.length];
+		this.nanos = new long[stages.length];
+		this.captionsTouched = new int[stages.length];
+		this.charsIn = new long[stages.length];
+		this.charsOut = new long[stages.length];
+		this.bytesAllocated = new long[stages.length];
+	}
+
+	/**
+	 * Creates a Pipeline of the stages CaptionsProcessor.main() runs after removing empty captions, in the same order.
+	 * @param matcher The compiled replacement rules to be applied first
+	 * @return A new Pipeline
+	 */
+	public static Pipeline standard(ReplacementMatcher matcher) {
+		return standard(matcher, Stages.DEFAULT_STOP_WORDS);
+	}
+
+	/**
+	 * Creates a Pipeline of the stages CaptionsProcessor.main() runs after removing empty captions, in the same order, with a different
+	 * stop-list for duplicate words. The cross-caption duplicate check runs last but one, so the stages before it stay stateless
+	 * and can be cached; see setCache().
+	 * @param matcher The compiled replacement rules to be applied first
+	 * @param stopWords Words that are never removed as duplicates; see Stages.DEFAULT_STOP_WORDS
+	 * @return A new Pipeline
+	 */
+	public static Pipeline standard(ReplacementMatcher matcher, Set<String> stopWords) {
+		return standard(matcher, stopWords, null);
+	}
+
+	/**
+	 * Creates the standard Pipeline with a Stages.CorrectTerms stage after decapitalization, which corrects words that are close to
+	 * a term of a domain vocabulary. It's stateless, so it's cached with the stages before it.
+	 * @param matcher The compiled replacement rules to be applied first
+	 * @param stopWords Words that are never removed as duplicates; see Stages.DEFAULT_STOP_WORDS
+	 * @param vocabulary The terms to correct words to, or null to leave words alone
+	 * @return A new Pipeline
+	 */
+	public static Pipeline standard(ReplacementMatcher matcher, Set<String> stopWords, Vocabulary vocabulary) {
+		List<Stage> stages = new ArrayList<>(List.of(
+				new Stages.Replace(matcher),
+				new Stages.RemoveDuplicateWords(stopWords),
+				new Stages.RemoveMultipleSpaces(),
+				new Stages.TrimTrailingSpaces(),
+				new Stages.Decapitalize()));
+		if (vocabulary != null) {
+			stages.add(new Stages.CorrectTerms(vocabulary));
+		}
+		stages.add(new Stages.RemoveDuplicateWordsAcrossCaptions(stopWords));
+		stages.add(new Stages.CapitalizeFirstLetters());
+		return new Pipeline(stages.toArray(new Stage[0]));
+	}
+
+	public List<Stage> getStages() {
+		return List.of(stages);
+	}
+
+	/**
+	 * Returns the number of edits a specified stage has performed since the last reset.
+	 * @param stage The index of the stage
+	 * @return The edit count
+	 */
+	public int getCount(int stage) {
+		return counts[stage];
+	}
+
+	public int[] getCounts() {
+		return counts.clone();
+	}
+
+	public boolean isInstrumented() {
+		return instrumented;
+	}
+
+	/**
+	 * Turns the recording of StageMetrics on or off. Timing each stage costs a few clock reads per caption, so it's off by default.
+	 * @param instrumented Whether to record StageMetrics
+	 * @return This Pipeline
+	 */
+	public Pipeline setInstrumented(boolean instrumented) {
+		this.instrumented = instrumented;
+		return this;
+	}
+
+	public CaptionCache getCache() {
+		return cache;
+	}
+
+	/**
+	 * Sets a cache for the output of the stateless stages at the start of the Pipeline, or null for none. For each caption,
+	 * the cache is looked up by its content and the stages' cache versions; on a hit those stages are skipped, and their edit counts
+	 * are taken from the cache, and on a miss their output is added to it. Stages after the first stateful one always run.
+	 * Cached stages aren't timed, and Stages.Replace.getRuleHits() doesn't count replacements taken from the cache.
+	 * @param cache The CaptionCache, which may be shared with other Pipelines
+	 * @return This Pipeline
+	 */
+	public Pipeline setCache(CaptionCache cache) {
+		this.cache = cache;
+		StringBuilder version = new StringBuilder(CACHE_VERSION);
+		for (int i = 1; i < cacheableStages; i++) {
+			version.append('\0').append(stages[i].getCacheVersion(null));
+		}
+		this.cacheVersion = version.toString();
+		return this;
+	}
+
+	/**
+	 * Returns what each stage did since the last reset, in stage order. Only counts are kept unless the Pipeline is instrumented.
+	 * Allocation is estimated from a sample of the captions.
+	 * @return One StageMetrics per stage
+	 */
+	public List<StageMetrics> getMetrics() {
+		List<StageMetrics> metrics = new ArrayList<>(stages.length);
+		boolean allocationKnown = AllocationCounter.isSupported() && instrumented;
+		for (int i = 0; i < stages.length; i++) {
+			long allocated = -1;
+			if (allocationKnown) {
+				allocated = (captionsSampled == 0) ? 0 : bytesAllocated[i] * captionsProcessed / captionsSampled;
+			}
+			metrics.add(new StageMetrics(stages[i].getName(), nanos[i], captionsProcessed, captionsTouched[i], counts[i], charsIn[i], charsOut[i], allocated));
+		}
+		return metrics;
+	}
+
+	/**
+	 * Clears the edit counts and any state the stages carry between captions.
+	 */
+	public void reset() {
+		clearCounts();
+		for (Stage stage : stages) {
+			stage.reset();
+		}
+	}
+
+	/**
+	 * Clears the edit counts and metrics only, keeping the state the stages carry between captions.
+	 */
+	public void clearCounts() {
+		Arrays.fill(counts, 0);
+		captionsProcessed = 0;
+		captionsSampled = 0;
+		Arrays.fill(nanos, 0);
+		Arrays.fill(captionsTouched, 0);
+		Arrays.fill(charsIn, 0);
+		Arrays.fill(charsOut, 0);
+		Arrays.fill(bytesAllocated, 0);
+	}
+
+	/**
+	 * Returns a snapshot of the state every stage carries over to the next caption. See Stage.getState().
+	 * @return The stage states, in stage order
+	 */
+	public Object[] getState() {
+		Object[] state = new Object[stages.length];
+		for (int i = 0; i < stages.length; i++) {
+			state[i] = stages[i].getState();
+		}
+		return state;
+	}
+
+	/**
+	 * Restores a snapshot taken by getState() on a Pipeline of the same stages.
+	 * @param state The stage states, in stage order
+	 */
+	public void setState(Object[] state) {
+		for (int i = 0; i < stages.length; i++) {
+			stages[i].setState(state[i]);
+		}
+	}
+
+	/**
+	 * Runs every stage, in order, on a single Caption.
+	 * @param caption The Caption to be processed
+	 */
+	public void process(Caption caption) {
+		String content = caption.getContent();
+		buffer.setLength(0);
+		buffer.append(content);
+		process(buffer);
+		if (!content.contentEquals(buffer)) {  //only allocate new content when something changed
+			caption.setContent(buffer.toString());
+		}
+	}
+
+	/**
+	 * Runs every stage, in order, on the content of a single caption held in a buffer, such as a caption of a CaptionStore.
+	 * @param content The caption content, edited in place
+	 */
+	public void process(StringBuilder content) {
+		int first = 0;
+		CaptionCache.Key key = null;  //set while the result of the cacheable stages is still to be cached
+		if (cache != null && cacheableStages > 0) {
+			//only the first stage is given the caption as it is now, so only it can describe which of its configuration applies
+			key = CaptionCache.key(stages[0].getCacheVersion(content) + '\0' + cacheVersion, content);
+			CaptionCache.Entry entry = cache.get(key);
+			if (entry != null) {
+				content.setLength(0);
+				content.append(entry.content());
+				for (int i = 0; i < cacheableStages; i++) {
+					counts[i] += entry.edits()[i];
+					if (instrumented && entry.edits()[i] > 0) {
+						captionsTouched[i]++;
+					}
+				}
+				first = cacheableStages;
+				key = null;
+			}
+		}
+		featuresKnown = 0;
+		if (instrumented) {
+			processInstrumented(content, first, key);
+			return;
+		}
+		for (int i = first; i < stages.length; i++) {
+			int length = content.length();
+			int edits = stages[i].process(content, featuresFor(i, content));
+			if (edits > 0 || content.length() != length) {
+				featuresKnown &= keptClear[i];
+			}
+			counts[i] += edits;
+			if (key != null) {
+				captionEdits[i] = edits;
+				if (i + 1 == cacheableStages) {
+					cacheResult(key, content);
+				}
+			}
+		}
+	}
+
+	private void cacheResult(CaptionCache.Key key, StringBuilder content) {
+		cache.put(key, new CaptionCache.Entry(content.toString(), Arrays.copyOf(captionEdits, cacheableStages)));
+	}
+
+	/**
+	 * Returns the features to give a stage: CaptionFeatures.ALL if it consults none, and otherwise the current caption's, scanning it
+	 * first, for what this and the later stages consult, if an edit since the last scan may have added a feature this stage consults.
+	 */
+	private int featuresFor(int stage, StringBuilder content) {
+		int wanted = stageFeatures[stage];
+		if (wanted == 0) {
+			return CaptionFeatures.ALL;
+		}
+		if ((featuresKnown & wanted) != wanted) {
+			int length = content.length();
+			if (length > scanned.length) {
+				scanned = new char[Math.max(length, scanned.length * 2)];
+			}
+			content.getChars(0, length, scanned, 0);
+			features = CaptionFeatures.scan(scanned, 0, length, laterFeatures[stage], matcher);
+			featuresKnown = CaptionFeatures.ALL;  //flags that weren't scanned for are set
+		}
+		return features;
+	}
+
+	private void processInstrumented(StringBuilder content, int first, CaptionCache.Key key) {
+		boolean sampled = captionsProcessed++ % ALLOCATION_SAMPLE_INTERVAL == 0 && AllocationCounter.isSupported();
+		if (sampled) {
+			captionsSampled++;
+		}
+		long allocated = sampled ? AllocationCounter.currentThread() : 0;
+		long time = System.nanoTime();
+		for (int i = first; i < stages.length; i++) {  //each stage ends where the next begins, so one clock read per stage
+			int length = content.length();
+			charsIn[i] += length;
+			int edits = stages[i].process(content, featuresFor(i, content));  //a scan is timed as part of the stage that needs it
+			if (edits > 0 || content.length() != length) {
+				featuresKnown &= keptClear[i];
+			}
+			long now = System.nanoTime();
+			nanos[i] += now - time;
+			time = now;
+			if (sampled) {
+				long allocatedNow = AllocationCounter.currentThread();
+				bytesAllocated[i] += allocatedNow - allocated;
+				allocated = allocatedNow;
+			}
+			counts[i] += edits;
+			if (edits > 0) {
+				captionsTouched[i]++;
+			}
+			charsOut[i] += content.length();
+			if (key != null) {
+				captionEdits[i] = edits;
+				if (i + 1 == cacheableStages) {
+					cacheResult(key, content);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Resets the Pipeline, then runs every stage on each Caption of a List, in order.
+	 * @param captions The List of Captions to be processed
+	 */
+	public void run(List<Caption> captions) {
+		reset();
+		for (Caption caption : captions) {
+			process(caption);
+		}
+	}
+
+	/**
+	 * Prints each stage's summary to the console.
+	 */
+	public void printSummary() {
+		for (int i = 0; i < stages.length; i++) {
+			System.out.println(stages[i].describe(counts[i]));
+		}
+	}
+
+}
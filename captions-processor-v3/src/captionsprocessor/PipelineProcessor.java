@@ -0,0 +1,85 @@
+package captionsprocessor;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.SubmissionPublisher;
+
+/**
+ * A Flow stage that runs a Pipeline over each Caption it receives and publishes the result, dropping empty captions as main() does.
+ * Captions are processed one at a time in the order they arrive, so stages that carry state from one caption to the next behave as in Pipeline.run().
+ * Upstream is only asked for more captions as they are processed, and processing blocks while the downstream buffer is full,
+ * so a slow subscriber holds back the whole chain instead of letting captions pile up.
+ */
+public class PipelineProcessor extends SubmissionPublisher<Caption> implements Flow.Processor<Caption, Caption> {
+
+	private final Pipeline pipeline;
+	private final int requestSize;
+	private Flow.Subscription subscription;
+	private int captionsRemoved = 0;
+
+	/**
+	 * Creates a PipelineProcessor that delivers on the common ForkJoinPool, with Flow.defaultBufferSize() captions of buffering on each side.
+	 * @param pipeline The Pipeline to be run; it is reset when this processor subscribes
+	 */
+	public PipelineProcessor(Pipeline pipeline) {
+		this(pipeline, ForkJoinPool.commonPool(), Flow.defaultBufferSize());
+	}
+
+	/**
+	 * @param pipeline The Pipeline to be run; it is reset when this processor subscribes
+	 * @param executor The Executor that delivers processed Captions to subscribers
+	 * @param maxBufferCapacity The most Captions requested from upstream ahead of processing, and buffered for each subscriber
+	 */
+	public PipelineProcessor(Pipeline pipeline, Executor executor, int maxBufferCapacity) {
+		super(executor, maxBufferCapacity);
+		this.pipeline = pipeline;
+		this.requestSize = maxBufferCapacity;
+	}
+
+	public Pipeline getPipeline() {
+		return pipeline;
+	}
+
+	/**
+	 * Returns the number of empty or placeholder captions dropped so far.
+	 * @return The number of captions dropped
+	 */
+	public int getCaptionsRemoved() {
+		return captionsRemoved;
+	}
+
+	@Override
+	public void onSubscribe(Flow.Subscription subscription) {
+		if (this.subscription != null) {  //a Pipeline can only follow one stream of captions
+			subscription.cancel();
+			return;
+		}
+		this.subscription = subscription;
+		pipeline.reset();
+		subscription.request(requestSize);
+	}
+
+	@Override
+	public void onNext(Caption caption) {
+		if (CaptionsProcessor.isEmptyCaption(caption)) {
+			captionsRemoved++;
+		}
+		else {
+			pipeline.process(caption);
+			submit(caption);  //blocks while a subscriber's buffer is full
+		}
+		subscription.request(1);
+	}
+
+	@Override
+	public void onError(Throwable throwable) {
+		closeExceptionally(throwable);
+	}
+
+	@Override
+	public void onComplete() {
+		close();
+	}
+
+}
@@ -0,0 +1,77 @@
+package captionsprocessor;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * The current ReplacementMatcher for a rules file, for long-running processes whose dictionary is edited while they run.
+ * reloadIfChanged() compiles (or loads the snapshot of) a changed file and swaps the new matcher in atomically. Work that already
+ * holds the old matcher carries on with it undisturbed, since matchers are immutable; work started afterwards gets the new one.
+ */
+public class ReloadableMatcher implements Supplier<ReplacementMatcher> {
+
+	private final Path rules;
+	private final Path snapshot;
+	private final AtomicReference<Loaded> current;
+
+	private record Loaded(ReplacementMatcher matcher, byte[] rulesHash) {
+	}
+
+	/**
+	 * Loads the matcher for a rules file, keeping its snapshot at RuleSet.snapshotPath(rules).
+	 * @param rules The rules file
+	 * @throws IOException If the rules file can't be read
+	 */
+	public ReloadableMatcher(Path rules) throws IOException {
+		this(rules, RuleSet.snapshotPath(rules));
+	}
+
+	/**
+	 * Loads the matcher for a rules file.
+	 * @param rules The rules file
+	 * @param snapshot The snapshot file; see RuleSet.loadMatcher()
+	 * @throws IOException If the rules file can't be read
+	 */
+	public ReloadableMatcher(Path rules, Path snapshot) throws IOException {
+		this.rules = rules;
+		this.snapshot = snapshot;
+		this.current = new AtomicReference<>(load(RuleSet.hash(rules)));
+	}
+
+	private Loaded load(byte[] rulesHash) throws IOException {
+		return new Loaded(RuleSet.loadMatcher(rules, snapshot, rulesHash), rulesHash);
+	}
+
+	public Path getRulesFile() {
+		return rules;
+	}
+
+	/**
+	 * Returns the matcher for the most recently loaded version of the rules file.
+	 * @return The current ReplacementMatcher
+	 */
+	@Override
+	public ReplacementMatcher get() {
+		return current.get().matcher();
+	}
+
+	/**
+	 * Loads the rules file again if its contents have changed, and makes the new matcher current.
+	 * If the new rules can't be read or compiled, the current matcher is kept.
+	 * @return Whether a new matcher was swapped in
+	 * @throws IOException If the rules file can't be read
+	 * @throws IllegalArgumentException If the new rules are malformed
+	 */
+	public synchronized boolean reloadIfChanged() throws IOException {
+		byte[] rulesHash = RuleSet.hash(rules);
+		if (Arrays.equals(rulesHash, current.get().rulesHash())) {
+			return false;
+		}
+		current.set(load(rulesHash));
+		return true;
+	}
+
+}
@@ -0,0 +1,537 @@
+package captionsprocessor;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * A compiled, case-insensitive set of search/replace rules that applies every rule in a single left-to-right scan (Aho-Corasick).
+ * Where several rules match, the match that starts first wins, then the longest; rules earlier in the table win exact ties.
+ * Replaced text is not scanned again. Instances are immutable and may be shared between threads.
+ * <p>
+ * A compiled matcher can be saved as a binary snapshot of its arrays and loaded again without recompiling; see RuleSet.
+ */
+public final class ReplacementMatcher {
+
+	private static final int ROOT = 0;
+	private static final int NONE = -1;
+	private static final int ROOT_TABLE_SIZE = 128;  //direct transitions out of the root for ASCII characters
+
+	private static final int SNAPSHOT_MAGIC = 0x43505253;  //"CPRS"
+	private static final int SNAPSHOT_VERSION = 1;
+	static final int SNAPSHOT_HASH_LENGTH = 32;  //a SHA-256 of the rules the snapshot was compiled from
+
+	private final String[] searches;
+	private final String[] replacements;
+
+	//the automaton, one entry per state
+	private final int[] edgeStart;  //index of the state's first edge in edgeChars/edgeTargets; edges of state s end at edgeStart[s + 1]
+	private final char[] edgeChars;  //edge labels, sorted within each state
+	private final int[] edgeTargets;
+	private final int[] fail;  //longest proper suffix of this state that is also a state
+	private final int[] depth;  //length of the string this state represents
+	private final int[] rule;  //rule whose search string this state represents, or NONE
+	private final int[] outputLink;  //nearest state along the fail chain that has a rule, or NONE
+	private final int[] rootTable;
+	private final long[] rulePairs;  //bit (a << 7 | b) is set when ASCII characters a, b may start a search string; see mayStartRule()
+	private String fingerprint;  //computed on first use
+	private RuleDescriptions ruleDescriptions;  //computed on first use
+
+	/**
+	 * Compiles a replacement table. Second index 0 of each entry is the search string and second index 1 its replacement,
+	 * as in CaptionsProcessor.multipleReplace().
+	 * @param replacements The String[][] of replacements to be compiled
+	 */
+	public ReplacementMatcher(String[][] replacements) {
+		int ruleCount = replacements.length;
+		this.searches = new String[ruleCount];
+		this.replacements = new String[ruleCount];
+
+		//build the trie with sorted children so the flattened edges come out in order
+		List<TreeMap<Character, Integer>> children = new ArrayList<>();
+		List<Integer> depths = new ArrayList<>();
+		List<Integer> rules = new ArrayList<>();
+		children.add(new TreeMap<>());
+		depths.add(0);
+		rules.add(NONE);
+		for (int r = 0; r < ruleCount; r++) {
+			String search = replacements[r][CaptionsProcessor.SEARCH];
+			if (search == null || search.isEmpty()) {
+				throw new IllegalArgumentException("Replacement " + r + " has an empty search string");
+			}
+			this.searches[r] = search;
+			this.replacements[r] = replacements[r][CaptionsProcessor.REPLACE];
+			int state = ROOT;
+			for (int i = 0; i < search.length(); i++) {
+				char c = Character.toLowerCase(search.charAt(i));
+				Integer next = children.get(state).get(c);
+				if (next == null) {
+					next = children.size();
+					children.add(new TreeMap<>());
+					depths.add(depths.get(state) + 1);
+					rules.add(NONE);
+					children.get(state).put(c, next);
+				}
+				state = next;
+			}
+			if (rules.get(state) == NONE) {  //the first of several identical search strings wins
+				rules.set(state, r);
+			}
+		}
+
+		//flatten the trie into edge arrays
+		int stateCount = children.size();
+		edgeStart = new int[stateCount + 1];
+		int edgeCount = 0;
+		for (int s = 0; s < stateCount; s++) {
+			edgeStart[s] = edgeCount;
+			edgeCount += children.get(s).size();
+		}
+		edgeStart[stateCount] = edgeCount;
+		edgeChars = new char[edgeCount];
+		edgeTargets = new int[edgeCount];
+		depth = new int[stateCount];
+		rule = new int[stateCount];
+		for (int s = 0; s < stateCount; s++) {
+			int e = edgeStart[s];
+			for (var entry : children.get(s).entrySet()) {
+				edgeChars[e] = entry.getKey();
+				edgeTargets[e] = entry.getValue();
+				e++;
+			}
+			depth[s] = depths.get(s);
+			rule[s] = rules.get(s);
+		}
+		rootTable = new int[ROOT_TABLE_SIZE];
+		Arrays.fill(rootTable, ROOT);
+		for (int e = edgeStart[ROOT]; e < edgeStart[ROOT + 1]; e++) {
+			if (edgeChars[e] < ROOT_TABLE_SIZE) {
+				rootTable[edgeChars[e]] = edgeTargets[e];
+			}
+		}
+		rulePairs = rulePairs();
+
+		//fail and output links, breadth first
+		fail = new int[stateCount];
+		outputLink = new int[stateCount];
+		outputLink[ROOT] = NONE;
+		Deque<Integer> queue = new ArrayDeque<>();
+		for (int e = edgeStart[ROOT]; e < edgeStart[ROOT + 1]; e++) {
+			fail[edgeTargets[e]] = ROOT;
+			outputLink[edgeTargets[e]] = NONE;
+			queue.add(edgeTargets[e]);
+		}
+		while (!queue.isEmpty()) {
+			int s = queue.poll();
+			for (int e = edgeStart[s]; e < edgeStart[s + 1]; e++) {
+				int target = edgeTargets[e];
+				int f = next(fail[s], edgeChars[e]);
+				fail[target] = f;
+				outputLink[target] = (rule[f] != NONE) ? f : outputLink[f];
+				queue.add(target);
+			}
+		}
+	}
+
+	private ReplacementMatcher(String[] searches, String[] replacements, int[] edgeStart, char[] edgeChars, int[] edgeTargets,
+			int[] fail, int[] depth, int[] rule, int[] outputLink, int[] rootTable) {
+		this.searches = searches;
+		this.replacements = replacements;
+		this.edgeStart = edgeStart;
+		this.edgeChars = edgeChars;
+		this.edgeTargets = edgeTargets;
+		this.fail = fail;
+		this.depth = depth;
+		this.rule = rule;
+		this.outputLink = outputLink;
+		this.rootTable = rootTable;
+		this.rulePairs = rulePairs();
+	}
+
+	/**
+	 * Serializes the rules and the compiled automaton into a snapshot that fromSnapshot() can load without recompiling.
+	 * <p>
+	 * Layout (big-endian): magic, version, source hash, rule count, then each rule's search and replacement as a char count and chars;
+	 * state count, edge count, then the edgeStart, edgeChars, edgeTargets, fail, depth, rule, outputLink and root table arrays.
+	 * @param sourceHash The hash of the rules the matcher was compiled from, SNAPSHOT_HASH_LENGTH bytes
+	 * @return A buffer holding the snapshot, ready to be read
+	 */
+	public ByteBuffer toSnapshot(byte[] sourceHash) {
+		if (sourceHash.length != SNAPSHOT_HASH_LENGTH) {
+			throw new IllegalArgumentException("Source hash must be " + SNAPSHOT_HASH_LENGTH + " bytes");
+		}
+		int stateCount = depth.length;
+		int edgeCount = edgeChars.length;
+		long size = 4 * 3 + SNAPSHOT_HASH_LENGTH + 4 * 2L;
+		for (int r = 0; r < searches.length; r++) {
+			size += 4 * 2 + 2L * searches[r].length() + 2L * (replacements[r] == null ? 0 : replacements[r].length());
+		}
+		size += 4L * (stateCount + 1) + 2L * edgeCount + 4L * edgeCount + 4L * 4 * stateCount + 4L * ROOT_TABLE_SIZE;
+		ByteBuffer snapshot = ByteBuffer.allocate(Math.toIntExact(size));
+		snapshot.putInt(SNAPSHOT_MAGIC).putInt(SNAPSHOT_VERSION).put(sourceHash);
+		snapshot.putInt(searches.length);
+		for (int r = 0; r < searches.length; r++) {
+			putString(snapshot, searches[r]);
+			putString(snapshot, replacements[r]);
+		}
+		snapshot.putInt(stateCount).putInt(edgeCount);
+		putInts(snapshot, edgeStart);
+		snapshot.asCharBuffer().put(edgeChars);
+		snapshot.position(snapshot.position() + 2 * edgeCount);
+		putInts(snapshot, edgeTargets);
+		putInts(snapshot, fail);
+		putInts(snapshot, depth);
+		putInts(snapshot, rule);
+		putInts(snapshot, outputLink);
+		putInts(snapshot, rootTable);
+		return snapshot.flip();
+	}
+
+	/**
+	 * Loads a matcher from a snapshot written by toSnapshot(), such as a memory-mapped snapshot file.
+	 * The arrays are copied out in bulk, so the buffer isn't needed afterwards.
+	 * @param snapshot The snapshot, from its position to its limit; the position is moved past it
+	 * @return The ReplacementMatcher
+	 * @throws IllegalArgumentException If the buffer doesn't hold a snapshot of this version
+	 */
+	public static ReplacementMatcher fromSnapshot(ByteBuffer snapshot) {
+		readSnapshotHash(snapshot);
+		int ruleCount = snapshot.getInt();
+		String[] searches = new String[ruleCount];
+		String[] replacements = new String[ruleCount];
+		for (int r = 0; r < ruleCount; r++) {
+			searches[r] = getString(snapshot);
+			replacements[r] = getString(snapshot);
+		}
+		int stateCount = snapshot.getInt();
+		int edgeCount = snapshot.getInt();
+		int[] edgeStart = getInts(snapshot, stateCount + 1);
+		char[] edgeChars = new char[edgeCount];
+		snapshot.asCharBuffer().get(edgeChars);
+		snapshot.position(snapshot.position() + 2 * edgeCount);
+		int[] edgeTargets = getInts(snapshot, edgeCount);
+		int[] fail = getInts(snapshot, stateCount);
+		int[] depth = getInts(snapshot, stateCount);
+		int[] rule = getInts(snapshot, stateCount);
+		int[] outputLink = getInts(snapshot, stateCount);
+		int[] rootTable = getInts(snapshot, ROOT_TABLE_SIZE);
+		return new ReplacementMatcher(searches, replacements, edgeStart, edgeChars, edgeTargets, fail, depth, rule, outputLink, rootTable);
+	}
+
+	/**
+	 * Reads the header of a snapshot written by toSnapshot(), without loading the rest.
+	 * @param snapshot The snapshot; the position is moved past the header
+	 * @return The hash of the rules the snapshot was compiled from
+	 * @throws IllegalArgumentException If the buffer doesn't hold a snapshot of this version
+	 */
+	public static byte[] readSnapshotHash(ByteBuffer snapshot) {
+		if (snapshot.remaining() < 8 + SNAPSHOT_HASH_LENGTH || snapshot.getInt() != SNAPSHOT_MAGIC) {
+			throw new IllegalArgumentException("Not a rule set snapshot");
+		}
+		int version = snapshot.getInt();
+		if (version != SNAPSHOT_VERSION) {
+			throw new IllegalArgumentException("Snapshot version " + version + " is not supported");
+		}
+		byte[] hash = new byte[SNAPSHOT_HASH_LENGTH];
+		snapshot.get(hash);
+		return hash;
+	}
+
+	private static void putString(ByteBuffer buffer, String string) {
+		if (string == null) {
+			buffer.putInt(NONE);
+			return;
+		}
+		buffer.putInt(string.length());
+		for (int i = 0; i < string.length(); i++) {
+			buffer.putChar(string.charAt(i));
+		}
+	}
+
+	private static String getString(ByteBuffer buffer) {
+		int length = buffer.getInt();
+		if (length == NONE) {
+			return null;
+		}
+		char[] chars = new char[length];
+		buffer.asCharBuffer().get(chars);
+		buffer.position(buffer.position() + 2 * length);
+		return new String(chars);
+	}
+
+	private static void putInts(ByteBuffer buffer, int[] array) {
+		buffer.asIntBuffer().put(array);
+		buffer.position(buffer.position() + 4 * array.length);
+	}
+
+	private static int[] getInts(ByteBuffer buffer, int length) {
+		int[] array = new int[length];
+		buffer.asIntBuffer().get(array);
+		buffer.position(buffer.position() + 4 * length);
+		return array;
+	}
+
+	/**
+	 * Returns the number of rules in this matcher.
+	 * @return The rule count
+	 */
+	public int getRuleCount() {
+		return searches.length;
+	}
+
+	public String getSearch(int rule) {
+		return searches[rule];
+	}
+
+	public String getReplacement(int rule) {
+		return replacements[rule];
+	}
+
+	/**
+	 * Returns a SHA-256 of every rule, in table order, as hex. Matchers compiled from the same table have the same fingerprint.
+	 * @return The fingerprint
+	 */
+	public String getFingerprint() {
+		if (fingerprint == null) {
+			try {
+				MessageDigest digest = MessageDigest.getInstance("SHA-256");
+				for (int r = 0; r < searches.length; r++) {
+					digest.update((searches[r] + '\0' + replacements[r] + '\0').getBytes(StandardCharsets.UTF_8));
+				}
+				StringBuilder hex = new StringBuilder();
+				for (byte b : digest.digest()) {
+					hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+				}
+				fingerprint = hex.toString();
+			} catch (NoSuchAlgorithmException nsae) {
+				throw new IllegalStateException(nsae);  //every JVM has SHA-256
+			}
+		}
+		return fingerprint;
+	}
+
+	/**
+	 * Describes the rules that can take part in replacing a text: each distinct search string that occurs in it, lowercased,
+	 * with the replacement that applies to it, sorted by search string. replaceAll() only ever considers matches it finds,
+	 * so two matchers that describe a text the same way replace it identically, however else their tables differ.
+	 * This lets CaptionCache keep the results for captions that a change to the rules doesn't touch.
+	 * @param text The text to be searched
+	 * @return The description, empty if no rule occurs in the text
+	 */
+	public String describeMatchingRules(CharSequence text) {
+		int[] found = null;
+		int foundCount = 0;
+		int state = ROOT;
+		for (int position = 0; position < text.length(); position++) {
+			state = next(state, Character.toLowerCase(text.charAt(position)));
+			for (int s = (rule[state] != NONE) ? state : outputLink[state]; s != NONE; s = outputLink[s]) {
+				if (found == null) {
+					found = new int[4];
+				}
+				if (indexOf(found, foundCount, rule[s]) < 0) {
+					if (foundCount == found.length) {
+						found = Arrays.copyOf(found, foundCount * 2);
+					}
+					found[foundCount++] = rule[s];
+				}
+			}
+		}
+		if (foundCount == 0) {
+			return "";
+		}
+		RuleDescriptions descriptions = getRuleDescriptions();
+		for (int i = 1; i < foundCount; i++) {  //insertion sort by rank, since only a few rules match any one caption
+			int r = found[i];
+			int j = i - 1;
+			while (j >= 0 && descriptions.rank()[found[j]] > descriptions.rank()[r]) {
+				found[j + 1] = found[j];
+				j--;
+			}
+			found[j + 1] = r;
+		}
+		StringBuilder described = new StringBuilder();
+		for (int i = 0; i < foundCount; i++) {
+			described.append(descriptions.text()[found[i]]);
+		}
+		return described.toString();
+	}
+
+	/**
+	 * Each rule's part of describeMatchingRules(), and its position when the descriptions are sorted.
+	 */
+	private record RuleDescriptions(String[] text, int[] rank) {
+	}
+
+	private RuleDescriptions getRuleDescriptions() {
+		if (ruleDescriptions == null) {  //a race only computes the same thing twice
+			String[] text = new String[searches.length];
+			Integer[] order = new Integer[searches.length];
+			for (int r = 0; r < searches.length; r++) {
+				text[r] = lowercase(searches[r]) + '\0' + replacements[r] + '\0';
+				order[r] = r;
+			}
+			Arrays.sort(order, (a, b) -> text[a].compareTo(text[b]));
+			int[] rank = new int[searches.length];
+			for (int i = 0; i < order.length; i++) {
+				rank[order[i]] = i;
+			}
+			ruleDescriptions = new RuleDescriptions(text, rank);
+		}
+		return ruleDescriptions;
+	}
+
+	private static int indexOf(int[] array, int length, int value) {
+		for (int i = 0; i < length; i++) {
+			if (array[i] == value) {
+				return i;
+			}
+		}
+		return NONE;
+	}
+
+	/**
+	 * Lowercases a String one char at a time, the same way search strings are lowercased into the automaton.
+	 */
+	private static String lowercase(String string) {
+		char[] chars = string.toCharArray();
+		for (int i = 0; i < chars.length; i++) {
+			chars[i] = Character.toLowerCase(chars[i]);
+		}
+		return new String(chars);
+	}
+
+	/**
+	 * Returns whether a search string could start with two specified characters of a text: whether, ignoring case, they begin some
+	 * rule's search string, or the first is a whole search string. A text in which this holds for no two adjacent characters (nor for
+	 * its last character and '\0') can't be changed by replaceAll(). Pairs of ASCII characters are looked up in a table, so
+	 * CaptionFeatures can check every pair while it scans a caption for its other flags.
+	 * @param first A character
+	 * @param second The character after it, or '\0' at the end of the text
+	 * @return A boolean
+	 */
+	public boolean mayStartRule(char first, char second) {
+		if ((first | second) < ROOT_TABLE_SIZE) {
+			int pair = first << 7 | second;
+			return (rulePairs[pair >>> 6] & (1L << pair)) != 0;
+		}
+		return startsRule(first, second);
+	}
+
+	private boolean startsRule(char first, char second) {
+		char c = Character.toLowerCase(first);
+		int state = (c < ROOT_TABLE_SIZE) ? rootTable[c] : child(ROOT, c);
+		if (state == ROOT || state == NONE) {
+			return false;
+		}
+		return rule[state] != NONE || child(state, Character.toLowerCase(second)) != NONE;
+	}
+
+	/**
+	 * Tabulates startsRule() for every pair of ASCII characters, 2KB however many rules there are.
+	 */
+	private long[] rulePairs() {
+		long[] pairs = new long[ROOT_TABLE_SIZE * ROOT_TABLE_SIZE / 64];
+		for (char first = 0; first < ROOT_TABLE_SIZE; first++) {
+			for (char second = 0; second < ROOT_TABLE_SIZE; second++) {
+				if (startsRule(first, second)) {
+					int pair = first << 7 | second;
+					pairs[pair >>> 6] |= 1L << pair;
+				}
+			}
+		}
+		return pairs;
+	}
+
+	/**
+	 * Returns the child of a state along a specified (lowercase) character, or NONE.
+	 */
+	private int child(int state, char c) {
+		int low = edgeStart[state];
+		int high = edgeStart[state + 1] - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			char midChar = edgeChars[mid];
+			if (midChar < c) low = mid + 1;
+			else if (midChar > c) high = mid - 1;
+			else return edgeTargets[mid];
+		}
+		return NONE;
+	}
+
+	/**
+	 * Returns the state reached from a specified state on a (lowercase) character, following fail links as needed.
+	 */
+	private int next(int state, char c) {
+		while (state != ROOT) {
+			int target = child(state, c);
+			if (target != NONE) {
+				return target;
+			}
+			state = fail[state];
+		}
+		if (c < ROOT_TABLE_SIZE) {
+			return rootTable[c];
+		}
+		int target = child(ROOT, c);
+		return (target == NONE) ? ROOT : target;
+	}
+
+	/**
+	 * Appends a copy of the specified text to a StringBuilder with every rule applied in one scan.
+	 * @param text The text to be searched
+	 * @param out The StringBuilder the replaced text is appended to
+	 * @param ruleHits Per-rule replacement counts to be incremented, indexed like the replacement table; may be null
+	 * @return The number of replacements performed
+	 */
+	public int replaceAll(CharSequence text, StringBuilder out, int[] ruleHits) {
+		int replacementsPerformed = 0;
+		int length = text.length();
+		int copied = 0;  //text before this index has already been appended
+		int state = ROOT;
+		int position = 0;
+		int matchStart = NONE;  //best match found so far that hasn't been applied yet
+		int matchEnd = NONE;
+		int matchRule = NONE;
+
+		while (true) {
+			if (position < length) {
+				state = next(state, Character.toLowerCase(text.charAt(position)));
+				position++;
+				int s = (rule[state] != NONE) ? state : outputLink[state];
+				while (s != NONE) {  //every rule ending here, longest first
+					int start = position - depth[s];
+					if (matchStart == NONE || start < matchStart || (start == matchStart && position > matchEnd)) {
+						matchStart = start;
+						matchEnd = position;
+						matchRule = rule[s];
+					}
+					s = outputLink[s];
+				}
+				if (matchStart == NONE || position - depth[state] <= matchStart) {
+					continue;  //a longer match starting no later than the best one may still be in progress
+				}
+			}
+			else if (matchStart == NONE) {
+				break;
+			}
+			//no better match is possible, so apply the best one and resume scanning after it
+			out.append(text, copied, matchStart).append(replacements[matchRule]);
+			copied = matchEnd;
+			position = matchEnd;
+			state = ROOT;
+			if (ruleHits != null) ruleHits[matchRule]++;
+			replacementsPerformed++;
+			matchStart = NONE;
+		}
+		out.append(text, copied, length);
+		return replacementsPerformed;
+	}
+
+}
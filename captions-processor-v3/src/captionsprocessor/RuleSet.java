@@ -0,0 +1,233 @@
+package captionsprocessor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A table of search/replace rules loaded from a text file, so each department can keep its own dictionary instead of the table in main().
+ * <p>
+ * Each line of a rules file holds a search string, a tab and its replacement, which may be empty. Spaces are kept exactly as written;
+ * "\s" also stands for a space, for spaces at the end of a line that editors might strip, and "\t", "\n" and "\\" stand for a tab,
+ * a line break and a backslash. Blank lines and lines starting with # are ignored.
+ * Files are read as UTF-8, and rules apply in file order as in CaptionsProcessor.multipleReplace().
+ * <p>
+ * Compiling a large table takes longer than processing a short file, so loadMatcher() keeps the compiled ReplacementMatcher in a snapshot file
+ * next to the rules and memory-maps it on later runs, compiling again only when the SHA-256 of the rules file no longer matches the snapshot.
+ * <p>
+ * Usage: RuleSet RULES_FILE [SNAPSHOT_FILE] (compiles the rules and writes the snapshot ahead of time)
+ */
+public final class RuleSet {
+
+	private static final String SNAPSHOT_SUFFIX = ".snapshot";
+	private static final String COMMENT = "#";
+	private static final char SEPARATOR = '\t';
+
+	private final String[][] replacements;
+	private final byte[] sourceHash;
+
+	private RuleSet(String[][] replacements, byte[] sourceHash) {
+		this.replacements = replacements;
+		this.sourceHash = sourceHash;
+	}
+
+	/**
+	 * Reads and parses a rules file.
+	 * @param path The rules file
+	 * @return The RuleSet
+	 * @throws IOException If the file can't be read
+	 * @throws IllegalArgumentException If a line has no tab or an empty search string
+	 */
+	public static RuleSet read(Path path) throws IOException {
+		byte[] bytes = Files.readAllBytes(path);
+		return parse(path.toString(), new String(bytes, StandardCharsets.UTF_8), sha256(bytes));
+	}
+
+	/**
+	 * Parses the text of a rules file.
+	 * @param source A name for the rules, for error messages
+	 * @param text The text of the rules file
+	 * @param sourceHash The SHA-256 of the file's bytes
+	 * @return The RuleSet
+	 */
+	static RuleSet parse(String source, String text, byte[] sourceHash) {
+		List<String[]> rules = new ArrayList<>();
+		String[] lines = text.split("\r\n|\r|\n");
+		for (int i = 0; i < lines.length; i++) {
+			String line = lines[i];
+			if (line.isBlank() || line.startsWith(COMMENT)) {
+				continue;
+			}
+			int separator = line.indexOf(SEPARATOR);
+			if (separator <= 0) {
+				throw new IllegalArgumentException(source + ":" + (i + 1) + ": expected a search string, a tab and a replacement");
+			}
+			String[] rule = new String[2];
+			rule[CaptionsProcessor.SEARCH] = unescape(line.substring(0, separator));
+			rule[CaptionsProcessor.REPLACE] = unescape(line.substring(separator + 1));
+			rules.add(rule);
+		}
+		return new RuleSet(rules.toArray(new String[0][]), sourceHash);
+	}
+
+	private static String unescape(String field) {
+		if (field.indexOf('\\') < 0) {
+			return field;
+		}
+		StringBuilder unescaped = new StringBuilder(field.length());
+		for (int i = 0; i < field.length(); i++) {
+			char c = field.charAt(i);
+			if (c == '\\' && i + 1 < field.length()) {
+				char escaped = field.charAt(++i);
+				switch (escaped) {
+				case 's' -> unescaped.append(' ');
+				case 't' -> unescaped.append('\t');
+				case 'n' -> unescaped.append('\n');
+				case '\\' -> unescaped.append('\\');
+				default -> unescaped.append(c).append(escaped);  //not an escape
+				}
+			}
+			else {
+				unescaped.append(c);
+			}
+		}
+		return unescaped.toString();
+	}
+
+	/**
+	 * Returns the rules as a replacement table, in the form CaptionsProcessor.multipleReplace() takes.
+	 * @return A copy of the table
+	 */
+	public String[][] getReplacements() {
+		String[][] copy = new String[replacements.length][];
+		for (int i = 0; i < replacements.length; i++) {
+			copy[i] = replacements[i].clone();
+		}
+		return copy;
+	}
+
+	public int size() {
+		return replacements.length;
+	}
+
+	public byte[] getSourceHash() {
+		return sourceHash.clone();
+	}
+
+	/**
+	 * Compiles the rules into a ReplacementMatcher, without touching any snapshot.
+	 * @return The ReplacementMatcher
+	 */
+	public ReplacementMatcher compile() {
+		return new ReplacementMatcher(replacements);
+	}
+
+	/**
+	 * Returns the SHA-256 of a file's contents.
+	 * @param path The file to be hashed
+	 * @return The 32-byte hash
+	 * @throws IOException If the file can't be read
+	 */
+	public static byte[] hash(Path path) throws IOException {
+		return sha256(Files.readAllBytes(path));
+	}
+
+	private static byte[] sha256(byte[] bytes) {
+		try {
+			return MessageDigest.getInstance("SHA-256").digest(bytes);
+		} catch (NoSuchAlgorithmException nsae) {
+			throw new IllegalStateException(nsae);  //every JVM has SHA-256
+		}
+	}
+
+	/**
+	 * Returns where loadMatcher() keeps the snapshot of a rules file by default: beside it, with ".snapshot" appended to its name.
+	 * @param rules The rules file
+	 * @return The snapshot file
+	 */
+	public static Path snapshotPath(Path rules) {
+		return rules.resolveSibling(rules.getFileName() + SNAPSHOT_SUFFIX);
+	}
+
+	/**
+	 * Loads the compiled matcher for a rules file from its snapshot, first compiling the rules and replacing the snapshot if it's missing,
+	 * unreadable or was compiled from a different version of the file.
+	 * @param rules The rules file
+	 * @param snapshot The snapshot file
+	 * @return The ReplacementMatcher
+	 * @throws IOException If the rules file can't be read or the snapshot can't be written
+	 */
+	public static ReplacementMatcher loadMatcher(Path rules, Path snapshot) throws IOException {
+		return loadMatcher(rules, snapshot, hash(rules));
+	}
+
+	/**
+	 * As loadMatcher(rules, snapshot), for a rules file whose hash is already known.
+	 */
+	static ReplacementMatcher loadMatcher(Path rules, Path snapshot, byte[] rulesHash) throws IOException {
+		ReplacementMatcher matcher = readSnapshot(snapshot, rulesHash);
+		if (matcher != null) {
+			return matcher;
+		}
+		RuleSet ruleSet = read(rules);
+		matcher = ruleSet.compile();
+		writeSnapshot(matcher, ruleSet.sourceHash, snapshot);
+		return matcher;
+	}
+
+	/**
+	 * Memory-maps a snapshot and loads it if it was compiled from rules with a specified hash.
+	 * @return The ReplacementMatcher, or null if the snapshot is missing, unreadable or out of date
+	 */
+	private static ReplacementMatcher readSnapshot(Path snapshot, byte[] rulesHash) {
+		if (!Files.isRegularFile(snapshot)) {
+			return null;
+		}
+		try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+			ByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (!Arrays.equals(ReplacementMatcher.readSnapshotHash(bytes.duplicate()), rulesHash)) {
+				return null;
+			}
+			return ReplacementMatcher.fromSnapshot(bytes);
+		} catch (IOException | RuntimeException e) {  //a damaged or foreign snapshot is simply compiled again
+			return null;
+		}
+	}
+
+	/**
+	 * Writes a snapshot through a temporary file in the same directory, then moves it into place atomically,
+	 * so a process loading the snapshot at the same time never sees half of it.
+	 */
+	private static void writeSnapshot(ReplacementMatcher matcher, byte[] sourceHash, Path snapshot) throws IOException {
+		AtomicFiles.write(snapshot, matcher.toSnapshot(sourceHash), true);
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Usage: RuleSet RULES_FILE [SNAPSHOT_FILE]");
+			System.exit(2);
+		}
+		Path rules = Path.of(args[0]);
+		Path snapshot = args.length > 1 ? Path.of(args[1]) : snapshotPath(rules);
+		long start = System.nanoTime();
+		RuleSet ruleSet = read(rules);
+		ReplacementMatcher matcher = ruleSet.compile();
+		long compiled = System.nanoTime();
+		writeSnapshot(matcher, ruleSet.sourceHash, snapshot);
+		long loadStart = System.nanoTime();
+		loadMatcher(rules, snapshot);
+		long loaded = System.nanoTime();
+		System.out.format("%d rules compiled in %.1f ms; snapshot %s loads in %.1f ms%n",
+				ruleSet.size(), (compiled - start) / 1e6, snapshot, (loaded - loadStart) / 1e6);
+	}
+
+}
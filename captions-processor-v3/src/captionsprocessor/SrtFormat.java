@@ -0,0 +1,64 @@
+package captionsprocessor;
+
+/**
+ * The SubRip (.srt) layout: a caption number line, a timing line, the content lines and a blank line, with no header.
+ * Parsed by CaptionParser, following the rules of CaptionsProcessor.listToCaptions(). Timing lines are written with their two times
+ * only: anything read after the end time, such as WebVTT cue settings, isn't valid SubRip and is dropped. Timing lines whose end
+ * time can't be parsed are written as they were read, since where their settings start can't be told.
+ */
+final class SrtFormat implements CaptionFormat {
+
+	@Override
+	public String getName() {
+		return "srt";
+	}
+
+	@Override
+	public String getExtension() {
+		return ".srt";
+	}
+
+	@Override
+	public Parser newParser(StringPool strings) {
+		return new CaptionParser(strings);
+	}
+
+	@Override
+	public void appendHeader(StringBuilder out) {
+	}
+
+	@Override
+	public void appendCaption(StringBuilder out, Caption caption) {
+		out.append(caption.getNumber()).append('\n');
+		appendTimes(out, caption.getTiming());
+		out.append('\n').append(caption.getContent()).append('\n').append('\n');
+	}
+
+	@Override
+	public void appendCaption(StringBuilder out, CaptionStore store, int index) {
+		out.append(store.getNumber(index)).append('\n');
+		int start = store.getStartMillis(index);
+		if (start == Timing.UNPARSED) {
+			appendTimes(out, store.getTiming(index));
+		}
+		else {
+			Timing.append(out, start, store.getEndMillis(index));
+		}
+		out.append('\n');
+		store.appendContent(index, out);
+		out.append('\n').append('\n');
+	}
+
+	/**
+	 * Appends a timing line without anything after its end time, or as it is if it has no end time that parses.
+	 */
+	private static void appendTimes(StringBuilder out, String timing) {
+		out.append(timing, 0, (Timing.parseEnd(timing) == Timing.UNPARSED) ? timing.length() : Timing.settingsStart(timing));
+	}
+
+	@Override
+	public String toString() {
+		return "SubRip";
+	}
+
+}
@@ -0,0 +1,101 @@
+package captionsprocessor;
+
+/**
+ * A single editing operation on caption content, run by a Pipeline on one caption at a time.
+ * Stages edit a shared StringBuilder in place, so any number of them can be chained without copying the content between them.
+ */
+public interface Stage {
+
+	/**
+	 * Returns a short identifying name for this stage, such as "removeMultipleSpaces".
+	 * @return The stage name
+	 */
+	String getName();
+
+	/**
+	 * Returns the console summary for this stage after it has performed a specified number of edits.
+	 * @param count The number of edits performed
+	 * @return The summary String
+	 */
+	String describe(int count);
+
+	/**
+	 * Edits the content of a single caption in place.
+	 * @param content The content of the current caption
+	 * @return The number of edits performed, counted the same way as the corresponding CaptionsProcessor method
+	 */
+	int process(StringBuilder content);
+
+	/**
+	 * Edits the content of a single caption in place, given what a scan of it found, so the stage can return early when the features
+	 * show it would leave the content unchanged. By default, the features are ignored. A stage that changes the content must either
+	 * return a count above zero or change its length, so that the Pipeline knows its features may have changed.
+	 * @param content The content of the current caption
+	 * @param features The CaptionFeatures flags of the content, at least those getFeatures() returns; a flag may be set without
+	 * the feature being present, but not the reverse
+	 * @return The number of edits performed, the same as process(content) would return
+	 */
+	default int process(StringBuilder content, int features) {
+		return process(content);
+	}
+
+	/**
+	 * Returns the CaptionFeatures flags this stage consults in process(content, features), so the Pipeline only scans for features
+	 * some stage will use. Stages that consult none return 0, and are given CaptionFeatures.ALL.
+	 * @return The flags
+	 */
+	default int getFeatures() {
+		return 0;
+	}
+
+	/**
+	 * Returns the CaptionFeatures flags this stage's edits never set: content without the feature before the stage has none after it,
+	 * so the Pipeline needn't scan again for the feature on account of this stage. By default none, as for a stage that can insert text.
+	 * @return The flags
+	 */
+	default int getFeaturesKeptClear() {
+		return 0;
+	}
+
+	/**
+	 * Forgets any state carried over from previous captions, before a new file is processed.
+	 */
+	default void reset() {
+	}
+
+	/**
+	 * Returns the state this stage carries over from one caption to the next, such as whether the last caption ended a sentence.
+	 * Stages that treat each caption independently return null. The state must implement equals().
+	 * @return An immutable snapshot of the carried state
+	 */
+	default Object getState() {
+		return null;
+	}
+
+	/**
+	 * Restores state previously returned by getState(), so that processing continues as if the captions before it had just been processed.
+	 * @param state The state to be restored
+	 */
+	default void setState(Object state) {
+	}
+
+	/**
+	 * Returns whether this stage carries state from one caption to the next, so that its output can't be cached by input alone.
+	 * By default, a stage is stateful if getState() returns anything.
+	 * @return Whether the stage is stateful
+	 */
+	default boolean isStateful() {
+		return getState() != null;
+	}
+
+	/**
+	 * Returns what this stage's output depends on besides its input, for keying CaptionCache entries: by default, just its name.
+	 * Stages configured with data, such as a table of rules, include it, or only the part of it that can affect the given input.
+	 * @param input The text this stage will be given, or null if it isn't known in advance
+	 * @return The version String
+	 */
+	default String getCacheVersion(CharSequence input) {
+		return getName();
+	}
+
+}
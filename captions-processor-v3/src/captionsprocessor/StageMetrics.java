@@ -0,0 +1,30 @@
+package captionsprocessor;
+
+/**
+ * What one Stage of a Pipeline did over a run: time spent in it, captions it saw and changed, edits it made,
+ * characters of content going in and coming out, and an estimate of the bytes it allocated.
+ * Allocation is measured per thread with com.sun.management.ThreadMXBean, and is -1 where the JVM doesn't support it.
+ */
+public record StageMetrics(String stage, long nanos, int captions, int captionsTouched, int edits, long charsIn, long charsOut, long bytesAllocated) {
+
+	/**
+	 * Returns the combined metrics of this stage and another run of the same stage, such as another chunk of the same file.
+	 * @param other The metrics to be added
+	 * @return The combined StageMetrics
+	 */
+	public StageMetrics plus(StageMetrics other) {
+		long allocated = (bytesAllocated < 0 || other.bytesAllocated < 0) ? -1 : bytesAllocated + other.bytesAllocated;
+		return new StageMetrics(stage, nanos + other.nanos, captions + other.captions, captionsTouched + other.captionsTouched,
+				edits + other.edits, charsIn + other.charsIn, charsOut + other.charsOut, allocated);
+	}
+
+	/**
+	 * Returns these metrics as a JSON object.
+	 * @return The JSON text
+	 */
+	public String toJson() {
+		return "{\"stage\":" + Json.quote(stage) + ",\"nanos\":" + nanos + ",\"captions\":" + captions + ",\"captionsTouched\":" + captionsTouched
+				+ ",\"edits\":" + edits + ",\"charsIn\":" + charsIn + ",\"charsOut\":" + charsOut + ",\"bytesAllocated\":" + bytesAllocated + "}";
+	}
+
+}
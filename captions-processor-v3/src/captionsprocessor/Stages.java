@@ -0,0 +1,684 @@
+package captionsprocessor;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * The built-in Stages, each equivalent to the CaptionsProcessor method of the same name applied to a single caption.
+ */
+public final class Stages {
+
+	private static final int FIRST_CHARACTER = 0;
+	private static final String TRAILING_PUNCTUATION = ".,?!;:";
+	private static final String SENTENCE_END = ".?!";
+	private static final int MIN_PLURAL_STEM = 3;  //so "a"/"as" and "i"/"is" aren't taken for plurals
+
+	/**
+	 * Words that are often doubled on purpose ("had had", "that that"), so the duplicate word stages leave them alone by default.
+	 */
+	public static final Set<String> DEFAULT_STOP_WORDS = Set.of("that", "had");
+
+	private Stages() {
+	}
+
+	/**
+	 * Applies a compiled set of replacement rules. See CaptionsProcessor.multipleReplace().
+	 */
+	public static final class Replace implements Stage {
+
+		private final ReplacementMatcher matcher;
+		private final int[] ruleHits;
+		private final StringBuilder replaced = new StringBuilder();
+
+		public Replace(ReplacementMatcher matcher) {
+			this.matcher = matcher;
+			this.ruleHits = new int[matcher.getRuleCount()];
+		}
+
+		/**
+		 * Returns the number of replacements each rule has performed since the last reset.
+		 * @return Replacement counts indexed like the replacement table
+		 */
+		public int[] getRuleHits() {
+			return ruleHits.clone();
+		}
+
+		@Override
+		public String getName() {
+			return "multipleReplace";
+		}
+
+		@Override
+		public String describe(int count) {
+			return "Performing multiple content replacements... " + count + " total replacements performed";
+		}
+
+		ReplacementMatcher getMatcher() {
+			return matcher;
+		}
+
+		@Override
+		public int process(StringBuilder content) {
+			return process(content, CaptionFeatures.ALL);
+		}
+
+		@Override
+		public int getFeatures() {
+			return CaptionFeatures.RULE_PREFIX;
+		}
+
+		@Override
+		public int process(StringBuilder content, int features) {
+			if ((features & CaptionFeatures.RULE_PREFIX) == 0) {
+				return 0;  //no search string starts anywhere in the content
+			}
+			replaced.setLength(0);
+			int replacementsPerformed = matcher.replaceAll(content, replaced, ruleHits);
+			if (replacementsPerformed > 0) {
+				CaptionsProcessor.removeSpacesBeforePunctuation(replaced);
+				CaptionsProcessor.trim(replaced);
+				content.setLength(0);
+				content.append(replaced);
+			}
+			return replacementsPerformed;
+		}
+
+		@Override
+		public void reset() {
+			Arrays.fill(ruleHits, 0);
+		}
+
+		/**
+		 * Given its input, only the rules that occur in it are included, so editing a rule only invalidates the captions it could match.
+		 */
+		@Override
+		public String getCacheVersion(CharSequence input) {
+			return getName() + (input == null ? "#" + matcher.getFingerprint() : "=" + matcher.describeMatchingRules(input));
+		}
+	}
+
+	/**
+	 * Removes stuttered words: a word is dropped when the word after it repeats it (see isRepeat()), so a run such as "I I I think"
+	 * collapses to its last occurrence. See CaptionsProcessor.removeDuplicateWords().
+	 * Words are compared and moved within the content buffer, one word behind the cursor, in a single pass.
+	 */
+	public static final class RemoveDuplicateWords implements Stage {
+
+		private final WordCursor words = new WordCursor();
+		private final Set<String> stopWords;
+
+		public RemoveDuplicateWords() {
+			this(DEFAULT_STOP_WORDS);
+		}
+
+		/**
+		 * @param stopWords Words that are never removed as repeats, such as "had" in "had had"
+		 */
+		public RemoveDuplicateWords(Set<String> stopWords) {
+			this.stopWords = lowercase(stopWords);
+		}
+
+		@Override
+		public String getName() {
+			return "removeDuplicateWords";
+		}
+
+		@Override
+		public String describe(int count) {
+			return "Removing duplicate words... " + count + " duplicates removed";
+		}
+
+		@Override
+		public int process(StringBuilder content) {
+			int duplicatesRemoved = 0;
+			int written = 0;  //kept words are moved towards the front, never over a word that hasn't been read
+			boolean emitted = false;
+			int pendingStart = -1;  //the word waiting to be compared with the next one, if any
+			int pendingEnd = -1;
+			words.reset(content);
+			while (words.next()) {
+				int start = words.start();
+				int end = words.end();
+				if (pendingStart >= 0) {
+					if (isRepeat(content, pendingStart, pendingEnd, content, start, end, stopWords)) {
+						duplicatesRemoved++;  //drop the earlier word; the later one is compared with the word after it in turn
+					}
+					else {
+						written = emit(content, written, emitted, pendingStart, pendingEnd, false);
+						emitted = true;
+					}
+				}
+				pendingStart = start;
+				pendingEnd = end;
+			}
+			if (pendingStart >= 0) {
+				written = emit(content, written, emitted, pendingStart, pendingEnd, false);
+			}
+			content.setLength(written);
+			CaptionsProcessor.trim(content);
+			return duplicatesRemoved;
+		}
+
+		@Override
+		public String getCacheVersion(CharSequence input) {
+			return getName() + new TreeSet<>(stopWords);
+		}
+	}
+
+	/**
+	 * Removes words at the start of a caption that repeat the last word of the caption before, as RemoveDuplicateWords does within
+	 * a caption, for stutters that fall on a caption break ("the | the"). The earlier caption is left alone, since a streaming Pipeline
+	 * has already passed it on. A caption's last remaining word is never removed.
+	 */
+	public static final class RemoveDuplicateWordsAcrossCaptions implements Stage {
+
+		private final Set<String> stopWords;
+		private final StringBuilder lastWord = new StringBuilder();  //of the previous caption, or empty
+
+		private record State(String lastWord) {
+		}
+
+		public RemoveDuplicateWordsAcrossCaptions() {
+			this(DEFAULT_STOP_WORDS);
+		}
+
+		/**
+		 * @param stopWords Words that are never removed as repeats
+		 */
+		public RemoveDuplicateWordsAcrossCaptions(Set<String> stopWords) {
+			this.stopWords = lowercase(stopWords);
+		}
+
+		@Override
+		public String getName() {
+			return "removeDuplicateWordsAcrossCaptions";
+		}
+
+		@Override
+		public String describe(int count) {
+			return "Removing duplicate words across captions... " + count + " duplicates removed";
+		}
+
+		@Override
+		public int process(StringBuilder content) {
+			int duplicatesRemoved = 0;
+			int keptFrom = 0;
+			int length = content.length();
+			if (lastWord.length() > 0) {
+				while (true) {
+					int start = skipWhitespace(content, keptFrom);
+					int end = start;
+					while (end < length && !Character.isWhitespace(content.charAt(end))) {
+						end++;
+					}
+					if (start == end || skipWhitespace(content, end) == length || !isRepeat(lastWord, 0, lastWord.length(), content, start, end, stopWords)) {
+						break;
+					}
+					duplicatesRemoved++;
+					keptFrom = end;
+				}
+			}
+			if (duplicatesRemoved > 0) {
+				content.delete(0, keptFrom);
+				CaptionsProcessor.trim(content);
+			}
+			int end = content.length();
+			while (end > 0 && Character.isWhitespace(content.charAt(end - 1))) {
+				end--;
+			}
+			int start = end;
+			while (start > 0 && !Character.isWhitespace(content.charAt(start - 1))) {
+				start--;
+			}
+			lastWord.setLength(0);
+			lastWord.append(content, start, end);
+			return duplicatesRemoved;
+		}
+
+		private static int skipWhitespace(CharSequence content, int index) {
+			while (index < content.length() && Character.isWhitespace(content.charAt(index))) {
+				index++;
+			}
+			return index;
+		}
+
+		@Override
+		public void reset() {
+			lastWord.setLength(0);
+		}
+
+		@Override
+		public Object getState() {
+			return new State(lastWord.toString());
+		}
+
+		@Override
+		public void setState(Object state) {
+			lastWord.setLength(0);
+			lastWord.append(((State) state).lastWord());
+		}
+	}
+
+	/**
+	 * Collapses runs of spaces into one space. See CaptionsProcessor.removeMultipleSpaces().
+	 */
+	public static final class RemoveMultipleSpaces implements Stage {
+
+		@Override
+		public String getName() {
+			return "removeMultipleSpaces";
+		}
+
+		@Override
+		public String describe(int count) {
+			return "Removing multiple spaces... " + count + " extra spaces removed";
+		}
+
+		@Override
+		public int process(StringBuilder content) {
+			return process(content, CaptionFeatures.ALL);
+		}
+
+		@Override
+		public int getFeatures() {
+			return CaptionFeatures.DOUBLE_SPACE | CaptionFeatures.EDGE_WHITESPACE;
+		}
+
+		@Override
+		public int getFeaturesKeptClear() {
+			return CaptionFeatures.ALL;
+		}
+
+		@Override
+		public int process(StringBuilder content, int features) {
+			if ((features & (CaptionFeatures.DOUBLE_SPACE | CaptionFeatures.EDGE_WHITESPACE)) == 0) {
+				return 0;
+			}
+			int length = content.length();
+			int kept = 0;
+			for (int i = 0; i < length; i++) {
+				char c = content.charAt(i);
+				if (c == ' ' && i + 1 < length && content.charAt(i + 1) == ' ') {  //drop every space that's followed by another
+					continue;
+				}
+				content.setCharAt(kept++, c);
+			}
+			content.setLength(kept);
+			CaptionsProcessor.trim(content);
+			return length - kept;
+		}
+	}
+
+	/**
+	 * Trims whitespace from both ends of the content. See CaptionsProcessor.trimTrailingSpaces().
+	 */
+	public static final class TrimTrailingSpaces implements Stage {
+
+		@Override
+		public String getName() {
+			return "trimTrailingSpaces";
+		}
+
+		@Override
+		public String describe(int count) {
+			return "Removing trailing spaces... " + count + " successful trims performed";
+		}
+
+		@Override
+		public int process(StringBuilder content) {
+			return CaptionsProcessor.trim(content) ? 1 : 0;
+		}
+
+		@Override
+		public int getFeatures() {
+			return CaptionFeatures.EDGE_WHITESPACE;
+		}
+
+		@Override
+		public int getFeaturesKeptClear() {
+			return CaptionFeatures.ALL;
+		}
+
+		@Override
+		public int process(StringBuilder content, int features) {
+			return ((features & CaptionFeatures.EDGE_WHITESPACE) == 0) ? 0 : process(content);
+		}
+	}
+
+	/**
+	 * Lowercases words that aren't acronyms or "I"/"I'll". See CaptionsProcessor.decapitalize().
+	 */
+	public static final class Decapitalize implements Stage {
+
+		private final WordCursor words = new WordCursor();
+
+		@Override
+		public String getName() {
+			return "decapitalize";
+		}
+
+		@Override
+		public String describe(int count) {
+			return "Decapitalizing unecessary words... " + count + " decapitalizations performed";
+		}
+
+		@Override
+		public int process(StringBuilder content) {
+			return process(content, CaptionFeatures.ALL);
+		}
+
+		@Override
+		public int getFeatures() {
+			return CaptionFeatures.UPPERCASE | CaptionFeatures.DOUBLE_SPACE | CaptionFeatures.EDGE_WHITESPACE;
+		}
+
+		/**
+		 * Words are only lowercased, or dropped along with the spaces around them, so no character pair is new.
+		 */
+		@Override
+		public int getFeaturesKeptClear() {
+			return CaptionFeatures.ALL;
+		}
+
+		/**
+		 * Content that's already lowercase, single-spaced and trimmed is left as it is, but every word is still counted,
+		 * as CaptionsProcessor.decapitalize() counts words that were already lowercase.
+		 */
+		@Override
+		public int process(StringBuilder content, int features) {
+			if ((features & (CaptionFeatures.UPPERCASE | CaptionFeatures.DOUBLE_SPACE | CaptionFeatures.EDGE_WHITESPACE)) == 0) {
+				return countWords(content);
+			}
+			int decapitalizationsPerformed = 0;
+			int written = 0;
+			words.reset(content);
+			while (words.next()) {
+				int start = words.start();
+				int end = words.end();
+				if (Caption.isAllCaps(content, start, end) || words.is("I") || words.is("I'll")) {  //as in CaptionsProcessor.decapitalize(), these words are left out
+					continue;
+				}
+				written = emit(content, written, decapitalizationsPerformed > 0, start, end, true);
+				decapitalizationsPerformed++;
+			}
+			content.setLength(written);
+			CaptionsProcessor.trim(content);
+			return decapitalizationsPerformed;
+		}
+
+		private static int countWords(CharSequence content) {
+			if (content.length() == 0) {
+				return 0;
+			}
+			int words = 1;
+			for (int i = 0; i < content.length(); i++) {
+				if (content.charAt(i) == ' ') {
+					words++;
+				}
+			}
+			return words;
+		}
+	}
+
+	/**
+	 * Corrects words that are within a few edits of a single term of a Vocabulary, such as a misheard course name, to that term.
+	 * Runs after Decapitalize, so terms with capitals keep them. Trailing punctuation is kept, and everything else is left as it was.
+	 * The outcome for each word is also kept in a small table that's looked up without creating a String, so the words that recur
+	 * within a file cost next to nothing after their first lookup.
+	 */
+	public static final class CorrectTerms implements Stage {
+
+		private static final int CACHE_SIZE = 1 << 12;  //a power of two; a word replaces any other with the same slot
+
+		private final Vocabulary vocabulary;
+		private final WordCursor words = new WordCursor();
+		private final StringBuilder corrected = new StringBuilder();
+		private final String[] cachedWords = new String[CACHE_SIZE];  //lowercase
+		private final int[] cachedTerms = new int[CACHE_SIZE];
+
+		public CorrectTerms(Vocabulary vocabulary) {
+			this.vocabulary = vocabulary;
+		}
+
+		@Override
+		public String getName() {
+			return "correctTerms";
+		}
+
+		@Override
+		public String describe(int count) {
+			return "Correcting vocabulary terms... " + count + " corrections performed";
+		}
+
+		@Override
+		public int process(StringBuilder content) {
+			int correctionsPerformed = 0;
+			int copied = 0;  //content before this index is already in corrected
+			corrected.setLength(0);
+			words.reset(content);
+			while (words.next()) {
+				int start = words.start();
+				int stem = stripPunctuation(content, start, words.end());
+				int term = find(content, start, stem);
+				if (term == Vocabulary.NO_MATCH) {
+					continue;
+				}
+				int from = corrected.length();
+				corrected.append(content, copied, start);
+				int termStart = corrected.length();
+				vocabulary.appendTerm(term, content, start, stem, corrected);
+				if (Caption.regionEquals(corrected, termStart, corrected.length(), content, start, stem, false)) {
+					corrected.setLength(from);  //already written as the term
+					continue;
+				}
+				copied = stem;
+				correctionsPerformed++;
+			}
+			if (correctionsPerformed > 0) {
+				corrected.append(content, copied, content.length());
+				content.setLength(0);
+				content.append(corrected);
+			}
+			return correctionsPerformed;
+		}
+
+		private int find(CharSequence content, int start, int end) {
+			int hash = 0;
+			for (int i = start; i < end; i++) {
+				hash = 31 * hash + Character.toLowerCase(content.charAt(i));
+			}
+			int slot = (hash ^ (hash >>> 16)) & (CACHE_SIZE - 1);
+			String cached = cachedWords[slot];
+			if (cached != null && Caption.regionEquals(cached, 0, cached.length(), content, start, end, true)) {
+				return cachedTerms[slot];
+			}
+			int term = vocabulary.find(content, start, end);
+			cachedWords[slot] = content.subSequence(start, end).toString().toLowerCase();
+			cachedTerms[slot] = term;
+			return term;
+		}
+
+		@Override
+		public String getCacheVersion(CharSequence input) {
+			return getName() + "#" + vocabulary.getFingerprint();
+		}
+	}
+
+	/**
+	 * Capitalizes the first letter of each sentence, carrying sentence ends over from one caption to the next.
+	 * See CaptionsProcessor.capitalizeFirstLetters().
+	 */
+	public static final class CapitalizeFirstLetters implements Stage {
+
+		private boolean firstCaption = true;
+		private boolean nextShouldCapitalize = false;
+
+		private record State(boolean firstCaption, boolean nextShouldCapitalize) {
+		}
+
+		@Override
+		public String getName() {
+			return "capitalizeFirstLetters";
+		}
+
+		@Override
+		public String describe(int count) {
+			return "Auto-capitalizing sentences... " + count + " capitalizations performed";
+		}
+
+		@Override
+		public int process(StringBuilder content) {
+			return process(content, CaptionFeatures.ALL);
+		}
+
+		@Override
+		public int getFeatures() {
+			return CaptionFeatures.SENTENCE_END;
+		}
+
+		/**
+		 * Uppercasing a character may make it lowercase to another (a dotless i becomes 'I', then 'i'), so rule prefixes aren't kept clear.
+		 */
+		@Override
+		public int getFeaturesKeptClear() {
+			return CaptionFeatures.ALL & ~(CaptionFeatures.UPPERCASE | CaptionFeatures.RULE_PREFIX);
+		}
+
+		@Override
+		public int process(StringBuilder content, int features) {
+			int capitalizationsPerformed = 0;
+			int length = content.length();
+			if (length != 0 && (nextShouldCapitalize || firstCaption)) {  //if we're sure it's supposed to be a new sentence, or it's the first caption of the file
+				content.setCharAt(FIRST_CHARACTER, Character.toUpperCase(content.charAt(FIRST_CHARACTER)));
+				capitalizationsPerformed++;
+			}
+			for (int i = 0; i + 2 < length && (features & CaptionFeatures.SENTENCE_END) != 0; i++) {
+				if (content.charAt(i) == '.' && content.charAt(i + 1) == ' ') {  //capitalize the character after each ". "
+					content.setCharAt(i + 2, Character.toUpperCase(content.charAt(i + 2)));
+					capitalizationsPerformed++;
+				}
+			}
+			CaptionsProcessor.trim(content);
+			if (content.length() > 0) {
+				char lastCharacter = content.charAt(content.length() - 1);
+				nextShouldCapitalize = (lastCharacter == '.' || lastCharacter == '?');
+			}
+			firstCaption = false;
+			return capitalizationsPerformed;
+		}
+
+		@Override
+		public void reset() {
+			firstCaption = true;
+			nextShouldCapitalize = false;
+		}
+
+		@Override
+		public Object getState() {
+			return new State(firstCaption, nextShouldCapitalize);
+		}
+
+		@Override
+		public void setState(Object state) {
+			State carried = (State) state;
+			firstCaption = carried.firstCaption();
+			nextShouldCapitalize = carried.nextShouldCapitalize();
+		}
+	}
+
+	/**
+	 * Returns whether a word repeats the word before it: the same word ignoring case, trailing punctuation and a plural "s" or "es"
+	 * on either one, unless the earlier word ends a sentence or is a stop word.
+	 * @param text The text holding the earlier word
+	 * @param start The index of the earlier word's first character
+	 * @param end The index after the earlier word's last character
+	 * @param nextText The text holding the later word
+	 * @param nextStart The index of the later word's first character
+	 * @param nextEnd The index after the later word's last character
+	 * @param stopWords Lowercase words that are never repeats
+	 * @return A boolean
+	 */
+	static boolean isRepeat(CharSequence text, int start, int end, CharSequence nextText, int nextStart, int nextEnd, Set<String> stopWords) {
+		int stem = stripPunctuation(text, start, end);
+		int nextStem = stripPunctuation(nextText, nextStart, nextEnd);
+		if (stem == start || nextStem == nextStart || isSentenceEnd(text, stem, end)) {
+			return false;
+		}
+		int length = stem - start;
+		int nextLength = nextStem - nextStart;
+		boolean same;
+		if (length == nextLength) {
+			same = Caption.regionEquals(text, start, stem, nextText, nextStart, nextStem, true);
+		}
+		else if (length < nextLength) {
+			same = isPluralOf(nextText, nextStart, nextStem, length) && Caption.regionEquals(text, start, stem, nextText, nextStart, nextStart + length, true);
+		}
+		else {
+			same = isPluralOf(text, start, stem, nextLength) && Caption.regionEquals(text, start, start + nextLength, nextText, nextStart, nextStem, true);
+		}
+		return same && (stopWords.isEmpty() || !stopWords.contains(text.subSequence(start, stem).toString().toLowerCase()));
+	}
+
+	/**
+	 * Returns the end of a word without its trailing punctuation.
+	 */
+	private static int stripPunctuation(CharSequence text, int start, int end) {
+		while (end > start && TRAILING_PUNCTUATION.indexOf(text.charAt(end - 1)) >= 0) {
+			end--;
+		}
+		return end;
+	}
+
+	private static boolean isSentenceEnd(CharSequence text, int from, int end) {
+		for (int i = from; i < end; i++) {
+			if (SENTENCE_END.indexOf(text.charAt(i)) >= 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns whether a word is another word of a specified length with "s" or "es" added, for words of at least MIN_PLURAL_STEM letters.
+	 */
+	private static boolean isPluralOf(CharSequence text, int start, int end, int stemLength) {
+		int added = end - start - stemLength;
+		if (stemLength < MIN_PLURAL_STEM || added < 1 || added > 2) {
+			return false;
+		}
+		char last = Character.toLowerCase(text.charAt(end - 1));
+		return last == 's' && (added == 1 || Character.toLowerCase(text.charAt(end - 2)) == 'e');
+	}
+
+	private static Set<String> lowercase(Set<String> words) {
+		Set<String> lowercase = new HashSet<>();
+		for (String word : words) {
+			lowercase.add(word.toLowerCase());
+		}
+		return Set.copyOf(lowercase);
+	}
+
+	/**
+	 * Moves a word to an earlier position of the same buffer, after a single space unless it's the first word written.
+	 * @param content The buffer holding the word
+	 * @param written The number of characters written so far, no more than start
+	 * @param separate Whether to write a space first
+	 * @param start The index of the word's first character
+	 * @param end The index after the word's last character
+	 * @param lowercase Whether to lowercase the word as it's moved
+	 * @return The new number of characters written
+	 */
+	private static int emit(StringBuilder content, int written, boolean separate, int start, int end, boolean lowercase) {
+		if (separate) {
+			content.setCharAt(written++, ' ');
+		}
+		for (int i = start; i < end; i++) {
+			char c = content.charAt(i);
+			content.setCharAt(written++, lowercase ? Character.toLowerCase(c) : c);
+		}
+		return written;
+	}
+
+}
@@ -0,0 +1,144 @@
+package captionsprocessor;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Shares one instance among equal Strings read from captions files, so that files held in memory together don't each keep their own
+ * copies of the timing lines, cue settings and short content lines that recur within and across files. Parsers given a pool (see
+ * CaptionFormat.newParser()) take their Strings from it, and a CaptionStore given one takes its timing Strings from it.
+ * <p>
+ * The pool is a fixed number of slots addressed by hash, each holding the last String stored there; a String that isn't found
+ * replaces whatever was in its slot. It never holds more than its capacity, and a String it has let go of is only kept by the
+ * captions that use it. Strings longer than MAX_LENGTH are rarely repeated, and are returned as they are.
+ * A pool is safe to share between the parsers of several worker threads.
+ */
+public final class StringPool {
+
+	public static final int DEFAULT_CAPACITY = 1 << 16;
+	public static final int MAX_LENGTH = 128;
+
+	private static final int STRING_OVERHEAD = 40;  //a String and its value array's headers, with compressed references
+
+	private final AtomicReferenceArray<String> slots;
+	private final int mask;
+	private final LongAdder lookups = new LongAdder();
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder bytesSaved = new LongAdder();
+
+	/**
+	 * Creates an empty pool.
+	 * @param capacity The number of Strings the pool can hold, rounded up to a power of two
+	 */
+	public StringPool(int capacity) {
+		if (capacity < 1 || capacity > 1 << 30) {
+			throw new IllegalArgumentException("Capacity must be between 1 and 2^30");
+		}
+		int slotCount = Integer.highestOneBit(capacity);
+		slotCount = (slotCount < capacity) ? slotCount << 1 : slotCount;
+		this.slots = new AtomicReferenceArray<>(slotCount);
+		this.mask = slotCount - 1;
+	}
+
+	/**
+	 * Returns the pooled String equal to a String, pooling this one if there isn't one.
+	 * @param string The String
+	 * @return An equal String, possibly the same one
+	 */
+	public String intern(String string) {
+		if (string.length() > MAX_LENGTH) {
+			return string;
+		}
+		int slot = slot(string.hashCode());
+		String pooled = slots.get(slot);
+		lookups.increment();
+		if (string.equals(pooled)) {
+			if (pooled != string) {
+				hits.increment();
+				bytesSaved.add(sizeOf(string));
+			}
+			return pooled;
+		}
+		slots.setRelease(slot, string);
+		return string;
+	}
+
+	/**
+	 * Returns the pooled String equal to some characters, such as a caption's content in a StringBuilder, creating and pooling
+	 * a String of them if there isn't one. A String is only created when none is pooled.
+	 * @param chars The characters
+	 * @return A String of the characters
+	 */
+	public String intern(CharSequence chars) {
+		int length = chars.length();
+		if (length > MAX_LENGTH) {
+			return chars.toString();
+		}
+		int hash = 0;
+		for (int i = 0; i < length; i++) {  //as String.hashCode() computes it
+			hash = 31 * hash + chars.charAt(i);
+		}
+		int slot = slot(hash);
+		String pooled = slots.get(slot);
+		lookups.increment();
+		if (pooled != null && pooled.contentEquals(chars)) {
+			hits.increment();
+			bytesSaved.add(sizeOf(pooled));
+			return pooled;
+		}
+		String string = chars.toString();
+		slots.setRelease(slot, string);
+		return string;
+	}
+
+	private int slot(int hash) {
+		return (hash ^ (hash >>> 16)) & mask;
+	}
+
+	/**
+	 * Estimates the heap a String takes: its headers and a byte per character, or two if any is beyond Latin-1 (see compact strings).
+	 */
+	private static long sizeOf(String string) {
+		int bytesPerChar = 1;
+		for (int i = 0; i < string.length(); i++) {
+			if (string.charAt(i) > 0xff) {
+				bytesPerChar = 2;
+				break;
+			}
+		}
+		return STRING_OVERHEAD + ((string.length() * bytesPerChar + 7) & ~7);
+	}
+
+	/**
+	 * Returns the number of Strings looked up, not counting those longer than MAX_LENGTH.
+	 * @return The count
+	 */
+	public long getLookups() {
+		return lookups.sum();
+	}
+
+	/**
+	 * Returns the number of lookups that found an equal String already pooled, so that a copy could be dropped or never created.
+	 * @return The count
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * Returns an estimate of the heap saved by the hits: the size of each copy that could be dropped or never created.
+	 * @return The number of bytes
+	 */
+	public long getBytesSaved() {
+		return bytesSaved.sum();
+	}
+
+	/**
+	 * Returns the number of slots, the most Strings the pool holds at once.
+	 * @return The capacity
+	 */
+	public int getCapacity() {
+		return slots.length();
+	}
+
+}
@@ -0,0 +1,207 @@
+package captionsprocessor;
+
+/**
+ * Converts caption timing lines such as "00:00:00,873 --> 00:00:03,520" to and from start and end times in integer milliseconds.
+ * Anything after the end time, such as WebVTT cue settings ("align:start"), is ignored when parsing; see settingsStart().
+ */
+public final class Timing {
+
+	public static final int UNPARSED = -1;  //returned for timing text that isn't in the exact form format() produces
+	static final String ARROW = " --> ";
+
+	private static final int MILLIS_PER_SECOND = 1000;
+	private static final int MILLIS_PER_MINUTE = 60 * MILLIS_PER_SECOND;
+	private static final int MILLIS_PER_HOUR = 60 * MILLIS_PER_MINUTE;
+
+	private Timing() {
+	}
+
+	/**
+	 * Returns the start time of a timing line in milliseconds.
+	 * @param timing The timing line
+	 * @return The start time, or UNPARSED if the line isn't in canonical form
+	 */
+	public static int parseStart(String timing) {
+		int arrow = timing.indexOf(ARROW);
+		if (arrow < 0 || parseTime(timing, arrow + ARROW.length(), settingsStart(timing, arrow)) == UNPARSED) {
+			return UNPARSED;
+		}
+		return parseTime(timing, 0, arrow);
+	}
+
+	/**
+	 * Returns the end time of a timing line in milliseconds.
+	 * @param timing The timing line
+	 * @return The end time, or UNPARSED if the line isn't in canonical form
+	 */
+	public static int parseEnd(String timing) {
+		int arrow = timing.indexOf(ARROW);
+		if (arrow < 0 || parseTime(timing, 0, arrow) == UNPARSED) {
+			return UNPARSED;
+		}
+		return parseTime(timing, arrow + ARROW.length(), settingsStart(timing, arrow));
+	}
+
+	/**
+	 * Returns where the settings after the end time of a timing line start: the space or tab that ends the end time,
+	 * or the end of the line if there are none. Spaces and tabs before the end time, as in "00:00:01,000  -->  00:00:02,500",
+	 * are skipped rather than taken for the end of it.
+	 * @param timing The timing line
+	 * @return The index of the settings, including their leading space
+	 */
+	static int settingsStart(String timing) {
+		int arrow = timing.indexOf(ARROW);
+		return (arrow < 0) ? timing.length() : settingsStart(timing, arrow);
+	}
+
+	private static int settingsStart(String timing, int arrow) {
+		int i = arrow + ARROW.length();
+		while (i < timing.length() && (timing.charAt(i) == ' ' || timing.charAt(i) == '\t')) {
+			i++;
+		}
+		while (i < timing.length() && timing.charAt(i) != ' ' && timing.charAt(i) != '\t') {
+			i++;
+		}
+		return i;
+	}
+
+	/**
+	 * Parses a single time of the form HH:MM:SS,mmm (two or more hour digits) from part of a String.
+	 * @param text The String containing the time
+	 * @param from The index of the first character of the time
+	 * @param to The index after the last character of the time
+	 * @return The time in milliseconds, or UNPARSED
+	 */
+	static int parseTime(CharSequence text, int from, int to) {
+		int hourDigits = to - from - 10;  //everything before ":MM:SS,mmm"
+		if (hourDigits < 2 || hourDigits > 5) {
+			return UNPARSED;
+		}
+		int hoursEnd = from + hourDigits;
+		if (text.charAt(hoursEnd) != ':' || text.charAt(hoursEnd + 3) != ':' || text.charAt(hoursEnd + 6) != ',') {
+			return UNPARSED;
+		}
+		int hours = parseDigits(text, from, hoursEnd);
+		int minutes = parseDigits(text, hoursEnd + 1, hoursEnd + 3);
+		int seconds = parseDigits(text, hoursEnd + 4, hoursEnd + 6);
+		int millis = parseDigits(text, hoursEnd + 7, to);
+		if (hours < 0 || minutes < 0 || minutes >= 60 || seconds < 0 || seconds >= 60 || millis < 0) {
+			return UNPARSED;
+		}
+		if (hourDigits > 2 && text.charAt(from) == '0') {  //format() never pads hours beyond two digits
+			return UNPARSED;
+		}
+		long time = (long) hours * MILLIS_PER_HOUR + minutes * MILLIS_PER_MINUTE + seconds * MILLIS_PER_SECOND + millis;
+		return (time > Integer.MAX_VALUE) ? UNPARSED : (int) time;
+	}
+
+	/**
+	 * Parses a single WebVTT time of the form [HH:]MM:SS.mmm, where hours may have any number of digits, from part of a String.
+	 * @param text The String containing the time
+	 * @param from The index of the first character of the time
+	 * @param to The index after the last character of the time
+	 * @return The time in milliseconds, or UNPARSED
+	 */
+	static int parseWebVttTime(CharSequence text, int from, int to) {
+		int minutesStart = to - 9;  //"MM:SS.mmm"
+		if (minutesStart < from || text.charAt(to - 4) != '.' || text.charAt(to - 7) != ':') {
+			return UNPARSED;
+		}
+		int hours = 0;
+		if (minutesStart > from) {
+			if (minutesStart - 1 == from || text.charAt(minutesStart - 1) != ':' || minutesStart - 1 - from > 5) {
+				return UNPARSED;
+			}
+			hours = parseDigits(text, from, minutesStart - 1);
+		}
+		int minutes = parseDigits(text, minutesStart, minutesStart + 2);
+		int seconds = parseDigits(text, minutesStart + 3, minutesStart + 5);
+		int millis = parseDigits(text, to - 3, to);
+		if (hours < 0 || minutes < 0 || minutes >= 60 || seconds < 0 || seconds >= 60 || millis < 0) {
+			return UNPARSED;
+		}
+		long time = (long) hours * MILLIS_PER_HOUR + minutes * MILLIS_PER_MINUTE + seconds * MILLIS_PER_SECOND + millis;
+		return (time > Integer.MAX_VALUE) ? UNPARSED : (int) time;
+	}
+
+	/**
+	 * Adds an offset to a time, keeping the result between 0 and Integer.MAX_VALUE.
+	 * @param time The time in milliseconds
+	 * @param offset The offset in milliseconds, negative to move the time earlier
+	 * @return The shifted time
+	 */
+	static int shift(int time, int offset) {
+		return (int) Math.max(0, Math.min(Integer.MAX_VALUE, (long) time + offset));
+	}
+
+	/**
+	 * Multiplies a time by a factor, rounding to the nearest millisecond and keeping the result at most Integer.MAX_VALUE.
+	 * Like shift(), this never puts two times in a different order.
+	 * @param time The time in milliseconds
+	 * @param factor The positive factor
+	 * @return The scaled time
+	 */
+	static int scale(int time, double factor) {
+		return (int) Math.min(Integer.MAX_VALUE, Math.round(time * factor));
+	}
+
+	private static int parseDigits(CharSequence text, int from, int to) {
+		int value = 0;
+		for (int i = from; i < to; i++) {
+			char c = text.charAt(i);
+			if (c < '0' || c > '9') {
+				return UNPARSED;
+			}
+			value = value * 10 + (c - '0');
+		}
+		return value;
+	}
+
+	/**
+	 * Formats start and end times as a timing line.
+	 * @param start The start time in milliseconds
+	 * @param end The end time in milliseconds
+	 * @return The timing line
+	 */
+	public static String format(int start, int end) {
+		StringBuilder timing = new StringBuilder(29);
+		append(timing, start, end);
+		return timing.toString();
+	}
+
+	/**
+	 * Appends a timing line for the specified start and end times to a StringBuilder.
+	 * @param out The StringBuilder to be appended to
+	 * @param start The start time in milliseconds
+	 * @param end The end time in milliseconds
+	 */
+	public static void append(StringBuilder out, int start, int end) {
+		appendTime(out, start, ',');
+		out.append(ARROW);
+		appendTime(out, end, ',');
+	}
+
+	/**
+	 * Appends a single time as HH:MM:SS followed by a separator and three millisecond digits.
+	 * @param out The StringBuilder to be appended to
+	 * @param time The time in milliseconds
+	 * @param separator The character between seconds and milliseconds
+	 */
+	static void appendTime(StringBuilder out, int time, char separator) {
+		int hours = time / MILLIS_PER_HOUR;
+		if (hours < 10) out.append('0');
+		out.append(hours).append(':');
+		appendPadded(out, (time / MILLIS_PER_MINUTE) % 60, 2);
+		out.append(':');
+		appendPadded(out, (time / MILLIS_PER_SECOND) % 60, 2);
+		out.append(separator);
+		appendPadded(out, time % MILLIS_PER_SECOND, 3);
+	}
+
+	private static void appendPadded(StringBuilder out, int value, int digits) {
+		if (digits == 3 && value < 100) out.append('0');
+		if (value < 10) out.append('0');
+		out.append(value);
+	}
+
+}
@@ -0,0 +1,410 @@
+package captionsprocessor;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A domain vocabulary (course terms, names, acronyms) that caption words are corrected against, for speech-to-text errors that are
+ * close to a known term but not on the replacement table: "washoe" to "WashU" without listing every way it can be misheard.
+ * <p>
+ * A word is corrected to the term nearest to it by Damerau-Levenshtein distance (insertions, deletions, substitutions and swaps
+ * of adjacent letters), up to the maximum distance, and only if that term is the only one so near. Words and terms of fewer than
+ * MIN_WORD_LENGTH letters are only matched exactly, which restores the capitals of an acronym, and words up to SHORT_WORD_LENGTH
+ * letters only by a single edit, since short words are close to too much; leave out short terms that are also ordinary words. Matching ignores case and trailing punctuation; a term with capitals is written as it appears in the
+ * vocabulary, and an all-lowercase term takes the capitalization of the word it replaces.
+ * <p>
+ * Terms are found with a symmetric delete index (as in SymSpell): every string made by deleting up to the maximum distance of letters
+ * from the first few letters of each term is hashed into a sorted array, so the candidates for a word are looked up by the deletions of the word
+ * instead of comparing it with every term, and only they are checked for their true distance. Since the same words recur throughout
+ * a file and across files, the outcome for each word is cached, here for every thread that shares the Vocabulary and in each
+ * Stages.CorrectTerms for the words of the file it's processing.
+ * <p>
+ * A vocabulary file holds one term per line, read as UTF-8. Blank lines and lines starting with # are ignored. A line starting with !
+ * holds a known word instead, which is never corrected and never corrected to, for ordinary words that are close to a term
+ * ("!adopt" next to "adapt" would leave both alone).
+ * <p>
+ * Usage: Vocabulary [--max-distance N] FILE [WORD...] (builds the index and prints the correction for each WORD)
+ */
+public final class Vocabulary {
+
+	public static final int DEFAULT_MAX_DISTANCE = 2;
+	public static final int MAX_DISTANCE = 3;
+	static final int MIN_WORD_LENGTH = 4;
+	static final int SHORT_WORD_LENGTH = 5;
+	static final int NO_MATCH = -1;
+
+	private static final String COMMENT = "#";
+	private static final String KNOWN_WORD = "!";
+	private static final int PREFIX_LENGTH = 7;  //deletions are only taken from the start of a term, which bounds the index at the cost of more candidates
+	private static final int TERM_BITS = 24;  //each index entry is a deletion's hash above a term number
+	private static final long TERM_MASK = (1L << TERM_BITS) - 1;
+	private static final int MAX_CACHED_WORDS = 1 << 16;
+
+	private final String[] terms;  //as written in the vocabulary
+	private final String[] lowercaseTerms;
+	private final boolean[] known;
+	private final Map<String, Integer> exact;
+	private final long[] deletions;  //sorted
+	private final int maxDistance;
+	private final Map<String, Integer> cache = new ConcurrentHashMap<>();
+	private String fingerprint;
+
+	private Vocabulary(List<String> terms, List<Boolean> known, int maxDistance) {
+		if (maxDistance < 1 || maxDistance > MAX_DISTANCE) {
+			throw new IllegalArgumentException("Maximum distance must be from 1 to " + MAX_DISTANCE + ": " + maxDistance);
+		}
+		if (terms.size() > TERM_MASK) {
+			throw new IllegalArgumentException("Too many terms: " + terms.size());
+		}
+		this.maxDistance = maxDistance;
+		this.terms = terms.toArray(new String[0]);
+		this.lowercaseTerms = new String[this.terms.length];
+		this.known = new boolean[this.terms.length];
+		this.exact = new HashMap<>();
+		int masks = 0;
+		for (int mask = 0; mask < 1 << PREFIX_LENGTH; mask++) {
+			masks += (Integer.bitCount(mask) <= maxDistance) ? 1 : 0;
+		}
+		long[] index = new long[this.terms.length * masks];
+		int entries = 0;
+		for (int t = 0; t < this.terms.length; t++) {
+			lowercaseTerms[t] = this.terms[t].toLowerCase();
+			this.known[t] = known.get(t);
+			exact.put(lowercaseTerms[t], t);
+			int prefix = Math.min(lowercaseTerms[t].length(), PREFIX_LENGTH);
+			for (int mask = 0; mask < 1 << prefix; mask++) {
+				if (Integer.bitCount(mask) <= maxDistance && Integer.bitCount(mask) < lowercaseTerms[t].length()) {
+					index[entries++] = (deletionHash(lowercaseTerms[t], prefix, mask) << TERM_BITS) | t;
+				}
+			}
+		}
+		Arrays.sort(index, 0, entries);
+		int unique = 0;
+		for (int i = 0; i < entries; i++) {
+			if (unique == 0 || index[i] != index[unique - 1]) {  //deleting either of two equal letters gives the same string
+				index[unique++] = index[i];
+			}
+		}
+		this.deletions = Arrays.copyOf(index, unique);
+	}
+
+	/**
+	 * Reads and indexes a vocabulary file.
+	 * @param path The vocabulary file
+	 * @param maxDistance The most edits a word may be from a term to be corrected to it, from 1 to MAX_DISTANCE
+	 * @return The Vocabulary
+	 * @throws IOException If the file can't be read
+	 * @throws IllegalArgumentException If a line holds more than one word
+	 */
+	public static Vocabulary read(Path path, int maxDistance) throws IOException {
+		return parse(path.toString(), Files.readString(path, StandardCharsets.UTF_8), maxDistance);
+	}
+
+	/**
+	 * Indexes the lines of a vocabulary file.
+	 * @param source A name for the vocabulary, for error messages
+	 * @param text The text of the vocabulary file
+	 * @param maxDistance The most edits a word may be from a term to be corrected to it
+	 * @return The Vocabulary
+	 */
+	static Vocabulary parse(String source, String text, int maxDistance) {
+		return of(source, Arrays.asList(text.split("\r\n|\r|\n")), maxDistance);
+	}
+
+	/**
+	 * Indexes a list of terms, each written as on a line of a vocabulary file.
+	 * @param terms The terms, and known words prefixed with !
+	 * @param maxDistance The most edits a word may be from a term to be corrected to it
+	 * @return The Vocabulary
+	 */
+	public static Vocabulary of(List<String> terms, int maxDistance) {
+		return of("vocabulary", terms, maxDistance);
+	}
+
+	private static Vocabulary of(String source, List<String> lines, int maxDistance) {
+		List<String> terms = new ArrayList<>();
+		List<Boolean> known = new ArrayList<>();
+		Map<String, Boolean> seen = new HashMap<>();
+		for (int i = 0; i < lines.size(); i++) {
+			String line = lines.get(i).strip();
+			if (line.isEmpty() || line.startsWith(COMMENT)) {
+				continue;
+			}
+			boolean knownWord = line.startsWith(KNOWN_WORD);
+			String term = knownWord ? line.substring(KNOWN_WORD.length()).strip() : line;
+			if (term.isEmpty() || term.indexOf(' ') >= 0 || term.indexOf('\t') >= 0) {
+				throw new IllegalArgumentException(source + ":" + (i + 1) + ": expected a single word");
+			}
+			if (seen.putIfAbsent(term.toLowerCase(), knownWord) == null) {  //the first spelling of a term is the one written
+				terms.add(term);
+				known.add(knownWord);
+			}
+		}
+		return new Vocabulary(terms, known, maxDistance);
+	}
+
+	public int size() {
+		return terms.length;
+	}
+
+	public int getMaxDistance() {
+		return maxDistance;
+	}
+
+	/**
+	 * Returns the correction for a word on its own, for trying out a vocabulary.
+	 * @param word The word, without surrounding spaces
+	 * @return The word as it would be written, or null if it wouldn't be changed
+	 */
+	public String correct(CharSequence word) {
+		int stem = word.length();
+		while (stem > 0 && !Character.isLetter(word.charAt(stem - 1))) {
+			stem--;
+		}
+		int term = find(word, 0, stem);
+		if (term == NO_MATCH) {
+			return null;
+		}
+		StringBuilder corrected = new StringBuilder();
+		appendTerm(term, word, 0, stem, corrected);
+		corrected.append(word, stem, word.length());
+		return corrected.toString().contentEquals(word) ? null : corrected.toString();
+	}
+
+	/**
+	 * Finds the term a word should be corrected to.
+	 * @param text The text holding the word
+	 * @param start The index of the word's first character
+	 * @param end The index after the word's last letter, without trailing punctuation
+	 * @return The number of the term, or NO_MATCH if the word is to be left alone
+	 */
+	int find(CharSequence text, int start, int end) {
+		int length = end - start;
+		if (length < 2) {
+			return NO_MATCH;
+		}
+		char[] word = new char[length];
+		for (int i = 0; i < length; i++) {
+			char c = text.charAt(start + i);
+			if (!Character.isLetter(c) && !(i > 0 && i + 1 < length && (c == '\'' || c == '-'))) {  //numbers, URLs and the like aren't terms
+				return NO_MATCH;
+			}
+			word[i] = Character.toLowerCase(c);
+		}
+		String key = new String(word);
+		Integer cached = cache.get(key);
+		if (cached != null) {
+			return cached;
+		}
+		Integer term = exact.get(key);
+		int found = (term != null) ? term : (length < MIN_WORD_LENGTH) ? NO_MATCH : search(key);
+		if (found != NO_MATCH && known[found]) {
+			found = NO_MATCH;
+		}
+		if (cache.size() >= MAX_CACHED_WORDS) {
+			cache.clear();  //simpler than tracking use, and the words that matter soon come back
+		}
+		cache.put(key, found);
+		return found;
+	}
+
+	/**
+	 * Returns the single term nearest to a lowercase word, looking up every deletion of the word's start in the index.
+	 */
+	private int search(String word) {
+		int allowed = (word.length() <= SHORT_WORD_LENGTH) ? 1 : maxDistance;
+		int prefix = Math.min(word.length(), PREFIX_LENGTH);
+		int best = NO_MATCH;
+		int bestDistance = allowed + 1;
+		boolean ambiguous = false;
+		int[] checked = new int[16];
+		int checkedCount = 0;
+		int[][] rows = new int[3][word.length() + 1];
+		for (int mask = 0; mask < 1 << prefix; mask++) {
+			if (Integer.bitCount(mask) > allowed || Integer.bitCount(mask) >= word.length()) {
+				continue;
+			}
+			long hash = deletionHash(word, prefix, mask);
+			for (int i = lowerBound(hash << TERM_BITS); i < deletions.length && deletions[i] >>> TERM_BITS == hash; i++) {
+				int term = (int) (deletions[i] & TERM_MASK);
+				if (contains(checked, checkedCount, term)) {
+					continue;
+				}
+				if (checkedCount == checked.length) {
+					checked = Arrays.copyOf(checked, checkedCount * 2);
+				}
+				checked[checkedCount++] = term;
+				String candidate = lowercaseTerms[term];
+				if (candidate.length() < MIN_WORD_LENGTH || Math.abs(candidate.length() - word.length()) > Math.min(allowed, bestDistance)) {
+					continue;
+				}
+				int distance = distance(word, candidate, Math.min(allowed, bestDistance), rows);
+				if (distance < bestDistance) {
+					best = term;
+					bestDistance = distance;
+					ambiguous = false;
+				}
+				else if (distance == bestDistance) {
+					ambiguous = true;
+				}
+			}
+		}
+		return ambiguous ? NO_MATCH : best;
+	}
+
+	private int lowerBound(long key) {
+		int low = 0;
+		int high = deletions.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (deletions[middle] < key) {
+				low = middle + 1;
+			}
+			else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	private static boolean contains(int[] values, int count, int value) {
+		for (int i = 0; i < count; i++) {
+			if (values[i] == value) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Hashes the prefix of a word with the characters set in a mask deleted, without building the shorter String.
+	 */
+	private static long deletionHash(String word, int prefix, int mask) {
+		long hash = 0xcbf29ce484222325L;  //FNV-1a
+		for (int i = 0; i < prefix; i++) {
+			if ((mask & (1 << i)) != 0) {
+				continue;
+			}
+			hash = (hash ^ word.charAt(i)) * 0x100000001b3L;
+		}
+		hash ^= hash >>> 33;  //FNV's low bits mix poorly, and only the top bits are kept
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		return hash >>> TERM_BITS;
+	}
+
+	/**
+	 * Returns the optimal string alignment distance between two words (Levenshtein distance, with a swap of adjacent letters
+	 * counting as one edit), or limit + 1 as soon as it's known to be over a limit.
+	 * @param rows Three rows of scratch space, each longer than a
+	 */
+	static int distance(String a, String b, int limit, int[][] rows) {
+		int[] previous = rows[0];
+		int[] current = rows[1];
+		int[] beforePrevious = rows[2];
+		for (int i = 0; i <= a.length(); i++) {
+			previous[i] = i;
+		}
+		for (int j = 1; j <= b.length(); j++) {
+			current[0] = j;
+			int rowMinimum = j;
+			for (int i = 1; i <= a.length(); i++) {
+				int cost = (a.charAt(i - 1) == b.charAt(j - 1)) ? 0 : 1;
+				int value = Math.min(Math.min(current[i - 1] + 1, previous[i] + 1), previous[i - 1] + cost);
+				if (i > 1 && j > 1 && a.charAt(i - 1) == b.charAt(j - 2) && a.charAt(i - 2) == b.charAt(j - 1)) {
+					value = Math.min(value, beforePrevious[i - 2] + 1);
+				}
+				current[i] = value;
+				rowMinimum = Math.min(rowMinimum, value);
+			}
+			if (rowMinimum > limit) {
+				return limit + 1;
+			}
+			int[] recycled = beforePrevious;
+			beforePrevious = previous;
+			previous = current;
+			current = recycled;
+		}
+		return Math.min(previous[a.length()], limit + 1);
+	}
+
+	/**
+	 * Appends a term in place of a word: as written if it has capitals, and otherwise capitalized like the word.
+	 * @param term The number of the term, from find()
+	 * @param text The text holding the word
+	 * @param start The index of the word's first character
+	 * @param end The index after the word's last letter
+	 * @param out The buffer to be appended to
+	 */
+	void appendTerm(int term, CharSequence text, int start, int end, StringBuilder out) {
+		String written = terms[term];
+		if (!written.equals(lowercaseTerms[term])) {
+			out.append(written);
+			return;
+		}
+		if (end - start > 1 && Caption.isAllCaps(text, start, end)) {
+			out.append(written.toUpperCase());
+			return;
+		}
+		int from = out.length();
+		out.append(written);
+		if (Character.isUpperCase(text.charAt(start))) {
+			out.setCharAt(from, Character.toUpperCase(written.charAt(0)));
+		}
+	}
+
+	/**
+	 * Returns a SHA-256 of the maximum distance and every term, as hex. Vocabularies with the same fingerprint correct identically.
+	 * @return The fingerprint
+	 */
+	public String getFingerprint() {
+		if (fingerprint == null) {
+			try {
+				MessageDigest digest = MessageDigest.getInstance("SHA-256");
+				digest.update((byte) maxDistance);
+				for (int t = 0; t < terms.length; t++) {
+					digest.update(((known[t] ? KNOWN_WORD : "") + terms[t] + '\0').getBytes(StandardCharsets.UTF_8));
+				}
+				StringBuilder hex = new StringBuilder();
+				for (byte b : digest.digest()) {
+					hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+				}
+				fingerprint = hex.toString();
+			} catch (NoSuchAlgorithmException nsae) {
+				throw new IllegalStateException(nsae);  //every JVM has SHA-256
+			}
+		}
+		return fingerprint;
+	}
+
+	public static void main(String[] args) throws IOException {
+		int maxDistance = DEFAULT_MAX_DISTANCE;
+		int first = 0;
+		if (args.length > 1 && args[0].equals("--max-distance")) {
+			maxDistance = Integer.parseInt(args[1]);
+			first = 2;
+		}
+		if (args.length <= first) {
+			System.err.println("Usage: Vocabulary [--max-distance N] FILE [WORD...]");
+			System.exit(2);
+		}
+		long start = System.nanoTime();
+		Vocabulary vocabulary = read(Path.of(args[first]), maxDistance);
+		System.out.format("%d terms indexed in %.1f ms%n", vocabulary.size(), (System.nanoTime() - start) / 1e6);
+		for (int i = first + 1; i < args.length; i++) {
+			String correction = vocabulary.correct(args[i]);
+			System.out.println(args[i] + " -> " + ((correction == null) ? "(unchanged)" : correction));
+		}
+	}
+
+}
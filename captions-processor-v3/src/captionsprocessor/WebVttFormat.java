@@ -0,0 +1,230 @@
+package captionsprocessor;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * The WebVTT (.vtt) layout: a "WEBVTT" header block, then cues of an optional identifier line, a timing line with periods before
+ * the milliseconds and optional cue settings, and the content lines, each followed by a blank line.
+ * <p>
+ * Cues are read into Captions with their timing lines converted to SubRip form, keeping any cue settings after the end time, and are
+ * numbered by their identifier where it's an integer or by their position otherwise. NOTE, STYLE and REGION blocks and the header's
+ * own lines are skipped, so they don't survive a round trip. Captions are written with their number as the cue identifier.
+ */
+final class WebVttFormat implements CaptionFormat {
+
+	static final String SIGNATURE = "WEBVTT";
+	private static final String HEADER = SIGNATURE + "\n\n";
+	private static final String TIMING_ARROW = "-->";
+	private static final String[] SKIPPED_BLOCKS = {"NOTE", "STYLE", "REGION"};
+
+	@Override
+	public String getName() {
+		return "vtt";
+	}
+
+	@Override
+	public String getExtension() {
+		return ".vtt";
+	}
+
+	@Override
+	public Parser newParser(StringPool strings) {
+		return new WebVttParser(strings);
+	}
+
+	@Override
+	public void appendHeader(StringBuilder out) {
+		out.append(HEADER);
+	}
+
+	@Override
+	public void appendCaption(StringBuilder out, Caption caption) {
+		out.append(caption.getNumber()).append('\n');
+		appendTiming(out, caption.getTiming());
+		out.append('\n').append(caption.getContent()).append('\n').append('\n');
+	}
+
+	@Override
+	public void appendCaption(StringBuilder out, CaptionStore store, int index) {
+		out.append(store.getNumber(index)).append('\n');
+		int start = store.getStartMillis(index);
+		if (start == Timing.UNPARSED) {
+			appendTiming(out, store.getTiming(index));
+		}
+		else {
+			Timing.appendTime(out, start, '.');
+			out.append(Timing.ARROW);
+			Timing.appendTime(out, store.getEndMillis(index), '.');
+			out.append(store.getTimingSettings(index));
+		}
+		out.append('\n');
+		store.appendContent(index, out);
+		out.append('\n').append('\n');
+	}
+
+	/**
+	 * Appends a SubRip timing line with periods in place of the commas in its two times, leaving any cue settings after them as they are.
+	 */
+	private static void appendTiming(StringBuilder out, String timing) {
+		int timesEnd = Timing.settingsStart(timing);
+		for (int i = 0; i < timesEnd; i++) {
+			char c = timing.charAt(i);
+			out.append(c == ',' ? '.' : c);
+		}
+		out.append(timing, timesEnd, timing.length());
+	}
+
+	private static int endOfToken(CharSequence text, int from) {
+		int i = from;
+		while (i < text.length() && text.charAt(i) != ' ' && text.charAt(i) != '\t') {
+			i++;
+		}
+		return i;
+	}
+
+	private static int skipBlanks(CharSequence text, int from, int to) {
+		int i = from;
+		while (i < to && (text.charAt(i) == ' ' || text.charAt(i) == '\t')) {
+			i++;
+		}
+		return i;
+	}
+
+	/**
+	 * Returns whether a line is the first line of a WebVTT file: "WEBVTT", alone or followed by a space, tab or line break.
+	 * @param line The line
+	 * @return A boolean
+	 */
+	static boolean isHeader(CharSequence line) {
+		if (line.length() < SIGNATURE.length() || !Caption.regionEquals(line, 0, SIGNATURE.length(), SIGNATURE, false)) {
+			return false;
+		}
+		if (line.length() == SIGNATURE.length()) {
+			return true;
+		}
+		char next = line.charAt(SIGNATURE.length());
+		return next == ' ' || next == '\t' || next == '\n' || next == '\r';
+	}
+
+	/**
+	 * Converts a WebVTT timing line to SubRip form, keeping any cue settings after the end time.
+	 * @param line The timing line, which contains "-->"
+	 * @return The timing line in SubRip form, or the line as it was if its times can't be parsed
+	 */
+	static String toSubRipTiming(String line) {
+		int arrow = line.indexOf(TIMING_ARROW);
+		int startFrom = skipBlanks(line, 0, arrow);
+		int startTo = arrow;
+		while (startTo > startFrom && (line.charAt(startTo - 1) == ' ' || line.charAt(startTo - 1) == '\t')) {
+			startTo--;
+		}
+		int endFrom = skipBlanks(line, arrow + TIMING_ARROW.length(), line.length());
+		int endTo = endOfToken(line, endFrom);
+		int start = Timing.parseWebVttTime(line, startFrom, startTo);
+		int end = Timing.parseWebVttTime(line, endFrom, endTo);
+		if (start == Timing.UNPARSED || end == Timing.UNPARSED) {
+			return line;
+		}
+		StringBuilder timing = new StringBuilder(line.length() + 4);
+		Timing.append(timing, start, end);
+		return timing.append(line, endTo, line.length()).toString();
+	}
+
+	/**
+	 * Returns whether a line starts a block that holds no cue.
+	 */
+	private static boolean startsSkippedBlock(String line) {
+		for (String keyword : SKIPPED_BLOCKS) {
+			if (line.startsWith(keyword) && (line.length() == keyword.length() || line.charAt(keyword.length()) == ' ' || line.charAt(keyword.length()) == '\t')) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public String toString() {
+		return "WebVTT";
+	}
+
+	/**
+	 * Parses WebVTT a block at a time: each cue is complete at the blank line after it, so only the cue being read is held.
+	 */
+	private static final class WebVttParser implements Parser {
+
+		private final StringPool strings;  //or null
+		private final Deque<Caption> ready = new ArrayDeque<>();
+		private final StringBuilder content = new StringBuilder();
+		private boolean firstLine = true;
+		private boolean skipping = false;  //in the header, a block that isn't a cue, or the rest of a malformed one
+		private String identifier = null;  //the first line of the current block, if it could be a cue identifier
+		private String timing = null;  //the timing line of the current cue, in SubRip form, once it has been read
+		private int cues = 0;
+
+		private WebVttParser(StringPool strings) {
+			this.strings = strings;
+		}
+
+		@Override
+		public void feed(String line) {
+			if (line.isEmpty()) {
+				endBlock();
+				return;
+			}
+			if (firstLine) {
+				firstLine = false;
+				if (isHeader(line)) {
+					skipping = true;
+					return;
+				}
+			}
+			if (skipping) {
+				return;
+			}
+			if (timing != null) {
+				if (content.length() > 0) {
+					content.append(CaptionsProcessor.CAPTION_BREAK_DELINEATOR);
+				}
+				content.append(line);
+			}
+			else if (line.contains(TIMING_ARROW)) {
+				timing = (strings != null) ? strings.intern(toSubRipTiming(line)) : toSubRipTiming(line);
+			}
+			else if (identifier == null && !startsSkippedBlock(line)) {
+				identifier = line;
+			}
+			else {  //a comment or style block, or a second line before any timing
+				skipping = true;
+			}
+		}
+
+		private void endBlock() {
+			if (timing != null) {
+				cues++;
+				int number = (identifier != null && Caption.isInteger(identifier)) ? CaptionParser.parseNumber(identifier) : cues;
+				ready.add(new Caption(number, timing, (strings != null) ? strings.intern(content) : content.toString()));
+			}
+			content.setLength(0);
+			skipping = false;
+			identifier = null;
+			timing = null;
+		}
+
+		@Override
+		public void finish() {
+			endBlock();
+		}
+
+		@Override
+		public boolean hasReady() {
+			return !ready.isEmpty();
+		}
+
+		@Override
+		public Caption poll() {
+			return ready.poll();
+		}
+	}
+
+}
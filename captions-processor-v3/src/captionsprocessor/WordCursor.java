@@ -0,0 +1,90 @@
+package captionsprocessor;
+
+/**
+ * Steps through the space-delimited words of caption content as [start, end) offsets, without creating a String per word.
+ * Words are exactly those Caption.toWords() would return: runs of spaces produce empty words, except trailing ones.
+ * A cursor can be reset and reused for any number of captions.
+ */
+public final class WordCursor {
+
+	private CharSequence text = "";
+	private int limit;  //end of the last word; trailing spaces are ignored
+	private int position;  //start of the next word
+	private int start;
+	private int end;
+
+	/**
+	 * Points the cursor before the first word of a text.
+	 * @param text The text to be stepped through
+	 * @return This cursor
+	 */
+	public WordCursor reset(CharSequence text) {
+		this.text = text;
+		int last = text.length();
+		while (last > 0 && text.charAt(last - 1) == ' ') {
+			last--;
+		}
+		this.limit = last;
+		this.position = (last == 0 && text.length() > 0) ? 1 : 0;  //only spaces means no words at all; empty text is one empty word
+		this.start = 0;
+		this.end = 0;
+		return this;
+	}
+
+	/**
+	 * Advances to the next word.
+	 * @return Whether there was another word
+	 */
+	public boolean next() {
+		if (position > limit) {
+			return false;
+		}
+		start = position;
+		int i = start;
+		while (i < limit && text.charAt(i) != ' ') {
+			i++;
+		}
+		end = i;
+		position = i + 1;
+		return true;
+	}
+
+	/**
+	 * Returns the offset of the first character of the current word.
+	 * @return The start offset
+	 */
+	public int start() {
+		return start;
+	}
+
+	/**
+	 * Returns the offset after the last character of the current word.
+	 * @return The end offset
+	 */
+	public int end() {
+		return end;
+	}
+
+	public int length() {
+		return end - start;
+	}
+
+	/**
+	 * Returns whether the current word is exactly a specified String.
+	 * @param word The String to be compared
+	 * @return A boolean
+	 */
+	public boolean is(String word) {
+		return Caption.regionEquals(text, start, end, word, false);
+	}
+
+	/**
+	 * Returns whether the current word is a specified String, ignoring case.
+	 * @param word The String to be compared
+	 * @return A boolean
+	 */
+	public boolean isIgnoreCase(String word) {
+		return Caption.regionEquals(text, start, end, word, true);
+	}
+
+}
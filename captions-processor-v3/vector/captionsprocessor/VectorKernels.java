@@ -0,0 +1,80 @@
+package captionsprocessor;
+
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * CharKernels that check a vector of characters at a time. The Vector API is still incubating, so this is kept apart from src/ and
+ * compiled on its own with --add-modules jdk.incubator.vector; CharKernels loads it when the JVM runs with that module too.
+ * <p>
+ * Each vector is loaded twice, the second time one character further on, so a character and the one after it share a lane.
+ * Content that doesn't fill a whole number of vectors ends with a vector that overlaps the one before, which is harmless because
+ * the features found are only ever added to.
+ */
+final class VectorKernels extends CharKernels {
+
+	private static final VectorSpecies<Short> SPECIES = species();
+	private static final int LANES = SPECIES.length();
+
+	VectorKernels() {
+		if (LANES < 8) {
+			throw new UnsupportedOperationException("No vectors of 128 bits or more");
+		}
+	}
+
+	/**
+	 * Returns the preferred species, but at most 256 bits: captions are mostly under 64 characters, and wider vectors would leave
+	 * most of them to the scalar loop.
+	 */
+	private static VectorSpecies<Short> species() {
+		VectorSpecies<Short> preferred = ShortVector.SPECIES_PREFERRED;
+		return (preferred.vectorBitSize() > 256) ? ShortVector.SPECIES_256 : preferred;
+	}
+
+	@Override
+	String getName() {
+		return "vector (" + SPECIES.vectorBitSize() + "-bit)";
+	}
+
+	@Override
+	int scan(char[] chars, int from, int to) {
+		if (to - from <= LANES) {
+			return scanEach(chars, from, to);
+		}
+		VectorMask<Short> doubleSpaces = SPECIES.maskAll(false);
+		VectorMask<Short> sentenceEnds = SPECIES.maskAll(false);
+		VectorMask<Short> capitals = SPECIES.maskAll(false);
+		VectorMask<Short> outsideAscii = SPECIES.maskAll(false);
+		int last = to - 1 - LANES;  //the last index a vector can start at and still have a next character for each lane
+		for (int i = from; ; i += LANES) {
+			int start = Math.min(i, last);
+			ShortVector c = ShortVector.fromCharArray(SPECIES, chars, start);
+			VectorMask<Short> nextSpaces = ShortVector.fromCharArray(SPECIES, chars, start + 1).eq((short) ' ');
+			doubleSpaces = doubleSpaces.or(c.eq((short) ' ').and(nextSpaces));
+			sentenceEnds = sentenceEnds.or(c.eq((short) '.').and(nextSpaces));
+			capitals = capitals.or(c.compare(VectorOperators.GE, (short) 'A').and(c.compare(VectorOperators.LE, (short) 'Z')));
+			outsideAscii = outsideAscii.or(c.compare(VectorOperators.UNSIGNED_GT, (short) 127));
+			if (start == last) {
+				break;
+			}
+		}
+		char lastChar = chars[to - 1];  //only ever loaded as a next character
+		if (outsideAscii.anyTrue() || lastChar >= 128) {
+			return -1;
+		}
+		int features = (lastChar >= 'A' && lastChar <= 'Z') ? CaptionFeatures.UPPERCASE : 0;
+		if (doubleSpaces.anyTrue()) {
+			features |= CaptionFeatures.DOUBLE_SPACE;
+		}
+		if (sentenceEnds.anyTrue()) {
+			features |= CaptionFeatures.SENTENCE_END;
+		}
+		if (capitals.anyTrue()) {
+			features |= CaptionFeatures.UPPERCASE;
+		}
+		return features;
+	}
+
+}